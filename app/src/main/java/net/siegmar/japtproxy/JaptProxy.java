@@ -27,10 +27,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The JaptProxy is the starting point for Japt-Proxy.
@@ -48,6 +59,12 @@ public class JaptProxy {
 
     private Map<BackendType, RepoPackageFinder> repoPackageFinders;
 
+    /**
+     * The executor handling requests asynchronously - null if asynchronous
+     * request handling is disabled.
+     */
+    private ExecutorService requestExecutor;
+
     /**
      * Analyzes (validates) request url and extract required information.
      *
@@ -62,6 +79,8 @@ public class JaptProxy {
         requestedData.setRequestModifiedSince(request.getDateHeader(HttpHeaderConstants.IF_MODIFIED_SINCE));
 
         requestedData.setUserAgent(request.getHeader(HttpHeaderConstants.USER_AGENT));
+        requestedData.setRange(request.getHeader(HttpHeaderConstants.RANGE));
+        requestedData.setIfRange(request.getHeader(HttpHeaderConstants.IF_RANGE));
         requestedData.setUrl(getURL(request, configuration));
         requestedData.setHostUrl(getURL(request, true, configuration));
         requestedData.setScheme(request.getScheme());
@@ -156,6 +175,69 @@ public class JaptProxy {
         this.repoPackageFinders = repoPackageFinders;
     }
 
+    @PostConstruct
+    public void init() {
+        final int threads = configuration.getAsyncRequestThreads();
+        if (threads == 0) {
+            return;
+        }
+
+        if (configuration.isVirtualThreads()) {
+            requestExecutor = VirtualThreads.newThreadPerTaskExecutor("async-request-");
+            LOG.info("Handling requests asynchronously on virtual threads");
+            return;
+        }
+
+        // Requests exceeding the queue are rejected instead of waiting without limit
+        final int queueSize = configuration.getAsyncRequestQueueSize();
+        final BlockingQueue<Runnable> queue = queueSize > 0
+            ? new ArrayBlockingQueue<Runnable>(queueSize)
+            : new SynchronousQueue<Runnable>();
+
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+            queue, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "async-request-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        requestExecutor = threadPoolExecutor;
+
+        LOG.info("Handling requests asynchronously with up to {} threads and {} queued requests", threads,
+            queueSize);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (requestExecutor != null) {
+            requestExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the executor that handles requests asynchronously.
+     *
+     * @return the executor - null if asynchronous request handling is
+     * disabled.
+     */
+    public Executor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    /**
+     * Returns the time an asynchronous request may take.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getRequestTimeout() {
+        return TimeUnit.SECONDS.toMillis(configuration.getAsyncRequestTimeout());
+    }
+
     /**
      * Handles the incoming request.
      *
@@ -172,11 +254,12 @@ public class JaptProxy {
 
         final Backend backend = configuration.getBackend(requestedData);
 
-
         if (backend == null) {
             throw new UnknownBackendException("Could not create backend configuration: " + requestedData);
         }
 
+        requestedData.setBackend(backend);
+
         final RepoPackageFinder rpf = repoPackageFinders.get(backend.getType());
 
         if (rpf == null) {
@@ -32,16 +32,28 @@ import org.springframework.beans.factory.annotation.Required;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The JaptProxyServlet is the starting point for Japt-Proxy servlet. All
  * requests are handled by this servlet.
+ * <p/>
+ * If asynchronous request handling is enabled (and supported by the servlet
+ * container), requests are handed over to the request executor of
+ * Japt-Proxy, so the container thread is released immediately. Requests
+ * exceeding the queue of the executor are answered with 503, requests
+ * exceeding the configured timeout are aborted.
  *
  * @author Oliver Siegmar
  */
@@ -62,6 +74,17 @@ public class JaptProxyServlet extends HttpServlet {
      */
     private JaptProxy japtProxy;
 
+    /**
+     * The executor handling requests asynchronously - null if requests are
+     * handled by the threads of the servlet container.
+     */
+    private Executor requestExecutor;
+
+    /**
+     * The time in milliseconds an asynchronous request may take.
+     */
+    private long requestTimeout;
+
     /**
      * Logs the header of the incoming request.
      *
@@ -103,6 +126,15 @@ public class JaptProxyServlet extends HttpServlet {
             japtProxy = appCtx.getBean("japtProxy", JaptProxy.class);
         }
 
+        if (japtProxy.getRequestExecutor() != null) {
+            if (getServletContext().getMajorVersion() >= 3) {
+                requestExecutor = japtProxy.getRequestExecutor();
+                requestTimeout = japtProxy.getRequestTimeout();
+            } else {
+                LOG.warn("Servlet container doesn't support asynchronous requests - handling requests synchronously");
+            }
+        }
+
         LOG.info("Japt-Proxy servlet initialization complete");
     }
 
@@ -128,7 +160,53 @@ public class JaptProxyServlet extends HttpServlet {
         throws ServletException, IOException {
         res.setBufferSize(Util.DEFAULT_BUFFER_SIZE);
 
-        MDC.put("REQUEST_ID", DigestUtils.md5Hex(Long.toString(System.currentTimeMillis())));
+        final String requestId = DigestUtils.md5Hex(Long.toString(System.currentTimeMillis()));
+
+        if (requestExecutor != null && req.isAsyncSupported()) {
+            handleAsync(requestId, req, res);
+            return;
+        }
+
+        handle(requestId, req, res);
+    }
+
+    /**
+     * Hands the request over to the request executor and releases the
+     * container thread. Requests the executor can't queue any more are
+     * answered with 503 right away.
+     *
+     * @param requestId the identifier of the request (for logging)
+     * @param req       the HttpServletRequest object
+     * @param res       the HttpServletResponse object
+     * @throws IOException is thrown if the request couldn't be rejected
+     */
+    private void handleAsync(final String requestId, final HttpServletRequest req, final HttpServletResponse res)
+        throws IOException {
+        final AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(requestTimeout);
+
+        final AsyncRequest asyncRequest = new AsyncRequest(requestId, req, res, asyncContext);
+        asyncContext.addListener(asyncRequest);
+
+        try {
+            requestExecutor.execute(asyncRequest);
+        } catch (final RejectedExecutionException e) {
+            LOG.warn("Couldn't handle request asynchronously - too many queued requests or shutting down");
+            asyncRequest.reject();
+        }
+    }
+
+    /**
+     * Handles the request and maps handling errors to HTTP status codes.
+     *
+     * @param requestId the identifier of the request (for logging)
+     * @param req       the HttpServletRequest object
+     * @param res       the HttpServletResponse object
+     * @throws IOException is thrown if an I/O error occurs
+     */
+    private void handle(final String requestId, final HttpServletRequest req, final HttpServletResponse res)
+        throws IOException {
+        MDC.put("REQUEST_ID", requestId);
 
         LOG.debug("Incoming request from IP '{}', " +
                 "User-Agent '{}'", req.getRemoteAddr(),
@@ -163,4 +241,85 @@ public class JaptProxyServlet extends HttpServlet {
         res.flushBuffer();
     }
 
+    /**
+     * A request handled by the request executor. The request is completed
+     * either by the executor or by the timeout of the servlet container -
+     * whatever comes first.
+     */
+    private final class AsyncRequest implements Runnable, AsyncListener {
+
+        private final String requestId;
+        private final HttpServletRequest req;
+        private final HttpServletResponse res;
+        private final AsyncContext asyncContext;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private AsyncRequest(final String requestId, final HttpServletRequest req, final HttpServletResponse res,
+                             final AsyncContext asyncContext) {
+            this.requestId = requestId;
+            this.req = req;
+            this.res = res;
+            this.asyncContext = asyncContext;
+        }
+
+        @Override
+        public void run() {
+            if (finished.get()) {
+                // timed out while waiting for a thread
+                return;
+            }
+
+            try {
+                handle(requestId, req, res);
+            } catch (final IOException e) {
+                LOG.debug("Couldn't send response", e);
+            } catch (final RuntimeException e) {
+                LOG.error("Error while handling request", e);
+            } finally {
+                if (finished.compareAndSet(false, true)) {
+                    asyncContext.complete();
+                }
+            }
+        }
+
+        private void reject() throws IOException {
+            if (finished.compareAndSet(false, true)) {
+                try {
+                    res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                } finally {
+                    asyncContext.complete();
+                }
+            }
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) throws IOException {
+            // A transfer still running fails once the response is completed
+            LOG.warn("Request '{}' timed out", req.getRequestURI());
+            if (res.isCommitted()) {
+                if (finished.compareAndSet(false, true)) {
+                    asyncContext.complete();
+                }
+            } else {
+                reject();
+            }
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            // nothing to do
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            // the request is completed by the executor or the timeout
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // nothing to do
+        }
+
+    }
+
 }
@@ -0,0 +1,196 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.fetcher;
+
+import net.siegmar.japtproxy.exception.ResourceUnavailableException;
+import net.siegmar.japtproxy.misc.HttpHeaderConstants;
+import net.siegmar.japtproxy.misc.Util;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * The AbstractFetcherHttp builds the requests to http resources and checks
+ * their responses. Subclasses only send the requests.
+ *
+ * @author Oliver Siegmar
+ */
+public abstract class AbstractFetcherHttp implements Fetcher {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractFetcherHttp.class);
+
+    /**
+     * Sends the request and returns as soon as the response header has been
+     * received.
+     *
+     * @param httpGet        the request to send.
+     * @param targetResource the requested resource.
+     * @return the fetched resource.
+     * @throws IOException is thrown if the request fails.
+     */
+    protected abstract FetchedResourceHttp send(HttpGet httpGet, URL targetResource) throws IOException;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FetchedResourceHttp fetch(final URL targetResource, final long lastModified, final String eTag,
+                                     final String originalUserAgent)
+        throws IOException, ResourceUnavailableException {
+
+        final HttpGet httpGet = buildHttpGet(targetResource, originalUserAgent);
+
+        if (lastModified != 0) {
+            final String lastModifiedSince = Util.getRfc822DateFromTimestamp(lastModified);
+            LOG.debug("Setting If-Modified-Since: {}", lastModifiedSince);
+            httpGet.setHeader(HttpHeaderConstants.IF_MODIFIED_SINCE, lastModifiedSince);
+        }
+
+        if (eTag != null) {
+            LOG.debug("Setting If-None-Match: {}", eTag);
+            httpGet.setHeader(HttpHeaderConstants.IF_NONE_MATCH, eTag);
+        }
+
+        final FetchedResourceHttp fetchedResourceHttp = execute(httpGet, targetResource);
+        fetchedResourceHttp.setModified(
+            lastModified == 0 && eTag == null ||
+                fetchedResourceHttp.getStatusCode() != HttpServletResponse.SC_NOT_MODIFIED
+        );
+
+        return fetchedResourceHttp;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FetchedResourceHttp fetch(final URL targetResource, final long offset, final long length,
+                                     final String validator, final String originalUserAgent)
+        throws IOException, ResourceUnavailableException {
+
+        final HttpGet httpGet = buildHttpGet(targetResource, originalUserAgent);
+
+        final String range = "bytes=" + offset + "-" + (length != -1 ? Long.toString(offset + length - 1) : "");
+        LOG.debug("Setting Range: {}", range);
+        httpGet.setHeader(HttpHeaderConstants.RANGE, range);
+
+        if (validator != null) {
+            LOG.debug("Setting If-Range: {}", validator);
+            httpGet.setHeader(HttpHeaderConstants.IF_RANGE, validator);
+        }
+
+        final FetchedResourceHttp fetchedResourceHttp = execute(httpGet, targetResource);
+
+        final int retCode = fetchedResourceHttp.getStatusCode();
+        if (retCode == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+            // The resource has been shrunk - fetch it completely
+            fetchedResourceHttp.close();
+            return fetch(targetResource, 0, null, originalUserAgent);
+        }
+
+        if (retCode == HttpServletResponse.SC_PARTIAL_CONTENT && fetchedResourceHttp.getOffset() != offset) {
+            fetchedResourceHttp.close();
+            throw new IOException("Remote host returned unrequested range for '" + targetResource + "'");
+        }
+
+        fetchedResourceHttp.setModified(true);
+
+        return fetchedResourceHttp;
+    }
+
+    private HttpGet buildHttpGet(final URL targetResource, final String originalUserAgent) {
+        final HttpGet httpGet = new HttpGet(targetResource.toExternalForm());
+
+        httpGet.addHeader(HttpHeaderConstants.USER_AGENT,
+            StringUtils.trim(
+                StringUtils.defaultString(originalUserAgent) + " " + Util.USER_AGENT
+            )
+        );
+
+        return httpGet;
+    }
+
+    private FetchedResourceHttp execute(final HttpGet httpGet, final URL targetResource)
+        throws IOException, ResourceUnavailableException {
+
+        final FetchedResourceHttp fetchedResourceHttp = send(httpGet, targetResource);
+
+        // Closing only in case of an exception - otherwise closed by the caller
+        boolean valid = false;
+        try {
+            if (LOG.isDebugEnabled()) {
+                logResponseHeader(fetchedResourceHttp.getAllHeaders());
+            }
+
+            final int retCode = fetchedResourceHttp.getStatusCode();
+            if (retCode == HttpServletResponse.SC_NOT_FOUND) {
+                throw new ResourceUnavailableException("Resource '" + targetResource + " not found");
+            }
+
+            final boolean rangeRequest = httpGet.containsHeader(HttpHeaderConstants.RANGE);
+            if (retCode != HttpServletResponse.SC_OK &&
+                retCode != HttpServletResponse.SC_NOT_MODIFIED &&
+                !(rangeRequest && (retCode == HttpServletResponse.SC_PARTIAL_CONTENT ||
+                    retCode == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE))) {
+                throw new IOException("Invalid status code returned: " + fetchedResourceHttp.getStatusLine());
+            }
+
+            if (LOG.isDebugEnabled()) {
+                final long fetchedTimestamp = fetchedResourceHttp.getLastModified();
+                if (fetchedTimestamp != 0) {
+                    LOG.debug("Response status code: {}, Last modified: {}",
+                        retCode, Util.getSimpleDateFromTimestamp(fetchedTimestamp));
+                } else {
+                    LOG.debug("Response status code: {}", retCode);
+                }
+            }
+
+            valid = true;
+            return fetchedResourceHttp;
+        } finally {
+            if (!valid) {
+                fetchedResourceHttp.close();
+            }
+        }
+    }
+
+    private void logResponseHeader(final Header[] responseHeaders) {
+        final StringBuilder sb = new StringBuilder();
+        int i = 0;
+        for (final Header header : responseHeaders) {
+            sb.append(header.getName());
+            sb.append('=');
+            sb.append(header.getValue());
+            if (++i < responseHeaders.length) {
+                sb.append(',');
+            }
+        }
+        LOG.debug("Response headers: {}", sb);
+    }
+
+}
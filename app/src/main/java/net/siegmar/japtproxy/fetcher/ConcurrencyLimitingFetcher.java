@@ -0,0 +1,245 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.fetcher;
+
+import net.siegmar.japtproxy.exception.ResourceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The ConcurrencyLimitingFetcher limits the number of concurrent requests
+ * of another Fetcher per origin (protocol, host and port of a mirror). A
+ * request occupies its origin until the body of the fetched resource has
+ * been read or the fetched resource is closed - whatever comes first. If an
+ * origin stays saturated longer than the acquire timeout, the fetch fails
+ * and the next mirror of the backend is asked.
+ *
+ * @author Oliver Siegmar
+ */
+public class ConcurrencyLimitingFetcher implements Fetcher {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimitingFetcher.class);
+
+    /**
+     * The available requests per origin.
+     */
+    private final ConcurrentMap<String, Semaphore> origins = new ConcurrentHashMap<>();
+
+    private Fetcher fetcher;
+    private int maxRequestsPerOrigin;
+    private long acquireTimeout;
+
+    @Required
+    public void setFetcher(final Fetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    @Required
+    public void setMaxRequestsPerOrigin(final int maxRequestsPerOrigin) {
+        this.maxRequestsPerOrigin = maxRequestsPerOrigin;
+    }
+
+    @Required
+    public void setAcquireTimeout(final long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FetchedResource fetch(final URL targetResource, final long lastModified, final String eTag,
+                                 final String originalUserAgent)
+        throws IOException, ResourceUnavailableException {
+        final Semaphore semaphore = acquire(targetResource);
+        try {
+            return new LimitedFetchedResource(
+                fetcher.fetch(targetResource, lastModified, eTag, originalUserAgent), semaphore);
+        } catch (final IOException | ResourceUnavailableException | RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FetchedResource fetch(final URL targetResource, final long offset, final long length,
+                                 final String validator, final String originalUserAgent)
+        throws IOException, ResourceUnavailableException {
+        final Semaphore semaphore = acquire(targetResource);
+        try {
+            return new LimitedFetchedResource(
+                fetcher.fetch(targetResource, offset, length, validator, originalUserAgent), semaphore);
+        } catch (final IOException | ResourceUnavailableException | RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    private Semaphore acquire(final URL targetResource) throws IOException {
+        final String origin = getOrigin(targetResource);
+
+        Semaphore semaphore = origins.get(origin);
+        if (semaphore == null) {
+            final Semaphore newSemaphore = new Semaphore(maxRequestsPerOrigin, true);
+            semaphore = origins.putIfAbsent(origin, newSemaphore);
+            if (semaphore == null) {
+                semaphore = newSemaphore;
+            }
+        }
+
+        if (semaphore.tryAcquire()) {
+            return semaphore;
+        }
+
+        LOG.debug("All {} requests to '{}' are in use - waiting", maxRequestsPerOrigin, origin);
+
+        try {
+            if (!semaphore.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Too many concurrent requests to '" + origin + "'");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for '" + origin + "'");
+        }
+
+        return semaphore;
+    }
+
+    private static String getOrigin(final URL url) {
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    /**
+     * Get the number of requests currently running to an origin.
+     *
+     * @param targetResource a resource of the origin.
+     * @return the number of running requests.
+     */
+    int getRunningRequests(final URL targetResource) {
+        final Semaphore semaphore = origins.get(getOrigin(targetResource));
+        return semaphore != null ? maxRequestsPerOrigin - semaphore.availablePermits() : 0;
+    }
+
+    /**
+     * A FetchedResource that releases its request at the end of the body or
+     * on close.
+     */
+    private static final class LimitedFetchedResource implements FetchedResource {
+
+        private final FetchedResource fetchedResource;
+        private final Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private LimitedFetchedResource(final FetchedResource fetchedResource, final Semaphore semaphore) {
+            this.fetchedResource = fetchedResource;
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public boolean isModified() {
+            return fetchedResource.isModified();
+        }
+
+        @Override
+        public String getContentType() {
+            return fetchedResource.getContentType();
+        }
+
+        @Override
+        public long getLastModified() {
+            return fetchedResource.getLastModified();
+        }
+
+        @Override
+        public String getETag() {
+            return fetchedResource.getETag();
+        }
+
+        @Override
+        public long getContentLength() {
+            return fetchedResource.getContentLength();
+        }
+
+        @Override
+        public long getOffset() {
+            return fetchedResource.getOffset();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            // The request is done with the end of the body - the caller may keep the
+            // resource open much longer (e.g. while waiting for other segments)
+            return new FilterInputStream(fetchedResource.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b == -1) {
+                        release();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final int read = super.read(b, off, len);
+                    if (read == -1) {
+                        release();
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                fetchedResource.close();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+
+    }
+
+}
@@ -45,10 +45,21 @@ public interface FetchedResource {
     long getLastModified();
 
     /**
-     * @return Returns the length of the content (-1 if unknown).
+     * @return Returns the entity tag (null if unknown).
+     */
+    String getETag();
+
+    /**
+     * @return Returns the length of the fetched content (-1 if unknown).
      */
     long getContentLength();
 
+    /**
+     * @return Returns the position of the first fetched byte within the
+     * resource (0 if the complete resource has been fetched).
+     */
+    long getOffset();
+
     /**
      * @return Returns the {@code InputStream}.
      * @throws IOException is thrown if the operation fails.
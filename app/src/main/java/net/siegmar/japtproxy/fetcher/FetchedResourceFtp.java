@@ -19,6 +19,7 @@
 package net.siegmar.japtproxy.fetcher;
 
 import net.siegmar.japtproxy.misc.Util;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
 import org.slf4j.Logger;
@@ -52,7 +53,17 @@ public class FetchedResourceFtp implements FetchedResource {
     /**
      * The resource name to fetch.
      */
-    private String resourceName;
+    private final String resourceName;
+
+    /**
+     * The position of the first byte to fetch.
+     */
+    private final long offset;
+
+    /**
+     * The number of bytes to fetch (-1 for all remaining bytes).
+     */
+    private final long length;
 
     /**
      * If the resource has been modified.
@@ -62,10 +73,14 @@ public class FetchedResourceFtp implements FetchedResource {
     /**
      * Constructor.
      *
-     * @param ftpClient the FTPClient to use.
-     * @param file      the referenced file.
+     * @param ftpClient    the FTPClient to use.
+     * @param file         the referenced file.
+     * @param resourceName the resource name to fetch.
+     * @param offset       the position of the first byte to fetch (the restart offset of the ftpClient).
+     * @param length       the number of bytes to fetch (-1 for all remaining bytes).
      */
-    public FetchedResourceFtp(final FTPClient ftpClient, final FTPFile file) {
+    public FetchedResourceFtp(final FTPClient ftpClient, final FTPFile file, final String resourceName,
+                              final long offset, final long length) {
         if (ftpClient == null) {
             throw new IllegalArgumentException("ftpClient must not be null");
         }
@@ -75,6 +90,9 @@ public class FetchedResourceFtp implements FetchedResource {
 
         this.ftpClient = ftpClient;
         this.file = file;
+        this.resourceName = resourceName;
+        this.offset = offset;
+        this.length = length;
     }
 
     /**
@@ -110,12 +128,29 @@ public class FetchedResourceFtp implements FetchedResource {
         return file.getTimestamp().getTimeInMillis();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getETag() {
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public long getContentLength() {
-        return file.getSize();
+        final long remaining = file.getSize() - offset;
+        return length != -1 ? Math.min(length, remaining) : remaining;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOffset() {
+        return offset;
     }
 
     /**
@@ -124,7 +159,12 @@ public class FetchedResourceFtp implements FetchedResource {
     @Override
     public InputStream getInputStream()
         throws IOException {
-        return ftpClient.retrieveFileStream(resourceName);
+        final InputStream is = ftpClient.retrieveFileStream(resourceName);
+        if (is == null) {
+            throw new IOException("Couldn't retrieve '" + resourceName + "': " + ftpClient.getReplyString());
+        }
+
+        return length != -1 ? new BoundedInputStream(is, length) : is;
     }
 
     /**
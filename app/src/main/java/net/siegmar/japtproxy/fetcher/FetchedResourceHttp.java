@@ -19,11 +19,16 @@
 package net.siegmar.japtproxy.fetcher;
 
 import net.siegmar.japtproxy.misc.HttpHeaderConstants;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.utils.DateUtils;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
@@ -38,7 +43,12 @@ public class FetchedResourceHttp implements FetchedResource {
     /**
      * The httpGet instance.
      */
-    private final CloseableHttpResponse httpGet;
+    private final HttpResponse httpGet;
+
+    /**
+     * Releases the connection of the response.
+     */
+    private final Closeable connection;
 
     /**
      * If the resource has been modified.
@@ -51,10 +61,21 @@ public class FetchedResourceHttp implements FetchedResource {
      * @param httpGet the GetMethod instance.
      */
     public FetchedResourceHttp(final CloseableHttpResponse httpGet) {
+        this(httpGet, httpGet);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param httpGet    the response.
+     * @param connection releases the connection of the response on close.
+     */
+    public FetchedResourceHttp(final HttpResponse httpGet, final Closeable connection) {
         if (httpGet == null) {
             throw new IllegalArgumentException("httpGet must not be null");
         }
         this.httpGet = httpGet;
+        this.connection = connection;
     }
 
     /**
@@ -97,6 +118,15 @@ public class FetchedResourceHttp implements FetchedResource {
         return parsedDate != null ? parsedDate.getTime() : 0L;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getETag() {
+        final Header header = httpGet.getFirstHeader(HttpHeaderConstants.ETAG);
+        return header != null ? header.getValue() : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -106,6 +136,51 @@ public class FetchedResourceHttp implements FetchedResource {
         return entity != null ? entity.getContentLength() : -1;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOffset() {
+        if (getStatusCode() != HttpServletResponse.SC_PARTIAL_CONTENT) {
+            return 0;
+        }
+
+        // Content-Range: bytes <first>-<last>/<size>
+        final Header header = httpGet.getFirstHeader(HttpHeaderConstants.CONTENT_RANGE);
+        final String first = header != null
+            ? StringUtils.substringBetween(header.getValue(), "bytes ", "-")
+            : null;
+
+        return first != null && StringUtils.isNumeric(first.trim()) ? Long.parseLong(first.trim()) : -1;
+    }
+
+    /**
+     * Returns the HTTP status code of the response.
+     *
+     * @return the HTTP status code.
+     */
+    public int getStatusCode() {
+        return httpGet.getStatusLine().getStatusCode();
+    }
+
+    /**
+     * Returns the HTTP status line of the response.
+     *
+     * @return the HTTP status line.
+     */
+    public StatusLine getStatusLine() {
+        return httpGet.getStatusLine();
+    }
+
+    /**
+     * Returns all headers of the response.
+     *
+     * @return the headers.
+     */
+    public Header[] getAllHeaders() {
+        return httpGet.getAllHeaders();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -120,7 +195,7 @@ public class FetchedResourceHttp implements FetchedResource {
      */
     @Override
     public void close() throws IOException {
-        httpGet.close();
+        connection.close();
     }
 
 }
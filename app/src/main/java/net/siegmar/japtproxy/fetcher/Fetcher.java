@@ -36,13 +36,36 @@ public interface Fetcher {
      *
      * @param targetResource    the resource to fetch.
      * @param lastModified      the lastModified timestamp of the local object.
+     * @param eTag              the entity tag of the local object, as reported by the same
+     *                          remote host before (may be null).
      * @param originalUserAgent the requesting user agent
      * @return the fetched resource.
      * @throws IOException                                                  is thrown if the fetch fails.
      * @throws net.siegmar.japtproxy.exception.ResourceUnavailableException is thrown if the resource was not
      *                                                                      found.
      */
-    FetchedResource fetch(URL targetResource, long lastModified, String originalUserAgent)
+    FetchedResource fetch(URL targetResource, long lastModified, String eTag, String originalUserAgent)
+        throws IOException, ResourceUnavailableException;
+
+    /**
+     * Fetches a byte range of an external resource. The range is only
+     * fetched if the resource still matches the given validator - otherwise
+     * (or if the remote host doesn't support ranges) the complete resource
+     * is fetched. Use {@link FetchedResource#getOffset()} to find out which
+     * data has been fetched.
+     *
+     * @param targetResource    the resource to fetch.
+     * @param offset            the position of the first byte to fetch.
+     * @param length            the number of bytes to fetch (-1 for all remaining bytes).
+     * @param validator         the entity tag or Last-Modified date (RFC 822) the resource
+     *                          has to match, or {@code null} if the resource isn't validated.
+     * @param originalUserAgent the requesting user agent
+     * @return the fetched resource.
+     * @throws IOException                                                  is thrown if the fetch fails.
+     * @throws net.siegmar.japtproxy.exception.ResourceUnavailableException is thrown if the resource was not
+     *                                                                      found.
+     */
+    FetchedResource fetch(URL targetResource, long offset, long length, String validator, String originalUserAgent)
         throws IOException, ResourceUnavailableException;
 
 }
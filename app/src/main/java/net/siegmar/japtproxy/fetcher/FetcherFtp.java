@@ -19,6 +19,7 @@
 package net.siegmar.japtproxy.fetcher;
 
 import net.siegmar.japtproxy.exception.ResourceUnavailableException;
+import net.siegmar.japtproxy.misc.Util;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
@@ -58,44 +59,61 @@ public class FetcherFtp implements Fetcher {
      * {@inheritDoc}
      */
     @Override
-    public FetchedResourceFtp fetch(final URL targetResource, final long lastModified, final String originalUserAgent)
+    public FetchedResourceFtp fetch(final URL targetResource, final long lastModified, final String eTag,
+                                    final String originalUserAgent)
         throws IOException, ResourceUnavailableException {
 
         final FTPClient ftpClient = new FTPClient();
-        ftpClient.setSoTimeout(socketTimeout);
-        ftpClient.setDataTimeout(dataTimeout);
 
         try {
-            final String host = targetResource.getHost();
             final String resourceName = targetResource.getPath();
+            final FTPFile file = connect(ftpClient, targetResource);
 
-            LOG.debug("Configured FetcherFtp: Host '{}', Resource '{}'", host, resourceName);
-
-            ftpClient.connect(host);
-            ftpClient.enterLocalPassiveMode();
+            final FetchedResourceFtp fetchedResourceFtp =
+                new FetchedResourceFtp(ftpClient, file, resourceName, 0, -1);
+            fetchedResourceFtp.setModified(
+                lastModified == 0 || lastModified < file.getTimestamp().getTimeInMillis()
+            );
 
-            if (!ftpClient.login("anonymous", "japt-proxy")) {
-                throw new IOException("Can't login to FTP server");
+            return fetchedResourceFtp;
+        } catch (final IOException e) {
+            // Closing only in case of an exception - otherwise closed by FetchedResourceFtp
+            if (ftpClient.isConnected()) {
+                ftpClient.disconnect();
             }
 
-            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+            throw e;
+        }
+    }
 
-            final FTPFile[] files = ftpClient.listFiles(resourceName);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FetchedResourceFtp fetch(final URL targetResource, final long offset, final long length,
+                                    final String validator, final String originalUserAgent)
+        throws IOException, ResourceUnavailableException {
 
-            if (files.length == 0) {
-                throw new ResourceUnavailableException("Resource '" + resourceName + "' not found");
-            }
+        final FTPClient ftpClient = new FTPClient();
 
-            if (files.length > 1) {
-                throw new IOException("Multiple files found");
+        try {
+            final String resourceName = targetResource.getPath();
+            final FTPFile file = connect(ftpClient, targetResource);
+
+            // FTP has no conditional restart - compare timestamp and size instead
+            final boolean unchanged = validator == null ||
+                validator.equals(Util.getRfc822DateFromTimestamp(file.getTimestamp().getTimeInMillis()));
+
+            final FetchedResourceFtp fetchedResourceFtp;
+            if (unchanged && offset < file.getSize()) {
+                LOG.debug("Restarting transfer of '{}' at offset {}", resourceName, offset);
+                ftpClient.setRestartOffset(offset);
+                fetchedResourceFtp = new FetchedResourceFtp(ftpClient, file, resourceName, offset, length);
+            } else {
+                fetchedResourceFtp = new FetchedResourceFtp(ftpClient, file, resourceName, 0, -1);
             }
 
-            final FTPFile file = files[0];
-
-            final FetchedResourceFtp fetchedResourceFtp = new FetchedResourceFtp(ftpClient, file);
-            fetchedResourceFtp.setModified(
-                lastModified == 0 || lastModified < file.getTimestamp().getTimeInMillis()
-            );
+            fetchedResourceFtp.setModified(true);
 
             return fetchedResourceFtp;
         } catch (final IOException e) {
@@ -108,4 +126,37 @@ public class FetcherFtp implements Fetcher {
         }
     }
 
+    private FTPFile connect(final FTPClient ftpClient, final URL targetResource)
+        throws IOException, ResourceUnavailableException {
+
+        ftpClient.setSoTimeout(socketTimeout);
+        ftpClient.setDataTimeout(dataTimeout);
+
+        final String host = targetResource.getHost();
+        final String resourceName = targetResource.getPath();
+
+        LOG.debug("Configured FetcherFtp: Host '{}', Resource '{}'", host, resourceName);
+
+        ftpClient.connect(host);
+        ftpClient.enterLocalPassiveMode();
+
+        if (!ftpClient.login("anonymous", "japt-proxy")) {
+            throw new IOException("Can't login to FTP server");
+        }
+
+        ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+
+        final FTPFile[] files = ftpClient.listFiles(resourceName);
+
+        if (files.length == 0) {
+            throw new ResourceUnavailableException("Resource '" + resourceName + "' not found");
+        }
+
+        if (files.length > 1) {
+            throw new IOException("Multiple files found");
+        }
+
+        return files[0];
+    }
+
 }
@@ -0,0 +1,281 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.fetcher;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The FetcherHttpAsync is responsible for fetching files from http resources
+ * with an asynchronous client. The body of a response is received by the
+ * I/O threads of the client into a buffer the caller reads from - the
+ * transfer pauses while the buffer is full, without running into the socket
+ * timeout. The caller is blocked just like with {@link FetcherHttp}: while
+ * it waits for a connection and the response header and while it reads the
+ * body. The connection pool of the client limits the requests per origin,
+ * further requests wait for a connection.
+ *
+ * @author Oliver Siegmar
+ */
+public class FetcherHttpAsync extends AbstractFetcherHttp {
+
+    /**
+     * The size of the buffer between the client and the caller.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The httpAsyncClient instance.
+     */
+    private CloseableHttpAsyncClient httpAsyncClient;
+
+    @Required
+    public void setHttpAsyncClient(final CloseableHttpAsyncClient httpAsyncClient) {
+        this.httpAsyncClient = httpAsyncClient;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected FetchedResourceHttp send(final HttpGet httpGet, final URL targetResource) throws IOException {
+        final StreamingResponseConsumer consumer = new StreamingResponseConsumer();
+
+        httpAsyncClient.execute(HttpAsyncMethods.create(httpGet), consumer, new FutureCallback<Void>() {
+            @Override
+            public void completed(final Void result) {
+                // the consumer already marked the end of the body
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                consumer.abort(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                consumer.abort(new InterruptedIOException("Request to '" + targetResource + "' cancelled"));
+            }
+        });
+
+        try {
+            return new FetchedResourceHttp(consumer.getResponse(), consumer);
+        } catch (final InterruptedException e) {
+            consumer.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for '" + targetResource + "'");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request to '" + targetResource + "' failed", cause);
+        }
+    }
+
+    /**
+     * Provides the response as soon as its header has been received and
+     * passes the body through a buffer. Closing the consumer before the body
+     * has been received aborts the transfer.
+     */
+    private static final class StreamingResponseConsumer extends AbstractAsyncResponseConsumer<Void> {
+
+        private final BasicFuture<HttpResponse> response = new BasicFuture<>(null);
+        private final SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE, HeapByteBufferAllocator.INSTANCE);
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private volatile ReaderPacedControl ioControl;
+        private boolean received;
+
+        private HttpResponse getResponse() throws InterruptedException, ExecutionException {
+            return response.get();
+        }
+
+        @Override
+        protected void onResponseReceived(final HttpResponse httpResponse) {
+            final HttpEntity entity = httpResponse.getEntity();
+            if (entity != null) {
+                final InputStream content = new BodyInputStream(new ContentInputStream(buffer));
+                httpResponse.setEntity(new HttpEntityWrapper(entity) {
+                    @Override
+                    public InputStream getContent() {
+                        return content;
+                    }
+                });
+            }
+
+            response.completed(httpResponse);
+        }
+
+        @Override
+        protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) {
+            // the entity has been replaced by the buffered one
+        }
+
+        @Override
+        protected void onContentReceived(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+            if (ioControl == null) {
+                ioControl = new ReaderPacedControl(ioctrl);
+            }
+            buffer.consumeContent(decoder, ioControl);
+        }
+
+        @Override
+        protected Void buildResult(final HttpContext context) {
+            received = true;
+            return null;
+        }
+
+        @Override
+        protected void releaseResources() {
+            if (received) {
+                // the buffered rest of the body can still be read
+                buffer.close();
+            } else {
+                final Exception ex = getException();
+                abort(ex != null ? ex : new IOException("Transfer aborted"));
+            }
+        }
+
+        @Override
+        protected void onClose() {
+            // Lets the client notice the aborted transfer and drop the connection
+            final IOControl control = ioControl;
+            if (control != null) {
+                control.requestInput();
+            }
+        }
+
+        private void abort(final Exception ex) {
+            failure.compareAndSet(null, ex);
+            response.failed(ex);
+            buffer.shutdown();
+        }
+
+        /**
+         * Reports an aborted transfer instead of a premature end of the body.
+         */
+        private final class BodyInputStream extends FilterInputStream {
+
+            private BodyInputStream(final InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b == -1) {
+                    checkFailure();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int read = super.read(b, off, len);
+                if (read == -1) {
+                    checkFailure();
+                }
+                return read;
+            }
+
+            private void checkFailure() throws IOException {
+                final Exception ex = failure.get();
+                if (ex != null) {
+                    throw new IOException("Transfer failed", ex);
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Disables the socket timeout of a connection while its input is
+     * suspended - the connection waits for the caller then, not for the
+     * remote host.
+     */
+    private static final class ReaderPacedControl implements IOControl {
+
+        private final IOControl ioctrl;
+        private int suspendedTimeout = -1;
+
+        private ReaderPacedControl(final IOControl ioctrl) {
+            this.ioctrl = ioctrl;
+        }
+
+        @Override
+        public synchronized void requestInput() {
+            if (suspendedTimeout != -1) {
+                ((HttpConnection) ioctrl).setSocketTimeout(suspendedTimeout);
+                suspendedTimeout = -1;
+            }
+            ioctrl.requestInput();
+        }
+
+        @Override
+        public synchronized void suspendInput() {
+            ioctrl.suspendInput();
+            if (suspendedTimeout == -1 && ioctrl instanceof HttpConnection) {
+                suspendedTimeout = ((HttpConnection) ioctrl).getSocketTimeout();
+                ((HttpConnection) ioctrl).setSocketTimeout(0);
+            }
+        }
+
+        @Override
+        public void requestOutput() {
+            ioctrl.requestOutput();
+        }
+
+        @Override
+        public void suspendOutput() {
+            ioctrl.suspendOutput();
+        }
+
+        @Override
+        public void shutdown() throws IOException {
+            ioctrl.shutdown();
+        }
+
+    }
+
+}
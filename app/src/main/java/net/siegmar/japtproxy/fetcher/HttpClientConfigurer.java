@@ -28,12 +28,16 @@ import org.apache.http.auth.NTCredentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
@@ -52,10 +56,12 @@ public class HttpClientConfigurer {
 
     private static final Logger LOG = LoggerFactory.getLogger(HttpClientConfigurer.class);
     private static final int MAX_CONNECTIONS = 20;
+    private static final int MAX_ASYNC_CONNECTIONS = 256;
 
     private Configuration configuration;
     private int socketTimeout;
     private int connectTimeout;
+    private int maxRequestsPerOrigin = MAX_CONNECTIONS;
 
     @Required
     public void setConfiguration(final Configuration configuration) {
@@ -70,21 +76,26 @@ public class HttpClientConfigurer {
         this.connectTimeout = connectTimeout;
     }
 
+    /**
+     * Sets the number of concurrent requests per origin of the asynchronous
+     * client - further requests wait for a connection up to the connect
+     * timeout.
+     *
+     * @param maxRequestsPerOrigin the number of concurrent requests.
+     */
+    public void setMaxRequestsPerOrigin(final int maxRequestsPerOrigin) {
+        this.maxRequestsPerOrigin = maxRequestsPerOrigin;
+    }
+
     public CloseableHttpClient build() throws InitializationException {
         final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
         connectionManager.setMaxTotal(MAX_CONNECTIONS);
         connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
 
-        final RequestConfig requestConfig = RequestConfig
-            .custom()
-            .setConnectionRequestTimeout(connectTimeout)
-            .setSocketTimeout(socketTimeout)
-            .build();
-
         final HttpClientBuilder httpClientBuilder = HttpClients
             .custom()
             .setConnectionManager(connectionManager)
-            .setDefaultRequestConfig(requestConfig);
+            .setDefaultRequestConfig(buildRequestConfig());
 
         if (configuration.getHttpProxy() != null) {
             configureProxy(httpClientBuilder, configuration.getHttpProxy());
@@ -93,30 +104,83 @@ public class HttpClientConfigurer {
         return httpClientBuilder.build();
     }
 
+    /**
+     * Builds the asynchronous client. The client has to be started before
+     * it's used. Its connections aren't kept alive: the client hangs or loses
+     * a connection of the pool if the remote host closes a kept-alive
+     * connection just when it's reused.
+     *
+     * @return the asynchronous client.
+     * @throws InitializationException is thrown if the proxy configuration
+     *                                 is invalid.
+     */
+    public CloseableHttpAsyncClient buildAsync() throws InitializationException {
+        final HttpAsyncClientBuilder httpAsyncClientBuilder = HttpAsyncClients
+            .custom()
+            .setMaxConnTotal(MAX_ASYNC_CONNECTIONS)
+            .setMaxConnPerRoute(maxRequestsPerOrigin)
+            .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+            .setDefaultRequestConfig(buildRequestConfig());
+
+        if (configuration.getHttpProxy() != null) {
+            final URL proxyUrl = parseProxyUrl(configuration.getHttpProxy());
+            final HttpHost proxyHost = getProxyHost(proxyUrl);
+            httpAsyncClientBuilder.setProxy(proxyHost);
+
+            if (proxyUrl.getUserInfo() != null) {
+                httpAsyncClientBuilder.setDefaultCredentialsProvider(
+                    buildCredentialsProvider(proxyHost, proxyUrl.getUserInfo()));
+            }
+        }
+
+        return httpAsyncClientBuilder.build();
+    }
+
+    private RequestConfig buildRequestConfig() {
+        return RequestConfig
+            .custom()
+            .setConnectionRequestTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout)
+            .build();
+    }
+
     protected void configureProxy(final HttpClientBuilder httpClientBuilder, final String proxy)
         throws InitializationException {
-        final URL proxyUrl;
+        final URL proxyUrl = parseProxyUrl(proxy);
+        final HttpHost proxyHost = getProxyHost(proxyUrl);
+
+        httpClientBuilder.setRoutePlanner(new DefaultProxyRoutePlanner(proxyHost));
+
+        final String userInfo = proxyUrl.getUserInfo();
+        if (userInfo != null) {
+            httpClientBuilder.setDefaultCredentialsProvider(buildCredentialsProvider(proxyHost, userInfo));
+        }
+    }
+
+    private static URL parseProxyUrl(final String proxy) throws InitializationException {
         try {
-            proxyUrl = new URL(proxy);
+            return new URL(proxy);
         } catch (final MalformedURLException e) {
             throw new InitializationException("Invalid proxy url", e);
         }
+    }
 
+    private static HttpHost getProxyHost(final URL proxyUrl) {
         final String proxyHost = proxyUrl.getHost();
         final int proxyPort = proxyUrl.getPort() != -1
             ? proxyUrl.getPort()
             : proxyUrl.getDefaultPort();
 
         LOG.info("Set proxy server to '{}:{}'", proxyHost, proxyPort);
-        httpClientBuilder.setRoutePlanner(new DefaultProxyRoutePlanner(new HttpHost(proxyHost, proxyPort)));
-
-        final String userInfo = proxyUrl.getUserInfo();
-        if (userInfo != null) {
-            final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-            credentialsProvider.setCredentials(new AuthScope(proxyHost, proxyPort), buildCredentials(userInfo));
+        return new HttpHost(proxyHost, proxyPort);
+    }
 
-            httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-        }
+    private CredentialsProvider buildCredentialsProvider(final HttpHost proxyHost, final String userInfo)
+        throws InitializationException {
+        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(new AuthScope(proxyHost.getHostName(), proxyHost.getPort()),
+            buildCredentials(userInfo));
+        return credentialsProvider;
     }
 
     protected Credentials buildCredentials(final String userInfo)
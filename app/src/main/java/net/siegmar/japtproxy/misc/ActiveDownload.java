@@ -0,0 +1,293 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An ActiveDownload represents a remote resource that is currently being
+ * written to the temp resource of a pool object. Only one request (the
+ * leader) writes the data, all other requests for the same resource
+ * (the followers) read the growing temp resource.
+ * <p/>
+ * Followers wait on a {@link Condition} instead of an object monitor, so
+ * waiting virtual threads don't pin their carrier threads.
+ *
+ * @author Oliver Siegmar
+ */
+public class ActiveDownload {
+
+    /**
+     * The pool object the download is written to.
+     */
+    private final PoolObject poolObject;
+
+    /**
+     * The content type reported by the remote host.
+     */
+    private final String contentType;
+
+    /**
+     * The content length reported by the remote host (-1 if unknown).
+     */
+    private final long contentLength;
+
+    /**
+     * The last modification timestamp reported by the remote host.
+     */
+    private final long lastModified;
+
+    /**
+     * The validator a partial download has to match to be resumed (null if
+     * the download can't be resumed).
+     */
+    private final String validator;
+
+    /**
+     * The number of bytes of a partial download the download was resumed at.
+     */
+    private final long offset;
+
+    /**
+     * The lock guarding the progress and the state of the download.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Signalled whenever data has been written or the state has changed.
+     */
+    private final Condition progress = lock.newCondition();
+
+    /**
+     * The listeners notified after the download has been stored.
+     */
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The number of bytes already written to the temp resource.
+     */
+    private long bytesWritten;
+
+    /**
+     * The state of the download.
+     */
+    private State state = State.RUNNING;
+
+    public ActiveDownload(final PoolObject poolObject, final String contentType,
+                          final long contentLength, final long lastModified) {
+        this(poolObject, contentType, contentLength, lastModified, null, 0);
+    }
+
+    public ActiveDownload(final PoolObject poolObject, final String contentType,
+                          final long contentLength, final long lastModified,
+                          final String validator, final long offset) {
+        this.poolObject = poolObject;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+        this.validator = validator;
+        this.offset = offset;
+        bytesWritten = offset;
+    }
+
+    public PoolObject getPoolObject() {
+        return poolObject;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getValidator() {
+        return validator;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Adds a listener that gets notified after the download has been stored.
+     * Listeners have to be added before the download is completed.
+     *
+     * @param listener the listener to add.
+     */
+    public void addListener(final DownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    public long getBytesWritten() {
+        lock.lock();
+        try {
+            return bytesWritten;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a stream to read the downloaded data from the beginning. Depending
+     * on the state of the download, this is the temp or the final resource.
+     *
+     * @return the InputStream of the downloaded data.
+     * @throws IOException is thrown if the download failed or the resource
+     *                     couldn't be opened.
+     */
+    public InputStream openInputStream() throws IOException {
+        lock.lock();
+        try {
+            if (state == State.FAILED) {
+                throw new IOException("Download of '" + poolObject.getName() + "' failed");
+            }
+
+            return state == State.COMPLETED
+                ? poolObject.getInputStream()
+                : poolObject.getTempInputStream();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notifies waiting followers that more data has been written.
+     *
+     * @param count the number of bytes written.
+     */
+    public void addBytesWritten(final long count) {
+        lock.lock();
+        try {
+            bytesWritten += count;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until more than {@code position} bytes are available or the
+     * download has finished.
+     *
+     * @param position the number of bytes the caller has already read.
+     * @return the number of bytes available - equal to {@code position}
+     * if the download has finished and no more data will follow.
+     * @throws IOException is thrown if the download failed or the waiting
+     *                     thread was interrupted.
+     */
+    public long awaitBytes(final long position) throws IOException {
+        lock.lock();
+        try {
+            while (state == State.RUNNING && bytesWritten <= position) {
+                try {
+                    progress.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for '" + poolObject.getName() + "'");
+                }
+            }
+
+            if (state == State.FAILED) {
+                throw new IOException("Download of '" + poolObject.getName() + "' failed");
+            }
+
+            return bytesWritten;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saves the temp resource to the final one and marks this download
+     * as completed. Both happen atomically for followers that open the
+     * downloaded data. The listeners are notified afterwards.
+     *
+     * @throws IOException is thrown if the pool object couldn't be stored.
+     */
+    public void complete() throws IOException {
+        lock.lock();
+        try {
+            poolObject.store();
+            state = State.COMPLETED;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (final DownloadListener listener : listeners) {
+            listener.downloadCompleted(this);
+        }
+    }
+
+    /**
+     * Marks this download as failed.
+     */
+    public void fail() {
+        lock.lock();
+        try {
+            if (state == State.RUNNING) {
+                state = State.FAILED;
+                progress.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return new ToStringBuilder(this)
+                .append("name", poolObject.getName())
+                .append("contentLength", contentLength)
+                .append("offset", offset)
+                .append("bytesWritten", bytesWritten)
+                .append("state", state)
+                .toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private enum State {
+
+        RUNNING,
+        COMPLETED,
+        FAILED
+
+    }
+
+}
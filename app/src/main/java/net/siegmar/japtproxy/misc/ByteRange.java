@@ -0,0 +1,217 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A satisfiable byte range of a resource, as requested by the HTTP
+ * 'Range' header (RFC 7233).
+ *
+ * @author Oliver Siegmar
+ */
+public final class ByteRange {
+
+    /**
+     * Requests with more ranges are served completely.
+     */
+    private static final int MAX_RANGES = 16;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * The first byte position (inclusive).
+     */
+    private final long start;
+
+    /**
+     * The last byte position (inclusive).
+     */
+    private final long end;
+
+    public ByteRange(final long start, final long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a 'Range' header for a resource of the given size.
+     *
+     * @param header the value of the 'Range' header (may be {@code null})
+     * @param size   the size of the resource
+     * @return {@code null} if the header is missing, invalid or should be
+     * ignored - an empty list if none of the ranges is satisfiable -
+     * otherwise the satisfiable ranges in ascending order
+     */
+    public static List<ByteRange> parse(final String header, final long size) {
+        if (header == null ||
+            !header.toLowerCase(Locale.ENGLISH).startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        final String[] specs = StringUtils.split(header.substring(BYTES_UNIT.length()), ',');
+        if (specs.length == 0 || specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        final List<ByteRange> ranges = new ArrayList<>(specs.length);
+
+        for (final String rawSpec : specs) {
+            final String spec = rawSpec.trim();
+            final int dashIdx = spec.indexOf('-');
+
+            if (dashIdx == -1) {
+                return null;
+            }
+
+            final String first = spec.substring(0, dashIdx);
+            final String last = spec.substring(dashIdx + 1);
+
+            if (!isEmptyOrNumeric(first) || !isEmptyOrNumeric(last) ||
+                first.isEmpty() && last.isEmpty()) {
+                return null;
+            }
+
+            try {
+                if (first.isEmpty()) {
+                    // Suffix range: the last n bytes
+                    final long suffixLength = Long.parseLong(last);
+                    if (suffixLength > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffixLength), size - 1));
+                    }
+                    continue;
+                }
+
+                final long rangeStart = Long.parseLong(first);
+                final long rangeEnd = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+
+                if (rangeEnd < rangeStart) {
+                    return null;
+                }
+
+                if (rangeStart < size) {
+                    ranges.add(new ByteRange(rangeStart, Math.min(rangeEnd, size - 1)));
+                }
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return coalesce(ranges);
+    }
+
+    private static boolean isEmptyOrNumeric(final String str) {
+        return str.isEmpty() || StringUtils.isNumeric(str);
+    }
+
+    /**
+     * Sorts the ranges and merges overlapping or adjacent ones.
+     *
+     * @param ranges the ranges to coalesce
+     * @return the coalesced ranges
+     */
+    private static List<ByteRange> coalesce(final List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        Collections.sort(ranges, new Comparator<ByteRange>() {
+            @Override
+            public int compare(final ByteRange r1, final ByteRange r2) {
+                return Long.compare(r1.start, r2.start);
+            }
+        });
+
+        final List<ByteRange> coalesced = new ArrayList<>(ranges.size());
+        ByteRange current = ranges.get(0);
+
+        for (final ByteRange range : ranges.subList(1, ranges.size())) {
+            if (range.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, range.end));
+            } else {
+                coalesced.add(current);
+                current = range;
+            }
+        }
+
+        coalesced.add(current);
+
+        return coalesced;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the number of bytes in this range.
+     *
+     * @return the number of bytes in this range
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Returns the value of the 'Content-Range' header for this range.
+     *
+     * @param size the size of the complete resource
+     * @return the value of the 'Content-Range' header
+     */
+    public String toContentRange(final long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final ByteRange that = (ByteRange) o;
+
+        return start == that.start && end == that.end;
+    }
+
+    // CSOFF: MagicNumber
+    @Override
+    public int hashCode() {
+        return 31 * (int) (start ^ start >>> 32) + (int) (end ^ end >>> 32);
+    }
+    // CSON: MagicNumber
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+
+}
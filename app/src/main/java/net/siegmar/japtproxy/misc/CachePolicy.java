@@ -0,0 +1,117 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.regex.Pattern;
+
+/**
+ * A CachePolicy defines how long locally stored objects of a backend are
+ * considered fresh - without asking the remote host for a new version.
+ * A policy may be restricted to a backend and/or a resource name pattern.
+ *
+ * @author Oliver Siegmar
+ */
+public class CachePolicy {
+
+    /**
+     * The name of the backend the policy applies to (null for all backends).
+     */
+    private final String backend;
+
+    /**
+     * The pattern of resource names the policy applies to (null for all resources).
+     */
+    private final Pattern pattern;
+
+    /**
+     * The time in milliseconds a locally stored object is considered fresh.
+     */
+    private final long ttl;
+
+    /**
+     * The time in milliseconds after the TTL expired, a locally stored object
+     * is still sent while it is revalidated in the background.
+     */
+    private final long staleWhileRevalidate;
+
+    /**
+     * The time in milliseconds after the TTL expired, a locally stored object
+     * is still sent if all remote hosts fail.
+     */
+    private final long staleIfError;
+
+    /**
+     * The time in milliseconds a resource none of the remote hosts provided
+     * is considered missing.
+     */
+    private final long negativeTtl;
+
+    public CachePolicy(final String backend, final Pattern pattern, final long ttl,
+                       final long staleWhileRevalidate, final long staleIfError, final long negativeTtl) {
+        this.backend = backend;
+        this.pattern = pattern;
+        this.ttl = ttl;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * Checks if the policy applies to a resource.
+     *
+     * @param backendName  the name of the backend
+     * @param resourceName the name of the resource
+     * @return true if the policy applies to the resource
+     */
+    public boolean matches(final String backendName, final String resourceName) {
+        return (backend == null || backend.equals(backendName)) &&
+            (pattern == null || pattern.matcher(resourceName).matches());
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("backend", backend)
+            .append("pattern", pattern)
+            .append("ttl", ttl)
+            .append("staleWhileRevalidate", staleWhileRevalidate)
+            .append("staleIfError", staleIfError)
+            .append("negativeTtl", negativeTtl)
+            .toString();
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The ChannelFileSender transfers files to the response output stream with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}. This works
+ * with every servlet container. The output stream is wrapped in a channel,
+ * so the JDK copies the data through a transfer buffer on the Java heap.
+ *
+ * @author Oliver Siegmar
+ */
+public class ChannelFileSender implements FileSender {
+
+    /**
+     * Transfers a region of a file to a channel.
+     *
+     * @param channel  the channel of the file to transfer
+     * @param position the position of the first byte to transfer
+     * @param count    the number of bytes to transfer
+     * @param target   the target channel
+     * @throws IOException is thrown if the file ended prematurely or the
+     *                     transfer failed
+     */
+    public static void transferFully(final FileChannel channel, final long position, final long count,
+                                     final WritableByteChannel target)
+        throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            final long len = channel.transferTo(position + transferred, count - transferred, target);
+            if (len <= 0) {
+                throw new EOFException("Couldn't transfer " + (count - transferred) + " bytes");
+            }
+            transferred += len;
+        }
+    }
+
+    /**
+     * Writes a buffer to a channel.
+     *
+     * @param buffer the buffer to write - from its position to its limit
+     * @param target the target channel
+     * @throws IOException is thrown if the transfer failed
+     */
+    public static void transferFully(final ByteBuffer buffer, final WritableByteChannel target)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(final FileChannel channel, final String key, final long position, final long count,
+                     final HttpServletResponse res)
+        throws IOException {
+        transferFully(channel, position, count, Channels.newChannel(res.getOutputStream()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(final ByteBuffer buffer, final HttpServletResponse res)
+        throws IOException {
+        transferFully(buffer, Channels.newChannel(res.getOutputStream()));
+    }
+
+}
@@ -20,6 +20,7 @@ package net.siegmar.japtproxy.misc;
 
 import net.siegmar.japtproxy.exception.InitializationException;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.jdom2.Document;
@@ -32,9 +33,15 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * This class is used to read and hold the Japt-Proxy configuration.
@@ -48,6 +55,26 @@ public class Configuration {
      */
     private static final Logger LOG = LoggerFactory.getLogger(Configuration.class);
 
+    /**
+     * The cache policy used if no cache-control element is configured.
+     */
+    private static final CachePolicy DEFAULT_CACHE_POLICY =
+        new CachePolicy(null, null, TimeUnit.MINUTES.toMillis(1), 0, 0, 0);
+
+    private static final int DEFAULT_ASYNC_REQUEST_TIMEOUT = 3600;
+
+    private static final int DEFAULT_HIGH_WATERMARK = 95;
+
+    private static final int DEFAULT_LOW_WATERMARK = 90;
+
+    private static final int PERCENT = 100;
+
+    private static final long DEFAULT_PACK_STORE_MAX_OBJECT_SIZE = 65536;
+
+    private static final int DEFAULT_PROMOTION_HITS = 2;
+
+    private static final long MAX_PACK_STORE_MAX_OBJECT_SIZE = 16777216;
+
     /**
      * The directory where the cache files are stored.
      */
@@ -63,10 +90,134 @@ public class Configuration {
      */
     private final Integer maxVersions;
 
+    /**
+     * If remote resources should be downloaded independently of the
+     * requesting client.
+     */
+    private final boolean backgroundDownloads;
+
+    /**
+     * The number of threads that handle requests asynchronously, detached
+     * from the threads of the servlet container (0 if asynchronous request
+     * handling is disabled).
+     */
+    private final int asyncRequestThreads;
+
+    /**
+     * The maximum number of requests waiting for an asynchronous request
+     * thread - further requests are rejected.
+     */
+    private final int asyncRequestQueueSize;
+
+    /**
+     * The time in seconds an asynchronous request may take - including the
+     * time it waits for a thread.
+     */
+    private final int asyncRequestTimeout;
+
+    /**
+     * If requests and background downloads should run on virtual threads.
+     */
+    private final boolean virtualThreads;
+
+    /**
+     * The minimum size of remote resources that are downloaded in
+     * segments (-1 if segmented downloads are disabled).
+     */
+    private final long segmentedDownloadMinSize;
+
+    /**
+     * The number of segments a remote resource is split into.
+     */
+    private final int downloadSegments;
+
+    /**
+     * The maximum number of bytes held in the memory cache (0 if the
+     * memory cache is disabled).
+     */
+    private final long memoryCacheSize;
+
+    /**
+     * The maximum size of a single object held in the memory cache.
+     */
+    private final long memoryCacheMaxObjectSize;
+
+    /**
+     * The directory of the pack store (null if the pack store is disabled).
+     */
+    private final File packStoreDirectory;
+
+    /**
+     * The maximum size of a single object held in the pack store.
+     */
+    private final long packStoreMaxObjectSize;
+
+    /**
+     * The directory of the cold storage tier (null if tiered storage is
+     * disabled).
+     */
+    private final File coldTierDirectory;
+
+    /**
+     * The maximum number of bytes kept in the hot storage tier (the cache
+     * directory).
+     */
+    private final long hotTierSize;
+
+    /**
+     * The number of hits that promote a file from the cold to the hot tier.
+     */
+    private final int promotionHits;
+
+    /**
+     * The grace period of unreferenced repo packages (-1 if the garbage
+     * collection is disabled).
+     */
+    private final long garbageCollectionGracePeriod;
+
+    /**
+     * The maximum number of bytes stored in the cache directory (-1 if the
+     * disk quota is disabled).
+     */
+    private final long diskQuotaSize;
+
+    /**
+     * The percentage of the disk quota that starts the eviction.
+     */
+    private final int diskQuotaHighWatermark;
+
+    /**
+     * The percentage of the disk quota the eviction ends at.
+     */
+    private final int diskQuotaLowWatermark;
+
+    /**
+     * The map of disk quotas of single backends. The key is the name of the backend.
+     */
+    private final Map<String, Long> backendDiskQuotas = new HashMap<>();
+
+    /**
+     * The cache policy used if no cache policy rule matches.
+     */
+    private final CachePolicy defaultCachePolicy;
+
+    /**
+     * The list of cache policy rules - the first matching rule is used.
+     */
+    private final List<CachePolicy> cachePolicies = new ArrayList<>();
+
     /**
      * The map of backend systems. The key is the name of the backend.
+     * <p/>
+     * The map is immutable and replaced as a whole (copy-on-write) when
+     * a backend is created on the fly, so lookups don't need any locking.
      */
-    private final Map<String, Backend> backendSystems = new HashMap<>();
+    private volatile Map<String, Backend> backendSystems = Collections.emptyMap();
+
+    /**
+     * The lock that serializes the creation of backends.
+     */
+    private final Object backendLock = new Object();
 
     private final Map<String, String> remaps = new HashMap<>();
 
@@ -89,6 +240,204 @@ public class Configuration {
 
             maxVersions = NumberUtils.createInteger(maxVersionsString);
 
+            backgroundDownloads = Boolean.parseBoolean(rootElement.getChildTextTrim("background-downloads"));
+
+            // Syntax in config file:
+            /*
+                <async-requests threads="512" queue="512" timeout="3600"/>
+            */
+            final Element asyncRequestsElement = rootElement.getChild("async-requests");
+            if (asyncRequestsElement != null) {
+                asyncRequestThreads = NumberUtils.toInt(asyncRequestsElement.getAttributeValue("threads"), -1);
+                asyncRequestQueueSize = NumberUtils.toInt(asyncRequestsElement.getAttributeValue("queue"),
+                    asyncRequestThreads);
+                asyncRequestTimeout = NumberUtils.toInt(asyncRequestsElement.getAttributeValue("timeout"),
+                    DEFAULT_ASYNC_REQUEST_TIMEOUT);
+
+                if (asyncRequestThreads < 1) {
+                    throw new InitializationException("Error reading configuration. async-requests " +
+                        "requires at least 1 thread");
+                }
+                if (asyncRequestQueueSize < 0) {
+                    throw new InitializationException("Error reading configuration. async-requests " +
+                        "queue must not be negative");
+                }
+                if (asyncRequestTimeout < 1) {
+                    throw new InitializationException("Error reading configuration. async-requests " +
+                        "timeout must be at least 1 second");
+                }
+            } else {
+                asyncRequestThreads = 0;
+                asyncRequestQueueSize = 0;
+                asyncRequestTimeout = 0;
+            }
+
+            virtualThreads = Boolean.parseBoolean(rootElement.getChildTextTrim("virtual-threads"));
+            if (virtualThreads && !VirtualThreads.isSupported()) {
+                throw new InitializationException("Error reading configuration. virtual-threads " +
+                    "requires Java 21 or later");
+            }
+
+            // Syntax in config file:
+            /*
+                <segmented-downloads min-size="67108864" segments="4"/>
+            */
+            final Element segmentedElement = rootElement.getChild("segmented-downloads");
+            if (segmentedElement != null) {
+                segmentedDownloadMinSize = NumberUtils.toLong(segmentedElement.getAttributeValue("min-size"), -1);
+                downloadSegments = NumberUtils.toInt(segmentedElement.getAttributeValue("segments"), -1);
+
+                if (segmentedDownloadMinSize < 1 || downloadSegments < 2) {
+                    throw new InitializationException("Error reading configuration. segmented-downloads " +
+                        "requires a positive min-size and at least 2 segments");
+                }
+            } else {
+                segmentedDownloadMinSize = -1;
+                downloadSegments = 1;
+            }
+
+            // Syntax in config file:
+            /*
+                <memory-cache size="33554432" max-object-size="4194304"/>
+            */
+            final Element memoryCacheElement = rootElement.getChild("memory-cache");
+            if (memoryCacheElement != null) {
+                memoryCacheSize = NumberUtils.toLong(memoryCacheElement.getAttributeValue("size"), -1);
+                memoryCacheMaxObjectSize =
+                    NumberUtils.toLong(memoryCacheElement.getAttributeValue("max-object-size"), memoryCacheSize);
+
+                if (memoryCacheSize < 0 || memoryCacheMaxObjectSize < 0) {
+                    throw new InitializationException("Error reading configuration. memory-cache " +
+                        "requires a size and max-object-size of at least 0 bytes");
+                }
+            } else {
+                memoryCacheSize = 0;
+                memoryCacheMaxObjectSize = 0;
+            }
+
+            // Syntax in config file:
+            /*
+                <pack-store directory="/var/cache/japt-proxy-packs" max-object-size="65536"/>
+            */
+            final Element packStoreElement = rootElement.getChild("pack-store");
+            if (packStoreElement != null) {
+                final String directory = packStoreElement.getAttributeValue("directory");
+                packStoreMaxObjectSize = NumberUtils.toLong(packStoreElement.getAttributeValue("max-object-size"),
+                    DEFAULT_PACK_STORE_MAX_OBJECT_SIZE);
+
+                if (StringUtils.isBlank(directory) || packStoreMaxObjectSize < 1 ||
+                    packStoreMaxObjectSize > MAX_PACK_STORE_MAX_OBJECT_SIZE) {
+                    throw new InitializationException("Error reading configuration. pack-store requires " +
+                        "a directory and a max-object-size between 1 and " + MAX_PACK_STORE_MAX_OBJECT_SIZE + " bytes");
+                }
+
+                packStoreDirectory = new File(directory);
+
+                if (packStoreDirectory.getAbsoluteFile().toPath().startsWith(cacheDir.getAbsoluteFile().toPath())) {
+                    throw new InitializationException("Error reading configuration. The pack-store directory " +
+                        "must not be located within the cache-dir");
+                }
+            } else {
+                packStoreDirectory = null;
+                packStoreMaxObjectSize = 0;
+            }
+
+            // Syntax in config file (sizes in bytes):
+            /*
+                <tiered-storage cold-dir="/srv/japt-proxy" hot-size="107374182400" promotion-hits="2"/>
+            */
+            final Element tieredStorageElement = rootElement.getChild("tiered-storage");
+            if (tieredStorageElement != null) {
+                final String coldDir = tieredStorageElement.getAttributeValue("cold-dir");
+                hotTierSize = NumberUtils.toLong(tieredStorageElement.getAttributeValue("hot-size"), -1);
+                promotionHits = NumberUtils.toInt(tieredStorageElement.getAttributeValue("promotion-hits"),
+                    DEFAULT_PROMOTION_HITS);
+
+                if (StringUtils.isBlank(coldDir) || hotTierSize < 0 || promotionHits < 1) {
+                    throw new InitializationException("Error reading configuration. tiered-storage requires " +
+                        "a cold-dir, a hot-size of at least 0 bytes and at least 1 promotion-hit");
+                }
+
+                coldTierDirectory = new File(coldDir);
+
+                final Path coldPath = coldTierDirectory.getAbsoluteFile().toPath();
+                final Path hotPath = cacheDir.getAbsoluteFile().toPath();
+                if (coldPath.startsWith(hotPath) || hotPath.startsWith(coldPath)) {
+                    throw new InitializationException("Error reading configuration. The tiered-storage cold-dir " +
+                        "and the cache-dir must not be located within each other");
+                }
+            } else {
+                coldTierDirectory = null;
+                hotTierSize = -1;
+                promotionHits = DEFAULT_PROMOTION_HITS;
+            }
+
+            // Syntax in config file (sizes in bytes, watermarks in percent of the size):
+            /*
+                <disk-quota size="107374182400" high-watermark="95" low-watermark="90">
+                    <backend name="security.debian.org" size="10737418240"/>
+                </disk-quota>
+            */
+            final Element diskQuotaElement = rootElement.getChild("disk-quota");
+            if (diskQuotaElement != null) {
+                diskQuotaSize = NumberUtils.toLong(diskQuotaElement.getAttributeValue("size"), -1);
+                diskQuotaHighWatermark = NumberUtils.toInt(diskQuotaElement.getAttributeValue("high-watermark"),
+                    DEFAULT_HIGH_WATERMARK);
+                diskQuotaLowWatermark = NumberUtils.toInt(diskQuotaElement.getAttributeValue("low-watermark"),
+                    DEFAULT_LOW_WATERMARK);
+
+                if (diskQuotaLowWatermark < 1 || diskQuotaLowWatermark > diskQuotaHighWatermark ||
+                    diskQuotaHighWatermark > PERCENT) {
+                    throw new InitializationException("Error reading configuration. disk-quota requires " +
+                        "1 <= low-watermark <= high-watermark <= 100");
+                }
+
+                for (final Element e : diskQuotaElement.getChildren("backend")) {
+                    final String name = e.getAttributeValue("name");
+                    final long size = NumberUtils.toLong(e.getAttributeValue("size"), -1);
+
+                    if (name == null || size < 0) {
+                        throw new InitializationException("Error reading configuration. disk-quota backend " +
+                            "requires a name and a size of at least 0 bytes");
+                    }
+
+                    LOG.debug("Added disk quota: {} -> {}", name, size);
+                    backendDiskQuotas.put(name, size);
+                }
+            } else {
+                diskQuotaSize = -1;
+                diskQuotaHighWatermark = PERCENT;
+                diskQuotaLowWatermark = PERCENT;
+            }
+
+            // Syntax in config file (TTLs in seconds):
+            /*
+                <cache-control ttl="60" stale-while-revalidate="300" stale-if-error="86400" negative-ttl="300">
+                    <rule backend="security.debian.org" ttl="10" stale-while-revalidate="0"/>
+                    <rule pattern=".*\.(deb|rpm)" ttl="86400"/>
+                </cache-control>
+            */
+            final Element cacheControlElement = rootElement.getChild("cache-control");
+            if (cacheControlElement != null) {
+                defaultCachePolicy = buildCachePolicy(cacheControlElement, DEFAULT_CACHE_POLICY);
+
+                for (final Element e : cacheControlElement.getChildren("rule")) {
+                    final CachePolicy cachePolicy = buildCachePolicy(e, defaultCachePolicy);
+                    LOG.debug("Added cache policy: {}", cachePolicy);
+                    cachePolicies.add(cachePolicy);
+                }
+            } else {
+                defaultCachePolicy = DEFAULT_CACHE_POLICY;
+            }
+
+            // Syntax in config file (grace period in seconds):
+            /*
+                <garbage-collection grace-period="604800"/>
+            */
+            final Element garbageCollectionElement = rootElement.getChild("garbage-collection");
+            garbageCollectionGracePeriod = garbageCollectionElement != null
+                ? readSeconds(garbageCollectionElement, "grace-period", 0)
+                : -1;
 
             // support remap definitions
             // Syntax in config file:
@@ -98,7 +447,10 @@ public class Configuration {
                 </remaps>
             */
 
-            final List<Element> remapElements = rootElement.getChild("remaps").getChildren();
+            final Element remapsElement = rootElement.getChild("remaps");
+            final List<Element> remapElements = remapsElement != null
+                ? remapsElement.getChildren()
+                : Collections.<Element>emptyList();
 
             for (final Element e : remapElements) {
                 final String from = e.getAttributeValue("from");
@@ -161,6 +513,15 @@ public class Configuration {
         LOG.debug("Initialized configuration: {}", this);
     }
 
+    /**
+     * Returns the cache directory.
+     *
+     * @return the cache directory
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
     /**
      * Returns the Http-Proxy to be used.
      *
@@ -179,6 +540,262 @@ public class Configuration {
         return maxVersions;
     }
 
+    /**
+     * Returns if remote resources should be downloaded in the background,
+     * independently of the speed and the lifetime of the requesting client.
+     *
+     * @return if remote resources should be downloaded in the background
+     */
+    public boolean isBackgroundDownloads() {
+        return backgroundDownloads;
+    }
+
+    /**
+     * Returns the number of threads that handle requests asynchronously.
+     *
+     * @return the number of threads - 0 if asynchronous request handling is
+     * disabled
+     */
+    public int getAsyncRequestThreads() {
+        return asyncRequestThreads;
+    }
+
+    /**
+     * Returns the maximum number of requests waiting for an asynchronous
+     * request thread.
+     *
+     * @return the maximum number of waiting requests
+     */
+    public int getAsyncRequestQueueSize() {
+        return asyncRequestQueueSize;
+    }
+
+    /**
+     * Returns the time in seconds an asynchronous request may take.
+     *
+     * @return the timeout in seconds - 0 if asynchronous request handling is
+     * disabled
+     */
+    public int getAsyncRequestTimeout() {
+        return asyncRequestTimeout;
+    }
+
+    /**
+     * Returns if requests and background downloads should run on virtual
+     * threads.
+     *
+     * @return if virtual threads should be used
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Returns the minimum size of remote resources that are downloaded in
+     * segments from all urls of a backend concurrently.
+     *
+     * @return the minimum size of segmented downloads or -1 if segmented
+     * downloads are disabled
+     */
+    public long getSegmentedDownloadMinSize() {
+        return segmentedDownloadMinSize;
+    }
+
+    /**
+     * Returns the number of segments a remote resource is split into.
+     *
+     * @return the number of segments
+     */
+    public int getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    /**
+     * Returns the maximum number of bytes held in the memory cache.
+     *
+     * @return the maximum number of bytes held in the memory cache - 0 if
+     * the memory cache is disabled
+     */
+    public long getMemoryCacheSize() {
+        return memoryCacheSize;
+    }
+
+    /**
+     * Returns the maximum size of a single object held in the memory cache.
+     *
+     * @return the maximum size of a single object held in the memory cache
+     */
+    public long getMemoryCacheMaxObjectSize() {
+        return memoryCacheMaxObjectSize;
+    }
+
+    /**
+     * Returns the directory of the pack store.
+     *
+     * @return the directory of the pack store - null if the pack store is
+     * disabled
+     */
+    public File getPackStoreDirectory() {
+        return packStoreDirectory;
+    }
+
+    /**
+     * Returns the maximum size of a single object held in the pack store.
+     *
+     * @return the maximum size of a single object held in the pack store
+     */
+    public long getPackStoreMaxObjectSize() {
+        return packStoreMaxObjectSize;
+    }
+
+    /**
+     * Returns the directory of the cold storage tier. The cache directory
+     * is the hot storage tier.
+     *
+     * @return the directory of the cold storage tier - null if tiered
+     * storage is disabled
+     */
+    public File getColdTierDirectory() {
+        return coldTierDirectory;
+    }
+
+    /**
+     * Returns the maximum number of bytes kept in the hot storage tier.
+     *
+     * @return the maximum number of bytes kept in the hot storage tier
+     */
+    public long getHotTierSize() {
+        return hotTierSize;
+    }
+
+    /**
+     * Returns the number of hits that promote a file from the cold to the
+     * hot storage tier.
+     *
+     * @return the number of hits that promote a file
+     */
+    public int getPromotionHits() {
+        return promotionHits;
+    }
+
+    /**
+     * Returns if a disk quota is configured for the cache directory or for
+     * a single backend.
+     *
+     * @return true if a disk quota is configured
+     */
+    public boolean isDiskQuotaEnabled() {
+        return diskQuotaSize >= 0 || !backendDiskQuotas.isEmpty();
+    }
+
+    /**
+     * Returns the maximum number of bytes stored in the cache directory.
+     *
+     * @return the maximum number of bytes - -1 if there is no limit
+     */
+    public long getDiskQuotaSize() {
+        return diskQuotaSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes stored for a backend.
+     *
+     * @param backendName the name of the backend
+     * @return the maximum number of bytes - -1 if there is no limit
+     */
+    public long getDiskQuotaSize(final String backendName) {
+        final Long size = backendDiskQuotas.get(backendName);
+        return size != null ? size : -1;
+    }
+
+    /**
+     * Returns the percentage of a disk quota that starts the eviction of
+     * cached files.
+     *
+     * @return the high watermark in percent
+     */
+    public int getDiskQuotaHighWatermark() {
+        return diskQuotaHighWatermark;
+    }
+
+    /**
+     * Returns the percentage of a disk quota the eviction of cached files
+     * ends at.
+     *
+     * @return the low watermark in percent
+     */
+    public int getDiskQuotaLowWatermark() {
+        return diskQuotaLowWatermark;
+    }
+
+    /**
+     * Returns the period a repo package has to be unreferenced by all package
+     * indexes before it is removed by the garbage collection.
+     *
+     * @return the grace period in milliseconds - -1 if the garbage collection
+     * is disabled
+     */
+    public long getGarbageCollectionGracePeriod() {
+        return garbageCollectionGracePeriod;
+    }
+
+    /**
+     * Returns the cache policy of a resource. This is the first cache policy
+     * rule matching the backend and resource name or the default cache policy.
+     *
+     * @param backendName  the name of the backend
+     * @param resourceName the name of the resource
+     * @return the cache policy of the resource
+     */
+    public CachePolicy getCachePolicy(final String backendName, final String resourceName) {
+        for (final CachePolicy cachePolicy : cachePolicies) {
+            if (cachePolicy.matches(backendName, resourceName)) {
+                return cachePolicy;
+            }
+        }
+
+        return defaultCachePolicy;
+    }
+
+    private static CachePolicy buildCachePolicy(final Element element, final CachePolicy defaults)
+        throws InitializationException {
+
+        final String patternString = element.getAttributeValue("pattern");
+        final Pattern pattern;
+        try {
+            pattern = patternString != null ? Pattern.compile(patternString) : null;
+        } catch (final PatternSyntaxException e) {
+            throw new InitializationException("Error reading configuration. Invalid cache-control pattern: " +
+                patternString, e);
+        }
+
+        final long ttl = readSeconds(element, "ttl", defaults.getTtl());
+        final long staleWhileRevalidate =
+            readSeconds(element, "stale-while-revalidate", defaults.getStaleWhileRevalidate());
+        final long staleIfError = readSeconds(element, "stale-if-error", defaults.getStaleIfError());
+        final long negativeTtl = readSeconds(element, "negative-ttl", defaults.getNegativeTtl());
+
+        return new CachePolicy(element.getAttributeValue("backend"), pattern, ttl, staleWhileRevalidate,
+            staleIfError, negativeTtl);
+    }
+
+    private static long readSeconds(final Element element, final String attribute, final long defaultMillis)
+        throws InitializationException {
+
+        final String value = element.getAttributeValue(attribute);
+        if (value == null) {
+            return defaultMillis;
+        }
+
+        final long seconds = NumberUtils.toLong(value, -1);
+        if (seconds < 0) {
+            throw new InitializationException("Error reading configuration. " + element.getName() +
+                " attribute " + attribute + " requires a number of seconds of at least 0");
+        }
+
+        return TimeUnit.SECONDS.toMillis(seconds);
+    }
+
 /*
     public Backend getBackend(final String backendName) {
         return backendSystems.get(backendName);
@@ -189,30 +806,61 @@ public class Configuration {
         return remaps.get(from);
     }
 
+    /**
+     * Returns the backend of the requested server. Unknown backends are
+     * created on the fly - exactly once per server name.
+     *
+     * @param requestedData the request information.
+     * @return the backend - null if the backend couldn't be created.
+     */
     public Backend getBackend(final RequestedData requestedData) {
-        // check if we have a backend
-        Backend backend = backendSystems.get(requestedData.getServerName());
-
-        if (backend != null) return backend;
+        final Backend backend = backendSystems.get(requestedData.getServerName());
 
-        // create a new backend on the fly (only DEB for now)
-        try {
-            backend = new Backend(BackendType.DEB);
-            final File backendDirectory = new File(cacheDir, requestedData.getServerName());
+        if (backend != null) {
+            return backend;
+        }
 
-            FileUtils.forceMkdir(backendDirectory);
-            backend.setDirectory(backendDirectory);
-            backend.addUrl(new URL(requestedData.getHostUrl() + "/" + requestedData.getRequestedBackend()));
+        return createBackend(requestedData);
+    }
 
-            backendSystems.put(requestedData.getServerName(), backend);
+    private Backend createBackend(final RequestedData requestedData) {
+        final String serverName = requestedData.getServerName();
+        final File backendDirectory = new File(cacheDir, serverName);
 
+        // Creating the directory twice is harmless - it's kept out of the lock
+        try {
+            FileUtils.forceMkdir(backendDirectory);
         } catch (final IOException e) {
-            //log("Error reading configuration", e);
+            LOG.warn("Couldn't create backend for server '{}'", serverName, e);
             return null;
         }
 
+        synchronized (backendLock) {
+            // check if another request created the backend meanwhile
+            Backend backend = backendSystems.get(serverName);
 
-        return backend;
+            if (backend != null) {
+                return backend;
+            }
+
+            // create a new backend on the fly (only DEB for now)
+            try {
+                backend = new Backend(BackendType.DEB);
+                backend.setDirectory(backendDirectory);
+                backend.addUrl(new URL(requestedData.getHostUrl() + "/" + requestedData.getRequestedBackend()));
+            } catch (final IOException e) {
+                LOG.warn("Couldn't create backend for server '{}'", serverName, e);
+                return null;
+            }
+
+            final Map<String, Backend> newBackendSystems = new HashMap<>(backendSystems);
+            newBackendSystems.put(serverName, backend);
+            backendSystems = Collections.unmodifiableMap(newBackendSystems);
+
+            LOG.info("Created backend for server '{}': {}", serverName, backend);
+
+            return backend;
+        }
     }
 
     @Override
@@ -221,6 +869,27 @@ public class Configuration {
                 .append("cacheDir", cacheDir)
                 .append("httpProxy", httpProxy)
                 .append("maxVersions", maxVersions)
+                .append("backgroundDownloads", backgroundDownloads)
+                .append("asyncRequestThreads", asyncRequestThreads)
+                .append("asyncRequestQueueSize", asyncRequestQueueSize)
+                .append("asyncRequestTimeout", asyncRequestTimeout)
+                .append("virtualThreads", virtualThreads)
+                .append("segmentedDownloadMinSize", segmentedDownloadMinSize)
+                .append("downloadSegments", downloadSegments)
+                .append("memoryCacheSize", memoryCacheSize)
+                .append("memoryCacheMaxObjectSize", memoryCacheMaxObjectSize)
+                .append("packStoreDirectory", packStoreDirectory)
+                .append("packStoreMaxObjectSize", packStoreMaxObjectSize)
+                .append("coldTierDirectory", coldTierDirectory)
+                .append("hotTierSize", hotTierSize)
+                .append("promotionHits", promotionHits)
+                .append("diskQuotaSize", diskQuotaSize)
+                .append("diskQuotaHighWatermark", diskQuotaHighWatermark)
+                .append("diskQuotaLowWatermark", diskQuotaLowWatermark)
+                .append("backendDiskQuotas", backendDiskQuotas)
+                .append("garbageCollectionGracePeriod", garbageCollectionGracePeriod)
+                .append("defaultCachePolicy", defaultCachePolicy)
+                .append("cachePolicies", cachePolicies)
                 .append("backendSystems", backendSystems)
                 .toString();
     }
@@ -0,0 +1,160 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Splits an active download into byte ranges (segments) that are written
+ * concurrently. Followers of the download only get notified about the
+ * contiguous data from the beginning of the temp resource - data of a
+ * segment becomes visible as soon as all previous segments are complete.
+ *
+ * @author Oliver Siegmar
+ */
+public class DownloadSegments {
+
+    /**
+     * The download the segments belong to.
+     */
+    private final ActiveDownload download;
+
+    /**
+     * The position of the first byte of each segment.
+     */
+    private final long[] starts;
+
+    /**
+     * The length of each segment.
+     */
+    private final long[] lengths;
+
+    /**
+     * The number of bytes written per segment.
+     */
+    private final long[] written;
+
+    /**
+     * The index of the first incomplete segment.
+     */
+    private int firstIncomplete;
+
+    /**
+     * The total length of all segments before the first incomplete one.
+     */
+    private long completedLength;
+
+    /**
+     * The number of contiguous bytes the download has been notified about.
+     */
+    private long notifiedLength;
+
+    /**
+     * If one of the segments failed.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Splits the remaining data of a download into segments of equal size.
+     *
+     * @param download the download to split - its content length has to be
+     *                 known
+     * @param count    the number of segments
+     */
+    public DownloadSegments(final ActiveDownload download, final int count) {
+        final long offset = download.getOffset();
+        final long remaining = download.getContentLength() - offset;
+
+        if (download.getContentLength() == -1 || remaining < count) {
+            throw new IllegalArgumentException("Can't split " + remaining + " bytes into " + count + " segments");
+        }
+
+        this.download = download;
+        starts = new long[count];
+        lengths = new long[count];
+        written = new long[count];
+
+        final long segmentLength = (remaining + count - 1) / count;
+
+        for (int i = 0; i < count; i++) {
+            starts[i] = offset + i * segmentLength;
+            lengths[i] = Math.min(segmentLength, remaining - i * segmentLength);
+        }
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public long getStart(final int segment) {
+        return starts[segment];
+    }
+
+    public long getLength(final int segment) {
+        return lengths[segment];
+    }
+
+    /**
+     * Records data written to a segment and notifies the followers of the
+     * download if the contiguous data has grown.
+     *
+     * @param segment the segment the data has been written to
+     * @param count   the number of bytes written
+     */
+    public synchronized void addBytesWritten(final int segment, final long count) {
+        written[segment] += count;
+
+        while (firstIncomplete < starts.length && written[firstIncomplete] == lengths[firstIncomplete]) {
+            completedLength += lengths[firstIncomplete];
+            firstIncomplete++;
+        }
+
+        final long contiguous = firstIncomplete < starts.length
+            ? completedLength + written[firstIncomplete]
+            : completedLength;
+
+        if (contiguous > notifiedLength) {
+            download.addBytesWritten(contiguous - notifiedLength);
+            notifiedLength = contiguous;
+        }
+    }
+
+    /**
+     * Marks the segments as failed - all segments stop writing.
+     */
+    public void fail() {
+        failed = true;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new ToStringBuilder(this)
+            .append("starts", Arrays.toString(starts))
+            .append("lengths", Arrays.toString(lengths))
+            .append("written", Arrays.toString(written))
+            .toString();
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A FileSender sends locally stored data as response body. Implementations
+ * may use container specific ways to avoid copying the data through the
+ * Java heap.
+ *
+ * @author Oliver Siegmar
+ */
+public interface FileSender {
+
+    /**
+     * Sends a region of a file as complete response body. The response
+     * headers have to be set before.
+     *
+     * @param channel  the channel of the file to send
+     * @param key      identifies the content of the file - files with the
+     *                 same key have the same content
+     * @param position the position of the first byte to send
+     * @param count    the number of bytes to send
+     * @param res      the HttpServletResponse object
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    void send(FileChannel channel, String key, long position, long count, HttpServletResponse res)
+        throws IOException;
+
+    /**
+     * Sends a buffer as complete response body. The response headers have
+     * to be set before.
+     *
+     * @param buffer the buffer to send - from its position to its limit
+     * @param res    the HttpServletResponse object
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    void send(ByteBuffer buffer, HttpServletResponse res) throws IOException;
+
+}
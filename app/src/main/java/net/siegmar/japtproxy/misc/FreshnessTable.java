@@ -0,0 +1,231 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The FreshnessTable records when the remote host was last asked for a new
+ * version of a resource and when it last answered. Lookups and updates don't block each other - a
+ * version check is claimed by an atomic compare-and-set, so concurrent
+ * requests for a stale resource trigger only one check.
+ * <p/>
+ * The table is bounded. If it grows beyond its maximum size, entries older
+ * than the longest TTL seen so far are removed first (they are stale anyway),
+ * then arbitrary entries - a removed entry only causes another version check.
+ *
+ * @author Oliver Siegmar
+ */
+public class FreshnessTable {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(FreshnessTable.class);
+
+    /**
+     * Updater for the atomic claim of a version check.
+     */
+    private static final AtomicLongFieldUpdater<Entry> LAST_CHECK_UPDATER =
+        AtomicLongFieldUpdater.newUpdater(Entry.class, "lastCheck");
+
+    /**
+     * The version check timestamps per resource.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The longest TTL requested so far.
+     */
+    private final AtomicLong maxTtl = new AtomicLong();
+
+    /**
+     * If an eviction is in progress.
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * The maximum number of entries.
+     */
+    private int maxEntries;
+
+    @Required
+    public void setMaxEntries(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Checks if a version check is required for a resource. If it is
+     * required, the check is claimed by the caller - other callers get
+     * {@code false} until the TTL expires again.
+     *
+     * @param key the identifier of the resource
+     * @param ttl the time in milliseconds the resource is considered fresh
+     * @return true if the caller has to do a version check
+     */
+    public boolean claimCheck(final String key, final long ttl) {
+        final long now = System.currentTimeMillis();
+        updateMaxTtl(ttl);
+
+        final Entry entry = entries.get(key);
+
+        if (entry == null) {
+            if (entries.putIfAbsent(key, new Entry(now)) != null) {
+                // Another request claimed the check in the meantime
+                return false;
+            }
+
+            if (entries.size() > maxEntries) {
+                evict(now);
+            }
+
+            return true;
+        }
+
+        final long last = entry.lastCheck;
+        return now - last >= ttl && LAST_CHECK_UPDATER.compareAndSet(entry, last, now);
+    }
+
+    /**
+     * Returns the timestamp of the last version check of a resource.
+     *
+     * @param key the identifier of the resource
+     * @return the timestamp of the last version check - 0 if unknown
+     */
+    public long getLastCheck(final String key) {
+        final Entry entry = entries.get(key);
+        return entry != null ? entry.lastCheck : 0;
+    }
+
+    /**
+     * Records that the remote host answered a version check of a resource.
+     *
+     * @param key the identifier of the resource
+     */
+    public void validated(final String key) {
+        final long now = System.currentTimeMillis();
+        final Entry entry = entries.get(key);
+
+        if (entry != null) {
+            entry.lastValidation = now;
+        } else if (entries.putIfAbsent(key, new Entry(now, now)) == null && entries.size() > maxEntries) {
+            evict(now);
+        }
+    }
+
+    /**
+     * Returns the timestamp the remote host last answered a version check
+     * of a resource.
+     *
+     * @param key the identifier of the resource
+     * @return the timestamp of the last successful version check - 0 if unknown
+     */
+    public long getLastValidation(final String key) {
+        final Entry entry = entries.get(key);
+        return entry != null ? entry.lastValidation : 0;
+    }
+
+    /**
+     * Removes the entry of a resource - the next request does a version check.
+     *
+     * @param key the identifier of the resource
+     */
+    public void invalidate(final String key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void updateMaxTtl(final long ttl) {
+        long current;
+        while (ttl > (current = maxTtl.get())) {
+            if (maxTtl.compareAndSet(current, ttl)) {
+                break;
+            }
+        }
+    }
+
+    private void evict(final long now) {
+        // One evicting thread is enough
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            final long expiry = now - maxTtl.get();
+            final int sizeBefore = entries.size();
+
+            for (final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext();) {
+                if (it.next().getValue().lastCheck <= expiry) {
+                    it.remove();
+                }
+            }
+
+            for (final Iterator<String> it = entries.keySet().iterator();
+                 entries.size() > maxEntries && it.hasNext();) {
+                it.next();
+                it.remove();
+            }
+
+            LOG.debug("Evicted {} entries from freshness table", sizeBefore - entries.size());
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * The version check timestamps of a resource.
+     */
+    private static final class Entry {
+
+        /**
+         * The timestamp of the last (claimed) version check - not private
+         * because it is updated by a field updater.
+         */
+        volatile long lastCheck;
+
+        /**
+         * The timestamp of the last version check the remote host answered.
+         */
+        volatile long lastValidation;
+
+        private Entry(final long lastCheck) {
+            this.lastCheck = lastCheck;
+        }
+
+        private Entry(final long lastCheck, final long lastValidation) {
+            this.lastCheck = lastCheck;
+            this.lastValidation = lastValidation;
+        }
+
+    }
+
+}
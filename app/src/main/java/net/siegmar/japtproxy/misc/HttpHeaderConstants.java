@@ -45,6 +45,51 @@ public final class HttpHeaderConstants {
      */
     public static final String CONTENT_TYPE = "Content-Type";
 
+    /**
+     * The content-length header name.
+     */
+    public static final String CONTENT_LENGTH = "Content-Length";
+
+    /**
+     * The if-none-match header name.
+     */
+    public static final String IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * The range header name.
+     */
+    public static final String RANGE = "Range";
+
+    /**
+     * The if-range header name.
+     */
+    public static final String IF_RANGE = "If-Range";
+
+    /**
+     * The content-range header name.
+     */
+    public static final String CONTENT_RANGE = "Content-Range";
+
+    /**
+     * The accept-ranges header name.
+     */
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    /**
+     * The etag header name.
+     */
+    public static final String ETAG = "ETag";
+
+    /**
+     * The warning header name.
+     */
+    public static final String WARNING = "Warning";
+
+    /**
+     * The x-cache header name (non-standard).
+     */
+    public static final String X_CACHE = "X-Cache";
+
     private HttpHeaderConstants() {
         // No public constructor for utility classes.
     }
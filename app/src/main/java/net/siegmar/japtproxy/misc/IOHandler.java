@@ -18,28 +18,55 @@
  */
 package net.siegmar.japtproxy.misc;
 
+import net.siegmar.japtproxy.exception.ClientWriteException;
 import net.siegmar.japtproxy.exception.InitializationException;
 import net.siegmar.japtproxy.exception.ResourceUnavailableException;
 import net.siegmar.japtproxy.fetcher.FetchedResource;
 import net.siegmar.japtproxy.fetcher.Fetcher;
 import net.siegmar.japtproxy.fetcher.FetcherPool;
+import net.siegmar.japtproxy.packages.debian.ReleaseIndex;
 import net.siegmar.japtproxy.poolobject.PoolObject;
+import net.siegmar.japtproxy.poolobject.PoolObjectMetadata;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.http.client.utils.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Required;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The IOHandler utility class is responsible for the IO
@@ -55,35 +82,111 @@ public class IOHandler {
     private static final Logger LOG = LoggerFactory.getLogger(IOHandler.class);
 
     /**
-     * Map that contains the timestamp of the last check per resource.
+     * The pattern of content-addressed (Acquire-By-Hash) resource names.
      */
-    private final Map<String, Date> resourcesLastCheckedMap = new HashMap<>();
+    public static final Pattern BY_HASH_PATTERN = Pattern.compile("^(.*/)by-hash/(SHA256)/([0-9a-f]{64})$");
 
     /**
-     * Duration between new version check of mutable files.
-     *
-     * Default 1 minute.
+     * Downloads currently in progress. The key is the lock identifier
+     * of the pool object.
+     */
+    private final ConcurrentMap<String, ActiveDownload> activeDownloads = new ConcurrentHashMap<>();
+
+    /**
+     * The executor for downloads that run independently of the requesting client.
      */
-    private final int cacheDuration = 60_000;
+    private ExecutorService downloadExecutor;
+
+    /**
+     * The Japt-Proxy configuration.
+     */
+    private Configuration configuration;
 
     /**
      * The FetcherFactory instance.
      */
     private FetcherPool fetcherPool;
 
+    /**
+     * The FileSender instance used for locally cached objects.
+     */
+    private FileSender fileSender;
+
+    /**
+     * The table of the last version checks per resource.
+     */
+    private FreshnessTable freshnessTable;
+
+    /**
+     * The index of release files used to verify index files (optional).
+     */
+    private ReleaseIndex releaseIndex;
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
     @Required
     public void setFetcherPool(final FetcherPool fetcherPool) {
         this.fetcherPool = fetcherPool;
     }
 
+    @Required
+    public void setFileSender(final FileSender fileSender) {
+        this.fileSender = fileSender;
+    }
+
+    @Required
+    public void setFreshnessTable(final FreshnessTable freshnessTable) {
+        this.freshnessTable = freshnessTable;
+    }
+
+    public void setReleaseIndex(final ReleaseIndex releaseIndex) {
+        this.releaseIndex = releaseIndex;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (configuration.isVirtualThreads()) {
+            downloadExecutor = VirtualThreads.newThreadPerTaskExecutor("background-download-");
+            return;
+        }
+
+        downloadExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "background-download-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (downloadExecutor != null) {
+            downloadExecutor.shutdown();
+        }
+    }
+
     /**
      * Checks if a new version check is required for a specific resource.
+     * If it is required, the check is claimed by the caller - concurrent
+     * requests are served from the local pool object until the TTL of
+     * the cache policy expires again.
      *
-     * @param resourceName the resource name to check if a version check is
-     *                     required for
+     * @param poolObject    the local pool object
+     * @param requestedData the requested data
+     * @param cachePolicy   the cache policy of the resource
      * @return if a new version check is required
      */
-    protected boolean isNewVersionCheckRequired(final PoolObject poolObject, final String resourceName) {
+    protected boolean isNewVersionCheckRequired(final PoolObject poolObject, final RequestedData requestedData,
+                                                final CachePolicy cachePolicy) {
+        final String resourceName = getLockIdentifier(requestedData);
+
         // If the resource is known to be immutable,
         // no checks are required at all
         if (poolObject.getRepoPackage() != null &&
@@ -92,65 +195,400 @@ public class IOHandler {
             return false;
         }
 
-        synchronized (resourcesLastCheckedMap) {
-            final Date now = new Date();
+        // If the resource matches the release file of its suite, only the
+        // release file itself needs version checks
+        if (releaseIndex != null && releaseIndex.isCurrent(requestedData.getBackend().getDirectory(),
+            requestedData.getRequestedTarget(), poolObject)) {
+            LOG.debug("Resource '{}' matches its release file. No version check required.", resourceName);
+            return false;
+        }
 
-            final Date d = resourcesLastCheckedMap.get(resourceName);
+        return freshnessTable.claimCheck(resourceName, cachePolicy.getTtl());
+    }
 
-            // If the map doesn't contain an entry, add one
-            if (d == null) {
-                resourcesLastCheckedMap.put(resourceName, now);
-                return true;
-            }
+    /**
+     * Returns the lock identifier of the requested pool object - the pool is
+     * organized by server name and target. Content-addressed (by-hash)
+     * resources are shared by all backends and identified by their digest.
+     *
+     * @param requestedData the requested data
+     * @return the lock identifier of the requested pool object
+     */
+    public static String getLockIdentifier(final RequestedData requestedData) {
+        final Matcher matcher = BY_HASH_PATTERN.matcher(requestedData.getRequestedTarget());
+        if (matcher.matches()) {
+            return "by-hash/" + matcher.group(2) + "/" + matcher.group(3);
+        }
 
-            // If the map contains an entry, check if it is exceeded
-            if (cacheDuration > now.getTime() - d.getTime()) {
-                return false;
-            }
+        return requestedData.getServerName() + requestedData.getRequestedTarget();
+    }
 
-            resourcesLastCheckedMap.remove(resourceName);
-            return true;
+    /**
+     * Returns the entity tag of a local pool object for a conditional
+     * request. Entity tags are specific to the remote host that reported
+     * them, so it is only returned for the same remote resource.
+     *
+     * @param poolObject     the pool object
+     * @param targetResource the remote resource link
+     * @return the entity tag or null if there is none for the remote resource
+     */
+    private static String getETag(final PoolObject poolObject, final URL targetResource) {
+        final PoolObjectMetadata metadata = poolObject.getMetadata();
+
+        return metadata != null && targetResource.toString().equals(metadata.getUrl())
+            ? metadata.getETag()
+            : null;
+    }
+
+    /**
+     * Returns the time since the TTL of a local pool object expired. The
+     * object was known to be fresh when the remote host last answered a
+     * version check - or at least at its Last-Modified timestamp.
+     *
+     * @param lockIdentifier the lock identifier of the pool object
+     * @param poolObject     the pool object
+     * @param cachePolicy    the cache policy of the pool object
+     * @return the time in milliseconds since the TTL expired (negative if
+     * the pool object is still fresh)
+     */
+    private long getStaleness(final String lockIdentifier, final PoolObject poolObject,
+                              final CachePolicy cachePolicy) {
+        final long validated = Math.max(freshnessTable.getLastValidation(lockIdentifier),
+            poolObject.getLastModified());
+
+        return System.currentTimeMillis() - validated - cachePolicy.getTtl();
+    }
+
+    /**
+     * Sends a locally stored pool object after all remote hosts failed to
+     * provide the requested resource - if its TTL expired less than the
+     * stale-if-error time of its cache policy ago.
+     *
+     * @param requestedData the requested data
+     * @param poolObject    the pool object
+     * @param res           the HttpServletResponse object
+     * @return true if the pool object was sent
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    public boolean sendStaleIfError(final RequestedData requestedData,
+                                    final PoolObject poolObject,
+                                    final HttpServletResponse res)
+        throws IOException {
+        if (poolObject.getLastModified() == 0) {
+            return false;
+        }
+
+        final String lockIdentifier = getLockIdentifier(requestedData);
+        final CachePolicy cachePolicy =
+            configuration.getCachePolicy(requestedData.getServerName(), requestedData.getRequestedTarget());
+
+        if (getStaleness(lockIdentifier, poolObject, cachePolicy) >= cachePolicy.getStaleIfError()) {
+            return false;
         }
+
+        LOG.warn("No remote host provided '{}' - sending stale local object", poolObject.getName());
+        sendStaleFile(lockIdentifier, poolObject, requestedData, true, res);
+        return true;
+    }
+
+    /**
+     * Sends a locally stored pool object whose TTL expired. The response
+     * is flagged by the 'Warning' and 'X-Cache' headers.
+     *
+     * @param lockIdentifier the lock identifier of the pool object
+     * @param poolObject     the pool object to sent
+     * @param requestedData  the requested data
+     * @param failed         if the last version check failed
+     * @param res            the HttpServletResponse object
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    private void sendStaleFile(final String lockIdentifier,
+                               final PoolObject poolObject,
+                               final RequestedData requestedData,
+                               final boolean failed,
+                               final HttpServletResponse res)
+        throws IOException {
+        res.setHeader(HttpHeaderConstants.WARNING, failed
+            ? "111 - \"Revalidation Failed\""
+            : "110 - \"Response is Stale\"");
+        res.setHeader(HttpHeaderConstants.X_CACHE, "STALE");
+
+        sendLocalFile(lockIdentifier, poolObject, requestedData, res);
     }
 
     /**
      * Sends a locally stored pool object to the client. This method will
      * send HTTP status code 304 (not modified) if the client sent a
      * 'If-Modified-Since' header and the pool object wasn't modified since
-     * that date.
+     * that date. If the client requested byte ranges (and the 'If-Range'
+     * header - if sent - matches the pool object), only these ranges are sent.
+     *
+     * @param lockIdentifier the lock identifier of the pool object
+     * @param poolObject     the pool object to sent
+     * @param requestedData  the requested data
+     * @param res            the HttpServletResponse object
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    protected void sendLocalFile(final String lockIdentifier,
+                                 final PoolObject poolObject,
+                                 final RequestedData requestedData,
+                                 final HttpServletResponse res)
+        throws IOException {
+        final long requestModifiedSince = requestedData.getRequestModifiedSince();
+        final ReentrantReadWriteLock lock = ResourceLock.obtainLocker(lockIdentifier);
+        final Lock readLock = lock.readLock();
+
+        final long poolModification;
+        final long poolSize;
+        ByteBuffer buffer = null;
+        FileChannel channel = null;
+
+        // The read lock is only held while the file gets opened. Once opened,
+        // the file may be replaced by a newer version without affecting
+        // the data we're sending.
+        ResourceLock.lockRead(lock);
+        try {
+            LOG.debug("Obtained readLock for '{}'", lockIdentifier);
+
+            poolModification = poolObject.getLastModified();
+
+            if (requestModifiedSince != -1 &&
+                poolModification <= requestModifiedSince) {
+                LOG.debug("Requested resource wasn't modified since last request. " +
+                    "Returning status code 304 - not modified");
+                res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            // Small objects may be held in memory
+            buffer = poolObject.getBuffer();
+            if (buffer != null) {
+                poolSize = buffer.remaining();
+            } else {
+                poolSize = poolObject.getSize();
+                channel = poolObject.getChannel();
+            }
+        } finally {
+            LOG.debug("Released readLock for '{}'", lockIdentifier);
+            readLock.unlock();
+            ResourceLock.releaseLocker(lockIdentifier);
+        }
+
+        try {
+            final String entityTag = Util.getEntityTag(poolSize, poolModification);
+
+            final List<ByteRange> ranges =
+                isRangeApplicable(requestedData.getIfRange(), entityTag, poolModification)
+                    ? ByteRange.parse(requestedData.getRange(), poolSize)
+                    : null;
+
+            if (ranges != null && ranges.isEmpty()) {
+                LOG.debug("Requested range '{}' is not satisfiable - Returning status code 416",
+                    requestedData.getRange());
+                res.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                res.setHeader(HttpHeaderConstants.CONTENT_RANGE, "bytes */" + poolSize);
+                res.setContentLength(0);
+                return;
+            }
+
+            res.setDateHeader(HttpHeaderConstants.LAST_MODIFIED, poolModification);
+            res.setHeader(HttpHeaderConstants.ETAG, entityTag);
+            res.setHeader(HttpHeaderConstants.ACCEPT_RANGES, "bytes");
+
+            if (ranges == null) {
+                res.setContentType(poolObject.getContentType());
+                Util.setContentLength(res, poolSize);
+
+                LOG.info("Sending locally cached object '{}'",
+                    poolObject.getName());
+
+                send(buffer, channel, lockIdentifier + entityTag, 0, poolSize, res);
+            } else if (ranges.size() == 1) {
+                final ByteRange range = ranges.get(0);
+
+                res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                res.setContentType(poolObject.getContentType());
+                res.setHeader(HttpHeaderConstants.CONTENT_RANGE, range.toContentRange(poolSize));
+                Util.setContentLength(res, range.getLength());
+
+                LOG.info("Sending range {} of locally cached object '{}'", range, poolObject.getName());
+
+                send(buffer, channel, lockIdentifier + entityTag, range.getStart(), range.getLength(), res);
+            } else {
+                LOG.info("Sending ranges {} of locally cached object '{}'", ranges, poolObject.getName());
+
+                sendMultipleRanges(buffer, channel, poolObject.getContentType(), poolSize, ranges, res);
+            }
+        } catch (final ClientWriteException e) {
+            throw e;
+        } catch (final IOException e) {
+            // Local data can't indicate a failing remote host
+            throw new ClientWriteException(e);
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Sends multiple ranges of a pool object as multipart/byteranges response.
      *
-     * @param poolObject           the pool object to sent
+     * @param buffer      the content of the pool object if it is held in memory
+     * @param channel     the channel of the pool object if it isn't held in memory
+     * @param contentType the content type of the complete resource
+     * @param size        the size of the complete resource
+     * @param ranges      the ranges in ascending, non overlapping order
+     * @param res         the HttpServletResponse object
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    protected void sendMultipleRanges(final ByteBuffer buffer, final FileChannel channel, final String contentType,
+                                      final long size, final List<ByteRange> ranges, final HttpServletResponse res)
+        throws IOException {
+        final String boundary = UUID.randomUUID().toString();
+        final byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        final List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = closing.length;
+
+        for (final ByteRange range : ranges) {
+            final String partHeader = "\r\n--" + boundary + "\r\n" +
+                HttpHeaderConstants.CONTENT_TYPE + ": " + contentType + "\r\n" +
+                HttpHeaderConstants.CONTENT_RANGE + ": " + range.toContentRange(size) + "\r\n\r\n";
+            final byte[] partHeaderBytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+
+            partHeaders.add(partHeaderBytes);
+            contentLength += partHeaderBytes.length + range.getLength();
+        }
+
+        res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        res.setContentType("multipart/byteranges; boundary=" + boundary);
+        Util.setContentLength(res, contentLength);
+
+        final OutputStream sendOs = res.getOutputStream();
+        final WritableByteChannel sendChannel = Channels.newChannel(sendOs);
+
+        for (int i = 0; i < ranges.size(); i++) {
+            final ByteRange range = ranges.get(i);
+
+            sendOs.write(partHeaders.get(i));
+            if (buffer != null) {
+                ChannelFileSender.transferFully(slice(buffer, range.getStart(), range.getLength()), sendChannel);
+            } else {
+                ChannelFileSender.transferFully(channel, range.getStart(), range.getLength(), sendChannel);
+            }
+        }
+
+        sendOs.write(closing);
+    }
+
+    /**
+     * Sends a region of a pool object as complete response body.
+     *
+     * @param buffer   the content of the pool object if it is held in memory
+     * @param channel  the channel of the pool object if it isn't held in memory
+     * @param key      identifies the content of the pool object
+     * @param position the position of the first byte to send
+     * @param count    the number of bytes to send
+     * @param res      the HttpServletResponse object
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    private void send(final ByteBuffer buffer, final FileChannel channel, final String key, final long position,
+                      final long count, final HttpServletResponse res)
+        throws IOException {
+        if (buffer != null) {
+            fileSender.send(slice(buffer, position, count), res);
+        } else {
+            fileSender.send(channel, key, position, count, res);
+        }
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final long position, final long count) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.position((int) position);
+        slice.limit((int) (position + count));
+        return slice;
+    }
+
+    /**
+     * Checks if the requested ranges should be sent, based on the
+     * 'If-Range' header (RFC 7233).
+     *
+     * @param ifRange      the 'If-Range' header or {@code null} if not sent
+     * @param entityTag    the entity tag of the pool object
+     * @param lastModified the modification timestamp of the pool object
+     * @return {@code true} if the ranges should be sent, {@code false} if
+     * the complete object has to be sent
+     */
+    protected boolean isRangeApplicable(final String ifRange, final String entityTag, final long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        // Entity tags have to match using the strong comparison function
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(entityTag);
+        }
+
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+
+        // HTTP dates have a precision of one second
+        final Date ifRangeDate = DateUtils.parseDate(ifRange);
+        return ifRangeDate != null &&
+            TimeUnit.MILLISECONDS.toSeconds(ifRangeDate.getTime()) ==
+                TimeUnit.MILLISECONDS.toSeconds(lastModified);
+    }
+
+    /**
+     * Sends a resource to the client that is currently being downloaded by
+     * another request. The data is read from the growing temp resource of
+     * the download, so the client receives the bytes as soon as they have
+     * been written.
+     *
+     * @param download             the active download to follow
      * @param requestModifiedSince the "If-Modified-Since" header
      * @param res                  the HttpServletResponse object
      * @throws IOException is thrown if a problem occured while sending data
+     *                     or if the download failed
      */
-    protected void sendLocalFile(final PoolObject poolObject,
-                                 final long requestModifiedSince,
-                                 final HttpServletResponse res)
+    protected void sendActiveDownload(final ActiveDownload download,
+                                      final long requestModifiedSince,
+                                      final HttpServletResponse res)
         throws IOException {
-        final long poolModification = poolObject.getLastModified();
+        final long remoteModification = download.getLastModified();
 
-        if (requestModifiedSince != -1 &&
-            poolModification <= requestModifiedSince) {
+        if (requestModifiedSince != -1 && remoteModification != 0 &&
+            remoteModification <= requestModifiedSince) {
             LOG.debug("Requested resource wasn't modified since last request. " +
                 "Returning status code 304 - not modified");
             res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
             return;
         }
 
-        res.setContentType(poolObject.getContentType());
-        res.setContentLength((int) poolObject.getSize());
-        res.setDateHeader(HttpHeaderConstants.LAST_MODIFIED, poolObject.getLastModified());
+        setHeader(res, download);
 
-        InputStream is = null;
-        final OutputStream sendOs = res.getOutputStream();
+        LOG.info("Sending object '{}' while it is being downloaded", download.getPoolObject().getName());
+
+        final InputStream is = download.openInputStream();
+        final OutputStream sendOs = new ClientOutputStream(res.getOutputStream());
 
         try {
-            LOG.info("Sending locally cached object '{}'",
-                poolObject.getName());
+            final byte[] buffer = new byte[Util.DEFAULT_BUFFER_SIZE];
+            long position = 0;
+            long available;
+
+            while ((available = download.awaitBytes(position)) > position) {
+                while (position < available) {
+                    final int len = is.read(buffer, 0, (int) Math.min(buffer.length, available - position));
+                    if (len == -1) {
+                        throw new IOException("Unexpected end of '" + download.getPoolObject().getName() + "'");
+                    }
+                    sendOs.write(buffer, 0, len);
+                    position += len;
+                }
+            }
 
-            is = poolObject.getInputStream();
-            IOUtils.copy(is, sendOs);
+            LOG.debug("Sent {} bytes of followed download", position);
         } finally {
             IOUtils.closeQuietly(is);
         }
@@ -159,64 +597,102 @@ public class IOHandler {
     /**
      * This method is responsible for fetching remote data (if needed) and
      * sending the data (locally stored, or remotely fetched) to the client.
+     * <p/>
+     * Only one request per resource downloads the remote data (the leader).
+     * Concurrent requests for the same resource are served from the data
+     * the leader has already written to the pool.
      *
-     * @param requestedData  the requested data
-     * @param poolObject     the pool object
-     * @param targetResource the remote resource link
-     * @param res            the HttpServletResponse object
-     * @return true if the file was sent from cache, false otherwise
-     * @throws IOException is thrown if a problem occured while sending data
+     * @param requestedData   the requested data
+     * @param poolObject      the pool object
+     * @param targetResource  the remote resource link
+     * @param mirrorResources all remote resource links of the backend - used
+     *                        for segmented downloads
+     * @param listener        the listener notified as soon as a new version
+     *                        has been stored (may be null)
+     * @param res             the HttpServletResponse object
+     * @throws IOException is thrown if a problem occured while fetching
+     *                     data - a {@link ClientWriteException} if a problem
+     *                     occured while sending data
      * @throws net.siegmar.japtproxy.exception.ResourceUnavailableException is thrown if the resource was not found
      */
-    public boolean sendAndSave(final RequestedData requestedData,
-                               final PoolObject poolObject,
-                               final URL targetResource,
-                               final HttpServletResponse res)
+    public void sendAndSave(final RequestedData requestedData,
+                            final PoolObject poolObject,
+                            final URL targetResource,
+                            final List<URL> mirrorResources,
+                            final DownloadListener listener,
+                            final HttpServletResponse res)
         throws IOException, ResourceUnavailableException, InitializationException {
-        final String lockIdentifier = requestedData.getRequestedResource();
-        final ReadWriteLock lock = ResourceLock.obtainLocker(lockIdentifier);
-        final Lock readLock = lock.readLock();
-
-        LockStatus lockStatus;
-
-        readLock.lock();
-        lockStatus = LockStatus.READ;
+        final String lockIdentifier = getLockIdentifier(requestedData);
 
-        LOG.debug("Obtained readLock for '{}'", lockIdentifier);
+        final ActiveDownload runningDownload = activeDownloads.get(lockIdentifier);
+        if (runningDownload != null) {
+            LOG.debug("Resource is currently being downloaded - following download {}", runningDownload);
+            sendActiveDownload(runningDownload, requestedData.getRequestModifiedSince(), res);
+            return;
+        }
 
         final long poolModification = poolObject.getLastModified();
 
-        FetchedResource fetchedResource = null;
-        OutputStream saveOs = null;
-        InputStream is = null;
-
-        try {
-            if (poolModification != 0) {
-                if (!isNewVersionCheckRequired(poolObject,
-                    requestedData.getRequestedResource())) {
-                    LOG.debug("Local object exists and no need to do a version check - sending local object");
-                    sendLocalFile(poolObject, requestedData.getRequestModifiedSince(), res);
-                    return true;
-                }
+        if (poolModification != 0) {
+            final CachePolicy cachePolicy =
+                configuration.getCachePolicy(requestedData.getServerName(), requestedData.getRequestedTarget());
+            final long lastCheck = freshnessTable.getLastCheck(lockIdentifier);
 
-                LOG.debug("Local object exists but new version check is required");
-            } else {
-                LOG.debug("No local object exists - requesting remote host");
+            if (!isNewVersionCheckRequired(poolObject, requestedData, cachePolicy)) {
+                LOG.debug("Local object exists and no need to do a version check - sending local object");
+                sendLocalFile(lockIdentifier, poolObject, requestedData, res);
+                return;
             }
 
-            // Get a fetcher (http, ftp) for the current targetResource
-            final Fetcher fetcher = fetcherPool.getInstance(targetResource);
+            // Don't let the client wait for the remote hosts, if the local object
+            // expired recently or if the remote hosts failed the last time
+            final long staleness = getStaleness(lockIdentifier, poolObject, cachePolicy);
+            final boolean lastCheckFailed = lastCheck > freshnessTable.getLastValidation(lockIdentifier);
 
-            if (fetcher == null) {
-                throw new InitializationException("No fetcher found for resource '" + targetResource + "'");
+            if (staleness < cachePolicy.getStaleWhileRevalidate() ||
+                lastCheckFailed && staleness < cachePolicy.getStaleIfError()) {
+                LOG.debug("Local object is stale - sending local object and revalidating it in the background");
+                downloadExecutor.execute(new Revalidation(lockIdentifier, poolObject,
+                    getSources(targetResource, mirrorResources), requestedData.getUserAgent(), listener));
+                sendStaleFile(lockIdentifier, poolObject, requestedData, lastCheckFailed, res);
+                return;
             }
 
-            fetchedResource = fetcher.fetch(targetResource, poolModification,
+            LOG.debug("Local object exists but new version check is required");
+        } else {
+            LOG.debug("No local object exists - requesting remote host");
+        }
+
+        // Get a fetcher (http, ftp) for the current targetResource
+        final Fetcher fetcher = fetcherPool.getInstance(targetResource);
+
+        if (fetcher == null) {
+            throw new InitializationException("No fetcher found for resource '" + targetResource + "'");
+        }
+
+        // Resume an interrupted download if the remote resource hasn't changed since
+        final long partialSize = poolObject.getPartialSize();
+        final String partialValidator = partialSize > 0 ? poolObject.getPartialValidator() : null;
+
+        FetchedResource fetchedResource;
+        if (partialValidator != null) {
+            LOG.info("Trying to resume download of '{}' at offset {}", targetResource, partialSize);
+            fetchedResource = fetcher.fetch(targetResource, partialSize, -1, partialValidator,
+                requestedData.getUserAgent());
+        } else {
+            fetchedResource = fetcher.fetch(targetResource, poolModification, getETag(poolObject, targetResource),
                 requestedData.getUserAgent());
+        }
+
+        freshnessTable.validated(lockIdentifier);
 
+        try {
             final String contentType = fetchedResource.getContentType();
             final long remoteModification = fetchedResource.getLastModified();
-            final long contentLength = fetchedResource.getContentLength();
+            final long offset = fetchedResource.getOffset();
+            final long contentLength = fetchedResource.getContentLength() != -1
+                ? offset + fetchedResource.getContentLength()
+                : -1;
 
             if (remoteModification != 0 &&
                 poolModification > remoteModification) {
@@ -227,12 +703,10 @@ public class IOHandler {
                     Util.getSimpleDateFromTimestamp(poolModification));
             }
 
-            setHeader(res, fetchedResource);
-
             if (!fetchedResource.isModified()) {
                 LOG.debug("Remote resource has no new version - sending local object");
-                sendLocalFile(poolObject, requestedData.getRequestModifiedSince(), res);
-                return true;
+                sendLocalFile(lockIdentifier, poolObject, requestedData, res);
+                return;
             }
 
             if (LOG.isDebugEnabled()) {
@@ -249,68 +723,438 @@ public class IOHandler {
                 }
             }
 
-            readLock.unlock();
-            lock.writeLock().lock();
-            lockStatus = LockStatus.WRITE;
+            if (partialValidator != null && offset == 0) {
+                LOG.info("Remote resource '{}' changed or doesn't support ranges - restarting download",
+                    targetResource);
+            }
 
-            LOG.debug("Obtained writeLock for '{}'", lockIdentifier);
+            final ActiveDownload download = new ActiveDownload(poolObject, contentType, contentLength,
+                remoteModification, getValidator(fetchedResource), offset);
+            if (listener != null) {
+                download.addListener(listener);
+            }
+
+            final List<URL> segmentSources = isSegmentable(download)
+                ? getSources(targetResource, mirrorResources)
+                : null;
+
+            final ActiveDownload concurrentDownload = publish(lockIdentifier, download, segmentSources != null);
+            if (concurrentDownload != null) {
+                LOG.debug("Another request started downloading the resource in the meantime - " +
+                    "following download {}", concurrentDownload);
+                fetchedResource.close();
+                sendActiveDownload(concurrentDownload, requestedData.getRequestModifiedSince(), res);
+                return;
+            }
+
+            poolObject.setMetadata(new PoolObjectMetadata(remoteModification, contentLength, contentType,
+                fetchedResource.getETag(), targetResource.toString()));
+
+            if (configuration.isBackgroundDownloads() || segmentSources != null) {
+                LOG.debug("Downloading '{}' in the background", targetResource);
+                downloadExecutor.execute(new BackgroundDownload(lockIdentifier, download, fetchedResource,
+                    segmentSources, requestedData.getUserAgent()));
+
+                // The fetched resource is owned by the background download from now on
+                fetchedResource = null;
+
+                sendActiveDownload(download, requestedData.getRequestModifiedSince(), res);
+                return;
+            }
+
+            try {
+                setHeader(res, download);
+                save(lockIdentifier, download, fetchedResource, new ClientOutputStream(res.getOutputStream()));
+            } catch (final IOException e) {
+                abort(download);
+                throw e;
+            } finally {
+                activeDownloads.remove(lockIdentifier, download);
+            }
+        } finally {
+            if (fetchedResource != null) {
+                fetchedResource.close();
+            }
+        }
+    }
+
+    /**
+     * Publishes a download to the followers of the pool object unless another
+     * request published one in the meantime. The temp resource is created
+     * before, so followers can read it right away. This happens while holding
+     * the write lock of the pool object, as a completing download renames the
+     * temp resource.
+     *
+     * @param lockIdentifier the lock identifier of the pool object
+     * @param download       the download to publish
+     * @param segmented      if the download is written in segments - the
+     *                       temp resource is allocated to its full length
+     * @return the concurrent download or null if the download was published
+     * @throws IOException is thrown if the partial data to resume changed in
+     *                     the meantime or the temp resource couldn't be created
+     */
+    protected ActiveDownload publish(final String lockIdentifier, final ActiveDownload download,
+                                     final boolean segmented)
+        throws IOException {
+        final PoolObject poolObject = download.getPoolObject();
+        final long offset = download.getOffset();
+
+        final ReentrantReadWriteLock lock = ResourceLock.obtainLocker(lockIdentifier);
+        ResourceLock.lockWrite(lock);
+        try {
+            final ActiveDownload concurrentDownload = activeDownloads.get(lockIdentifier);
+            if (concurrentDownload != null) {
+                return concurrentDownload;
+            }
+
+            if (offset > 0 && poolObject.getPartialSize() != offset) {
+                // Another download completed or extended the partial data in the meantime
+                throw new IOException("Partial download of '" + poolObject.getName() + "' changed while resuming");
+            }
+
+            poolObject.createTemp(offset, segmented ? download.getContentLength() : -1);
+            activeDownloads.put(lockIdentifier, download);
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+            ResourceLock.releaseLocker(lockIdentifier);
+        }
+    }
+
+    /**
+     * Copies the fetched resource to the temp resource of the pool object and
+     * optionally to the client. Followers of the download get notified about
+     * every chunk written to the pool object. If the download is resumed,
+     * the fetched data is appended to the partial data, which is sent to the
+     * client first.
+     *
+     * @param lockIdentifier  the lock identifier of the pool object
+     * @param download        the active download
+     * @param fetchedResource the fetched resource
+     * @param sendOs          the client stream or {@code null} if the data
+     *                        should only be saved
+     * @throws IOException is thrown if a problem occured while fetching,
+     *                     saving or sending data
+     */
+    protected void save(final String lockIdentifier,
+                        final ActiveDownload download,
+                        final FetchedResource fetchedResource,
+                        final OutputStream sendOs)
+        throws IOException {
+        final PoolObject poolObject = download.getPoolObject();
+        final long contentLength = download.getContentLength();
+
+        InputStream is = null;
+        OutputStream saveOs = null;
+
+        try {
+            final long offset = download.getOffset();
+
+            if (sendOs != null && offset > 0) {
+                sendPartial(poolObject, offset, sendOs);
+            }
 
             is = fetchedResource.getInputStream();
+            saveOs = poolObject.getOutputStream(offset > 0);
 
-            LOG.info("Sending remote object '{}'", poolObject.getName());
+            LOG.info("Saving remote object '{}'", poolObject.getName());
 
-            saveOs = new TeeOutputStream(poolObject.getOutputStream(), res.getOutputStream());
-            final long bytesCopied = IOUtils.copyLarge(is, saveOs);
+            final byte[] buffer = new byte[Util.DEFAULT_BUFFER_SIZE];
+            long bytesCopied = offset;
+            int len;
+
+            while ((len = is.read(buffer)) != -1) {
+                saveOs.write(buffer, 0, len);
+                download.addBytesWritten(len);
+                if (sendOs != null) {
+                    sendOs.write(buffer, 0, len);
+                }
+                bytesCopied += len;
+            }
 
-            LOG.debug("Data sent to file and client");
+            saveOs.close();
 
-            poolObject.setLastModified(remoteModification);
+            LOG.debug("Data saved to file{}", sendOs != null ? " and sent to client" : "");
 
             if (contentLength != -1 && bytesCopied != contentLength) {
                 throw new IOException(String.format("Received file has invalid file size - " +
                     "only %d of %d were downloaded", bytesCopied, contentLength));
             }
 
-            poolObject.store();
+            poolObject.setLastModified(download.getLastModified());
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(saveOs);
+        }
 
-            return false;
+        complete(lockIdentifier, download);
+    }
+
+    /**
+     * Checks if a download should be split into segments that are fetched
+     * concurrently. Segments have to be validated by the Last-Modified date,
+     * because the entity tags of different mirrors usually differ.
+     *
+     * @param download the download to check
+     * @return true if the download should be split into segments
+     */
+    protected boolean isSegmentable(final ActiveDownload download) {
+        final long minSize = configuration.getSegmentedDownloadMinSize();
+        final long remaining = download.getContentLength() - download.getOffset();
+
+        return minSize != -1 && download.getContentLength() != -1 && download.getLastModified() != 0 &&
+            remaining >= minSize && remaining >= configuration.getDownloadSegments();
+    }
+
+    /**
+     * Returns the remote resource links of a resource - the primary one first.
+     *
+     * @param targetResource  the primary remote resource link
+     * @param mirrorResources all remote resource links of the backend
+     * @return the remote resource links of the resource
+     */
+    private static List<URL> getSources(final URL targetResource, final List<URL> mirrorResources) {
+        final List<URL> sources = new ArrayList<>(mirrorResources.size() + 1);
+        sources.add(targetResource);
+
+        for (final URL mirrorResource : mirrorResources) {
+            if (!mirrorResource.equals(targetResource)) {
+                sources.add(mirrorResource);
+            }
+        }
+
+        return sources;
+    }
+
+    /**
+     * Saves a fetched resource in segments that are fetched concurrently from
+     * the given sources (round robin). The first segment is read from the
+     * already fetched resource. If the download fails, the contiguous data
+     * from the beginning is kept to resume the download.
+     *
+     * @param lockIdentifier  the lock identifier of the pool object
+     * @param download        the active download
+     * @param fetchedResource the fetched resource
+     * @param sources         the remote resource links to fetch segments from
+     * @param userAgent       the user agent of the requesting client
+     * @throws IOException is thrown if a problem occured while fetching or
+     *                     saving data
+     */
+    protected void saveSegmented(final String lockIdentifier,
+                                 final ActiveDownload download,
+                                 final FetchedResource fetchedResource,
+                                 final List<URL> sources,
+                                 final String userAgent)
+        throws IOException {
+        final PoolObject poolObject = download.getPoolObject();
+        final DownloadSegments segments = new DownloadSegments(download, configuration.getDownloadSegments());
+        final String validator = Util.getRfc822DateFromTimestamp(download.getLastModified());
+
+        LOG.info("Saving remote object '{}' in {} segments from {} location(s)",
+            poolObject.getName(), segments.size(), sources.size());
+
+        final FileChannel channel = poolObject.getTempChannel();
+        final List<Future<Void>> futures = new ArrayList<>(segments.size() - 1);
+
+        try {
+            for (int i = 1; i < segments.size(); i++) {
+                final URL source = sources.get(i % sources.size());
+                futures.add(downloadExecutor.submit(
+                    new SegmentDownload(source, validator, userAgent, segments, i, channel)));
+            }
+
+            saveSegment(fetchedResource, channel, segments, 0);
+
+            // The other segments are fetched separately - closing the fetched resource aborts the
+            // remaining transfer and frees its request to the origin for them
+            fetchedResource.close();
+
+            for (final Future<Void> future : futures) {
+                awaitSegment(future);
+            }
+
+            LOG.debug("All segments saved: {}", segments);
+
+            if (download.getBytesWritten() != download.getContentLength()) {
+                throw new IOException(String.format("Received file has invalid file size - " +
+                    "only %d of %d were downloaded", download.getBytesWritten(), download.getContentLength()));
+            }
         } catch (final IOException e) {
-            // Remove pool file if it was created by this thread
-            if (poolModification == 0) {
-                poolObject.remove();
+            segments.fail();
+
+            // Segments must not write anymore before the data gets truncated
+            for (final Future<Void> future : futures) {
+                try {
+                    awaitSegment(future);
+                } catch (final IOException segmentException) {
+                    LOG.debug("Segment failed", segmentException);
+                }
             }
 
+            channel.truncate(download.getBytesWritten());
             throw e;
         } finally {
-            IOUtils.closeQuietly(is);
-            IOUtils.closeQuietly(saveOs);
+            IOUtils.closeQuietly(channel);
+        }
 
-            if (fetchedResource != null) {
-                fetchedResource.close();
+        poolObject.setLastModified(download.getLastModified());
+
+        complete(lockIdentifier, download);
+    }
+
+    /**
+     * Writes a segment of the fetched resource to the channel.
+     *
+     * @param fetchedResource the fetched resource - positioned at the start
+     *                        of the segment
+     * @param channel         the channel of the temp resource
+     * @param segments        the segments of the download
+     * @param segment         the segment to write
+     * @throws IOException is thrown if a problem occured while fetching or
+     *                     saving data or if another segment failed
+     */
+    private static void saveSegment(final FetchedResource fetchedResource, final FileChannel channel,
+                                    final DownloadSegments segments, final int segment)
+        throws IOException {
+        // The stream isn't closed here - closing the fetched resource aborts the remaining transfer
+        final InputStream is = fetchedResource.getInputStream();
+        final byte[] buffer = new byte[Util.DEFAULT_BUFFER_SIZE];
+
+        long position = segments.getStart(segment);
+        long remaining = segments.getLength(segment);
+
+        while (remaining > 0) {
+            if (segments.isFailed()) {
+                throw new IOException("Segment " + segment + " aborted - another segment failed");
             }
 
-            if (lockStatus == LockStatus.WRITE) {
-                LOG.debug("Released writeLock for '{}'", lockIdentifier);
-                lock.writeLock().unlock();
-            } else {
-                LOG.debug("Released readLock for '{}'", lockIdentifier);
-                readLock.unlock();
+            final int len = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (len == -1) {
+                throw new EOFException("Unexpected end of segment " + segment);
+            }
+
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+            while (byteBuffer.hasRemaining()) {
+                position += channel.write(byteBuffer, position);
+            }
+
+            remaining -= len;
+            segments.addBytesWritten(segment, len);
+        }
+    }
+
+    private static void awaitSegment(final Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segment");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new IOException("Segment failed", e.getCause());
+        }
+    }
+
+    /**
+     * Marks a download as completed while holding the write lock of the pool
+     * object.
+     *
+     * @param lockIdentifier the lock identifier of the pool object
+     * @param download       the completed download
+     * @throws IOException is thrown if the pool object couldn't be stored
+     */
+    protected void complete(final String lockIdentifier, final ActiveDownload download)
+        throws IOException {
+        final ReentrantReadWriteLock lock = ResourceLock.obtainLocker(lockIdentifier);
+        ResourceLock.lockWrite(lock);
+        try {
+            LOG.debug("Obtained writeLock for '{}'", lockIdentifier);
+            download.complete();
+        } finally {
+            LOG.debug("Released writeLock for '{}'", lockIdentifier);
+            lock.writeLock().unlock();
             ResourceLock.releaseLocker(lockIdentifier);
         }
     }
 
-    protected void setHeader(final HttpServletResponse res, final FetchedResource fetchedResource) {
-        final String contentType = fetchedResource.getContentType();
-        final long contentLength = fetchedResource.getContentLength();
-        final long remoteModification = fetchedResource.getLastModified();
+    /**
+     * Sends the partial data of a resumed download to the client.
+     *
+     * @param poolObject the pool object
+     * @param length     the length of the partial data
+     * @param sendOs     the client stream
+     * @throws IOException is thrown if a problem occured while sending data
+     */
+    private static void sendPartial(final PoolObject poolObject, final long length, final OutputStream sendOs)
+        throws IOException {
+        final InputStream is = poolObject.getTempInputStream();
+        try {
+            if (IOUtils.copyLarge(is, sendOs, 0, length) != length) {
+                throw new EOFException("Partial download of '" + poolObject.getName() + "' is truncated");
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Marks a download as failed. The data written so far is kept to resume
+     * the download later if the remote resource provided a validator -
+     * otherwise it is removed.
+     *
+     * @param download the failed download
+     */
+    protected void abort(final ActiveDownload download) {
+        download.fail();
+
+        final PoolObject poolObject = download.getPoolObject();
+        final String validator = download.getValidator();
+        final long bytesWritten = download.getBytesWritten();
+
+        if (validator != null && bytesWritten > 0) {
+            try {
+                poolObject.keepPartial(validator);
+                LOG.info("Kept {} bytes of '{}' to resume the download later", bytesWritten, poolObject.getName());
+                return;
+            } catch (final IOException e) {
+                LOG.warn("Couldn't keep partial download of '{}'", poolObject.getName(), e);
+            }
+        }
+
+        poolObject.removePartial();
+    }
+
+    /**
+     * Returns the validator a partial download of the fetched resource has
+     * to match to be resumed.
+     *
+     * @param fetchedResource the fetched resource
+     * @return the strong entity tag or the Last-Modified date (RFC 822) of the
+     * fetched resource - null if neither is available
+     */
+    protected static String getValidator(final FetchedResource fetchedResource) {
+        final String entityTag = fetchedResource.getETag();
+        if (entityTag != null && !entityTag.startsWith("W/")) {
+            return entityTag;
+        }
+
+        final long lastModified = fetchedResource.getLastModified();
+        return lastModified != 0 ? Util.getRfc822DateFromTimestamp(lastModified) : null;
+    }
+
+    protected void setHeader(final HttpServletResponse res, final ActiveDownload download) {
+        final String contentType = download.getContentType();
+        final long contentLength = download.getContentLength();
+        final long remoteModification = download.getLastModified();
 
         if (contentType != null) {
             res.setContentType(contentType);
         }
 
         if (contentLength != -1) {
-            res.setContentLength((int) contentLength);
+            Util.setContentLength(res, contentLength);
         }
 
         if (remoteModification != 0) {
@@ -318,10 +1162,274 @@ public class IOHandler {
         }
     }
 
-    private enum LockStatus {
+    /**
+     * Saves a fetched resource to the pool, independently of the client
+     * that requested it.
+     */
+    private final class BackgroundDownload implements Runnable {
+
+        private final String lockIdentifier;
+        private final ActiveDownload download;
+        private final FetchedResource fetchedResource;
+        private final List<URL> segmentSources;
+        private final String userAgent;
+        private final Map<String, String> mdcContext;
 
-        READ,
-        WRITE
+        private BackgroundDownload(final String lockIdentifier, final ActiveDownload download,
+                                   final FetchedResource fetchedResource, final List<URL> segmentSources,
+                                   final String userAgent) {
+            this.lockIdentifier = lockIdentifier;
+            this.download = download;
+            this.fetchedResource = fetchedResource;
+            this.segmentSources = segmentSources;
+            this.userAgent = userAgent;
+            mdcContext = MDC.getCopyOfContextMap();
+        }
+
+        @Override
+        public void run() {
+            if (mdcContext != null) {
+                MDC.setContextMap(mdcContext);
+            }
+
+            try {
+                if (segmentSources != null) {
+                    saveSegmented(lockIdentifier, download, fetchedResource, segmentSources, userAgent);
+                } else {
+                    save(lockIdentifier, download, fetchedResource, null);
+                }
+                LOG.info("Background download of '{}' completed", download.getPoolObject().getName());
+            } catch (final IOException e) {
+                LOG.warn(String.format("Background download of '%s' failed", download.getPoolObject().getName()), e);
+                abort(download);
+            } finally {
+                activeDownloads.remove(lockIdentifier, download);
+
+                try {
+                    fetchedResource.close();
+                } catch (final IOException e) {
+                    LOG.debug("Couldn't close fetched resource", e);
+                }
+
+                MDC.clear();
+            }
+        }
+
+    }
+
+    /**
+     * Revalidates a stale pool object, independently of the client that
+     * requested it. If the remote host provides a new version, it is saved
+     * to the pool. The remote resource links are tried in the given order.
+     */
+    private final class Revalidation implements Runnable {
+
+        private final String lockIdentifier;
+        private final PoolObject poolObject;
+        private final List<URL> sources;
+        private final String userAgent;
+        private final DownloadListener listener;
+        private final Map<String, String> mdcContext;
+
+        private Revalidation(final String lockIdentifier, final PoolObject poolObject,
+                             final List<URL> sources, final String userAgent, final DownloadListener listener) {
+            this.lockIdentifier = lockIdentifier;
+            this.poolObject = poolObject;
+            this.sources = sources;
+            this.userAgent = userAgent;
+            this.listener = listener;
+            mdcContext = MDC.getCopyOfContextMap();
+        }
+
+        @Override
+        public void run() {
+            if (mdcContext != null) {
+                MDC.setContextMap(mdcContext);
+            }
+
+            try {
+                for (final URL source : sources) {
+                    try {
+                        revalidate(source);
+                        return;
+                    } catch (final IOException | ResourceUnavailableException e) {
+                        LOG.info("Revalidation of '{}' failed: {}", source, e.getMessage());
+                    }
+                }
+
+                // The next request after the TTL expired again retries - the
+                // local object is sent meanwhile if stale-if-error permits
+                LOG.warn("No remote host could revalidate '{}'", poolObject.getName());
+            } finally {
+                MDC.clear();
+            }
+        }
+
+        private void revalidate(final URL source) throws IOException, ResourceUnavailableException {
+            final Fetcher fetcher = fetcherPool.getInstance(source);
+            if (fetcher == null) {
+                throw new IOException("No fetcher found for resource '" + source + "'");
+            }
+
+            final FetchedResource fetchedResource = fetcher.fetch(source, poolObject.getLastModified(),
+                getETag(poolObject, source), userAgent);
+            freshnessTable.validated(lockIdentifier);
+
+            try {
+                if (!fetchedResource.isModified()) {
+                    LOG.debug("Remote resource '{}' has no new version", source);
+                    return;
+                }
+
+                final ActiveDownload download = new ActiveDownload(poolObject, fetchedResource.getContentType(),
+                    fetchedResource.getContentLength(), fetchedResource.getLastModified(),
+                    getValidator(fetchedResource), 0);
+                if (listener != null) {
+                    download.addListener(listener);
+                }
+
+                if (publish(lockIdentifier, download, false) != null) {
+                    LOG.debug("Another request started downloading '{}' in the meantime", source);
+                    return;
+                }
+
+                poolObject.setMetadata(new PoolObjectMetadata(download.getLastModified(),
+                    download.getContentLength(), download.getContentType(), fetchedResource.getETag(),
+                    source.toString()));
+
+                try {
+                    save(lockIdentifier, download, fetchedResource, null);
+                    LOG.info("Revalidation of '{}' saved a new version", source);
+                } catch (final IOException e) {
+                    abort(download);
+                    throw e;
+                } finally {
+                    activeDownloads.remove(lockIdentifier, download);
+                }
+            } finally {
+                fetchedResource.close();
+            }
+        }
+
+    }
+
+    /**
+     * Fetches a single segment of a segmented download.
+     */
+    private final class SegmentDownload implements Callable<Void> {
+
+        private final URL source;
+        private final String validator;
+        private final String userAgent;
+        private final DownloadSegments segments;
+        private final int segment;
+        private final FileChannel channel;
+        private final Map<String, String> mdcContext;
+
+        private SegmentDownload(final URL source, final String validator, final String userAgent,
+                                final DownloadSegments segments, final int segment, final FileChannel channel) {
+            this.source = source;
+            this.validator = validator;
+            this.userAgent = userAgent;
+            this.segments = segments;
+            this.segment = segment;
+            this.channel = channel;
+            mdcContext = MDC.getCopyOfContextMap();
+        }
+
+        @Override
+        public Void call() throws IOException {
+            if (mdcContext != null) {
+                MDC.setContextMap(mdcContext);
+            }
+
+            FetchedResource fetchedResource = null;
+            try {
+                final Fetcher fetcher = fetcherPool.getInstance(source);
+                if (fetcher == null) {
+                    throw new IOException("No fetcher found for resource '" + source + "'");
+                }
+
+                final long start = segments.getStart(segment);
+                final long length = segments.getLength(segment);
+
+                LOG.debug("Fetching segment {} ({} bytes at {}) from '{}'", segment, length, start, source);
+
+                fetchedResource = fetcher.fetch(source, start, length, validator, userAgent);
+
+                if (fetchedResource.getOffset() != start || fetchedResource.getContentLength() != length) {
+                    throw new IOException("'" + source + "' didn't provide segment " + segment +
+                        " of the same resource version");
+                }
+
+                saveSegment(fetchedResource, channel, segments, segment);
+
+                return null;
+            } catch (final ResourceUnavailableException e) {
+                segments.fail();
+                throw new IOException("'" + source + "' didn't provide segment " + segment, e);
+            } catch (final IOException e) {
+                segments.fail();
+                throw e;
+            } finally {
+                if (fetchedResource != null) {
+                    try {
+                        fetchedResource.close();
+                    } catch (final IOException e) {
+                        LOG.debug("Couldn't close fetched resource", e);
+                    }
+                }
+
+                MDC.clear();
+            }
+        }
+
+    }
+
+    /**
+     * Wraps the output stream of the client - write errors are reported as
+     * {@link ClientWriteException}, so they can be told apart from errors
+     * of the remote host.
+     */
+    private static final class ClientOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        private ClientOutputStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (final IOException e) {
+                throw new ClientWriteException(e);
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (final IOException e) {
+                throw new ClientWriteException(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (final IOException e) {
+                throw new ClientWriteException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
 
     }
 
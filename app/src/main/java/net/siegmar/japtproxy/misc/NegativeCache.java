@@ -0,0 +1,192 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The NegativeCache remembers resources that none of the remote hosts of
+ * a backend provided, so repeated requests for them are answered without
+ * asking the remote hosts again until the entry expires.
+ * <p/>
+ * The cache is bounded. If it grows beyond its maximum size, expired
+ * entries are removed first, then arbitrary entries.
+ *
+ * @author Oliver Siegmar
+ */
+public class NegativeCache {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(NegativeCache.class);
+
+    /**
+     * The missing resources. The key is the identifier of the resource.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * If an eviction is in progress.
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * The maximum number of entries.
+     */
+    private int maxEntries;
+
+    @Required
+    public void setMaxEntries(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the entry of a missing resource.
+     *
+     * @param key the identifier of the resource
+     * @return the entry or null if the resource isn't known to be missing
+     */
+    public Entry get(final String key) {
+        final Entry entry = entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Remembers a missing resource.
+     *
+     * @param key          the identifier of the resource
+     * @param ttl          the time in milliseconds the resource is considered missing
+     * @param triedSources the remote resource links that didn't provide the resource
+     */
+    public void put(final String key, final long ttl, final List<URL> triedSources) {
+        final long now = System.currentTimeMillis();
+        entries.put(key, new Entry(now + ttl, triedSources));
+
+        if (entries.size() > maxEntries) {
+            evict(now);
+        }
+    }
+
+    /**
+     * Forgets a missing resource.
+     *
+     * @param key the identifier of the resource
+     */
+    public void remove(final String key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict(final long now) {
+        // One evicting thread is enough
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            final int sizeBefore = entries.size();
+
+            for (final Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                }
+            }
+
+            for (final Iterator<String> it = entries.keySet().iterator();
+                 entries.size() > maxEntries && it.hasNext();) {
+                it.next();
+                it.remove();
+            }
+
+            LOG.debug("Evicted {} entries from negative cache", sizeBefore - entries.size());
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * A resource known to be missing.
+     */
+    public static final class Entry {
+
+        /**
+         * The timestamp the entry expires.
+         */
+        private final long expires;
+
+        /**
+         * The remote resource links that didn't provide the resource.
+         */
+        private final List<URL> triedSources;
+
+        private Entry(final long expires, final List<URL> triedSources) {
+            this.expires = expires;
+            this.triedSources = Collections.unmodifiableList(new ArrayList<>(triedSources));
+        }
+
+        private boolean isExpired(final long now) {
+            return now >= expires;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        public List<URL> getTriedSources() {
+            return triedSources;
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this)
+                .append("expires", Util.getSimpleDateFromTimestamp(expires))
+                .append("triedSources", triedSources)
+                .toString();
+        }
+
+    }
+
+}
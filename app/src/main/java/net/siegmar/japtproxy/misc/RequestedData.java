@@ -47,8 +47,23 @@ public class RequestedData {
      */
     private String requestedBackend;
 
+    /**
+     * The backend the request has been resolved to.
+     */
+    private Backend backend;
+
     private String userAgent;
 
+    /**
+     * The 'Range' header.
+     */
+    private String range;
+
+    /**
+     * The 'If-Range' header.
+     */
+    private String ifRange;
+
     private String url;
     private String hostUrl;
     private String scheme;
@@ -128,6 +143,24 @@ public class RequestedData {
         this.requestedBackend = requestedBackend;
     }
 
+    /**
+     * Returns the backend the request has been resolved to.
+     *
+     * @return the backend
+     */
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Sets the backend the request has been resolved to.
+     *
+     * @param backend the backend
+     */
+    public void setBackend(final Backend backend) {
+        this.backend = backend;
+    }
+
     public String getUserAgent() {
         return userAgent;
     }
@@ -136,6 +169,21 @@ public class RequestedData {
         this.userAgent = userAgent;
     }
 
+    public String getRange() {
+        return range;
+    }
+
+    public void setRange(final String range) {
+        this.range = range;
+    }
+
+    public String getIfRange() {
+        return ifRange;
+    }
+
+    public void setIfRange(final String ifRange) {
+        this.ifRange = ifRange;
+    }
 
     public String getScheme() {
         return scheme;
@@ -185,6 +233,8 @@ public class RequestedData {
                 .append("backend", requestedBackend)
                 .append("modSince", requestModifiedSince)
                 .append("userAgent", userAgent)
+                .append("range", range)
+                .append("ifRange", ifRange)
                 .append("url", url)
                 .append("hostUrl", hostUrl)
                 .append("scheme", scheme)
@@ -18,14 +18,19 @@
  */
 package net.siegmar.japtproxy.misc;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This ResourceLock utility class is used to obtain ReadWriteLocks for
  * specific lockIdentifiers.
+ * <p/>
+ * The registry doesn't use a global monitor - lock groups are reference
+ * counted by compare-and-set and only removed from the map when their
+ * last reference has been released.
  *
  * @author Oliver Siegmar
  */
@@ -34,7 +39,19 @@ public final class ResourceLock {
     /**
      * A Map holding ReadWriteLocks and a reference counter.
      */
-    private static final Map<String, LockGroup> LOCKS = new HashMap<>();
+    private static final ConcurrentMap<String, LockGroup> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * The number of locks that have been acquired by {@link #lockRead} and
+     * {@link #lockWrite}.
+     */
+    private static final AtomicLong ACQUISITIONS = new AtomicLong();
+
+    /**
+     * The number of locks acquired by {@link #lockRead} and {@link #lockWrite}
+     * that were held or waited for by another thread.
+     */
+    private static final AtomicLong CONTENTIONS = new AtomicLong();
 
     /**
      * Private utility constructor.
@@ -49,19 +66,25 @@ public final class ResourceLock {
      * @param lockIdentifier the lockIdentifier
      * @return the ReadWriteLock
      */
-    public static synchronized ReadWriteLock obtainLocker(final String lockIdentifier) {
-        LockGroup lockGroup = LOCKS.get(lockIdentifier);
-
-        if (lockGroup != null) {
-            lockGroup.addReference();
-            return lockGroup.getLock();
+    public static ReentrantReadWriteLock obtainLocker(final String lockIdentifier) {
+        while (true) {
+            LockGroup lockGroup = LOCKS.get(lockIdentifier);
+
+            if (lockGroup == null) {
+                final LockGroup newLockGroup = new LockGroup();
+                lockGroup = LOCKS.putIfAbsent(lockIdentifier, newLockGroup);
+                if (lockGroup == null) {
+                    return newLockGroup.getLock();
+                }
+            }
+
+            if (lockGroup.addReference()) {
+                return lockGroup.getLock();
+            }
+
+            // The lock group has just been released by its last holder
+            LOCKS.remove(lockIdentifier, lockGroup);
         }
-
-        lockGroup = new LockGroup();
-
-        LOCKS.put(lockIdentifier, lockGroup);
-
-        return lockGroup.getLock();
     }
 
     /**
@@ -69,25 +92,98 @@ public final class ResourceLock {
      *
      * @param lockIdentifier the lockIdentifier
      */
-    public static synchronized void releaseLocker(final String lockIdentifier) {
+    public static void releaseLocker(final String lockIdentifier) {
         final LockGroup lockGroup = LOCKS.get(lockIdentifier);
 
         if (lockGroup.removeReference() == 0) {
-            LOCKS.remove(lockIdentifier);
+            LOCKS.remove(lockIdentifier, lockGroup);
+        }
+    }
+
+    /**
+     * Acquires the read lock of the given lock (obtained by
+     * {@link #obtainLocker(String)}) and records if another thread held or
+     * waited for it. The read lock isn't tried first, as tryLock() would
+     * acquire it ahead of a waiting writer.
+     *
+     * @param lock the lock to acquire the read lock of
+     */
+    public static void lockRead(final ReentrantReadWriteLock lock) {
+        record(lock.isWriteLocked() || lock.hasQueuedThreads());
+        lock.readLock().lock();
+    }
+
+    /**
+     * Acquires the write lock of the given lock (obtained by
+     * {@link #obtainLocker(String)}) and records if another thread held or
+     * waited for it.
+     *
+     * @param lock the lock to acquire the write lock of
+     */
+    public static void lockWrite(final ReentrantReadWriteLock lock) {
+        record(lock.isWriteLocked() || lock.getReadLockCount() > 0 || lock.hasQueuedThreads());
+        lock.writeLock().lock();
+    }
+
+    private static void record(final boolean contended) {
+        ACQUISITIONS.incrementAndGet();
+        if (contended) {
+            CONTENTIONS.incrementAndGet();
         }
     }
 
+    /**
+     * Get the number of lockIdentifiers that are currently locked (or about
+     * to be locked).
+     *
+     * @return the number of active lockIdentifiers.
+     */
+    public static int getActiveLocks() {
+        return LOCKS.size();
+    }
+
+    /**
+     * Get the number of locks that have been acquired.
+     *
+     * @return the number of acquired locks.
+     */
+    public static long getAcquisitions() {
+        return ACQUISITIONS.get();
+    }
+
+    /**
+     * Get the number of locks that had to be waited for.
+     *
+     * @return the number of contended locks.
+     */
+    public static long getContentions() {
+        return CONTENTIONS.get();
+    }
+
     private static final class LockGroup {
 
         private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-        private int references = 1;
 
-        public int addReference() {
-            return ++references;
+        /**
+         * The reference counter - a released group (0 references) is never
+         * referenced again.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        public boolean addReference() {
+            while (true) {
+                final int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
         }
 
         public int removeReference() {
-            return --references;
+            return references.decrementAndGet();
         }
 
         public ReentrantReadWriteLock getLock() {
@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.activation.MimetypesFileTypeMap;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Locale;
 
@@ -105,6 +106,33 @@ public final class Util {
         return RFC822_DATE_FORMAT.format(timestamp);
     }
 
+    /**
+     * Returns a strong entity tag for a locally stored object. The tag
+     * changes whenever the size or the modification timestamp changes.
+     *
+     * @param size         the size of the object
+     * @param lastModified the modification timestamp of the object
+     * @return a quoted entity tag
+     */
+    public static String getEntityTag(final long size, final long lastModified) {
+        return '"' + Long.toHexString(lastModified) + '-' + Long.toHexString(size) + '"';
+    }
+
+    /**
+     * Sets the content length of a response. Lengths above 2 GB are set as
+     * header, because {@code setContentLength} only accepts an int.
+     *
+     * @param res           the HttpServletResponse object
+     * @param contentLength the content length
+     */
+    public static void setContentLength(final HttpServletResponse res, final long contentLength) {
+        if (contentLength <= Integer.MAX_VALUE) {
+            res.setContentLength((int) contentLength);
+        } else {
+            res.setHeader(HttpHeaderConstants.CONTENT_LENGTH, Long.toString(contentLength));
+        }
+    }
+
     /**
      * Returns a mime-type for a given file extension. Returns null
      * if the file extension is not mapped.
@@ -0,0 +1,132 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This VirtualThreads utility class creates virtual threads if the running
+ * JVM supports them (Java 21 or later). The API is accessed by reflection,
+ * as Japt-Proxy is still built for older Java versions.
+ *
+ * @author Oliver Siegmar
+ */
+public final class VirtualThreads {
+
+    /**
+     * Thread.ofVirtual() - null if virtual threads aren't supported.
+     */
+    private static final Method OF_VIRTUAL;
+
+    /**
+     * Thread.Builder.name(String, long).
+     */
+    private static final Method NAME;
+
+    /**
+     * Thread.Builder.factory().
+     */
+    private static final Method FACTORY;
+
+    /**
+     * Executors.newThreadPerTaskExecutor(ThreadFactory).
+     */
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (final ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    /**
+     * Private utility constructor.
+     */
+    private VirtualThreads() {
+        // No public constructor for utility classes.
+    }
+
+    /**
+     * Checks if the running JVM supports virtual threads.
+     *
+     * @return true if virtual threads are supported.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates a ThreadFactory for virtual threads.
+     *
+     * @param prefix the name prefix of the threads (followed by a counter)
+     * @return the ThreadFactory
+     * @throws UnsupportedOperationException is thrown if the JVM doesn't
+     *                                       support virtual threads.
+     */
+    public static ThreadFactory newThreadFactory(final String prefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+
+        try {
+            final Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 1L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Couldn't create virtual thread factory", e);
+        }
+    }
+
+    /**
+     * Creates an ExecutorService that starts a new virtual thread for each
+     * task.
+     *
+     * @param prefix the name prefix of the threads (followed by a counter)
+     * @return the ExecutorService
+     * @throws UnsupportedOperationException is thrown if the JVM doesn't
+     *                                       support virtual threads.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(final String prefix) {
+        final ThreadFactory threadFactory = newThreadFactory(prefix);
+
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Couldn't create virtual thread executor", e);
+        }
+    }
+
+}
@@ -0,0 +1,305 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.misc.Backend;
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.misc.IOHandler;
+import net.siegmar.japtproxy.packages.GenericRepoPackage;
+import net.siegmar.japtproxy.packages.debian.ReleaseIndex;
+import net.siegmar.japtproxy.packages.debian.ReleasePoolObject;
+import net.siegmar.japtproxy.poolobject.DiskQuota;
+import net.siegmar.japtproxy.poolobject.MetadataCache;
+import net.siegmar.japtproxy.poolobject.PoolFile;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+
+/**
+ * The ByHashPackagePool is a PackagePool that keeps Acquire-By-Hash resources
+ * (.../by-hash/SHA256/&lt;digest&gt;) in a content-addressed store shared by
+ * all suites and backends. As their content can't change, they're immutable.
+ * <p/>
+ * An index file and its by-hash twin (as listed in the release file of the
+ * suite) are hard links to one stored copy - whichever is requested first
+ * is linked to the other one. Stored resources no longer linked to an
+ * index file are removed by the {@link PackageCollector}.
+ *
+ * @author Oliver Siegmar
+ */
+public class ByHashPackagePool implements PackagePool<PoolObject> {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ByHashPackagePool.class);
+
+    /**
+     * The directory of the content-addressed store (relative to the cache directory).
+     */
+    static final String STORE_DIRECTORY = "by-hash";
+
+    /**
+     * The PackagePool that stores all other resources.
+     */
+    private PackagePool<PoolObject> packagePool;
+
+    /**
+     * The Japt-Proxy configuration.
+     */
+    private Configuration configuration;
+
+    /**
+     * The index of release files used to find the twins of by-hash resources.
+     */
+    private ReleaseIndex releaseIndex;
+
+    /**
+     * The cache of the metadata of stored resources.
+     */
+    private MetadataCache metadataCache;
+
+    /**
+     * The disk quota the stored resources are accounted to.
+     */
+    private DiskQuota diskQuota;
+
+    @Required
+    public void setPackagePool(final PackagePool<PoolObject> packagePool) {
+        this.packagePool = packagePool;
+    }
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Required
+    public void setReleaseIndex(final ReleaseIndex releaseIndex) {
+        this.releaseIndex = releaseIndex;
+    }
+
+    @Required
+    public void setMetadataCache(final MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    @Required
+    public void setDiskQuota(final DiskQuota diskQuota) {
+        this.diskQuota = diskQuota;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PoolObject getPoolObject(final Backend backend, final String resourceName)
+        throws IOException {
+        final Matcher matcher = IOHandler.BY_HASH_PATTERN.matcher(resourceName);
+
+        if (!matcher.matches()) {
+            final PoolObject poolObject = packagePool.getPoolObject(backend, resourceName);
+
+            if (poolObject.getLastModified() == 0) {
+                linkFromStore(backend, resourceName);
+            }
+
+            // New release files invalidate the digests known by the release index
+            return releaseIndex.track(backend.getDirectory(), resourceName, poolObject);
+        }
+
+        final String digest = matcher.group(3);
+        final File file = getStoreFile(matcher.group(2), digest);
+
+        LOG.debug("Resource '{}' is content-addressed by '{}'", resourceName, file);
+
+        if (!file.exists()) {
+            linkToStore(backend, matcher.group(1), digest, file);
+        }
+
+        diskQuota.accessed(file);
+
+        return new StorePoolFile(file, new GenericRepoPackage(digest, null, null, null, null, true), backend,
+            matcher.group(1), digest);
+    }
+
+    private File getStoreFile(final String algorithm, final String digest) {
+        return new File(configuration.getCacheDir(), STORE_DIRECTORY + File.separator + algorithm +
+            File.separator + digest);
+    }
+
+    /**
+     * Links a locally stored index file to the store, if it is the twin of
+     * the requested by-hash resource.
+     */
+    private void linkToStore(final Backend backend, final String directoryName, final String digest,
+                             final File file) throws IOException {
+        final File backendDirectory = backend.getDirectory();
+        final String twinName = releaseIndex.findIndexFile(backendDirectory, directoryName, digest);
+
+        if (twinName == null) {
+            return;
+        }
+
+        final PoolObject twin = packagePool.getPoolObject(backend, twinName);
+
+        // The twin is only linked if it still matches the digest
+        if (twin.getLastModified() != 0 && releaseIndex.isCurrent(backendDirectory, twinName, twin)) {
+            link(new File(backendDirectory, twinName), file);
+        }
+    }
+
+    /**
+     * Links a newly stored by-hash resource to its twin, if the twin isn't
+     * stored yet. The store files linked to an index file are kept by the
+     * {@link PackageCollector}.
+     */
+    private void linkTwin(final Backend backend, final String directoryName, final String digest,
+                          final File file) throws IOException {
+        final File backendDirectory = backend.getDirectory();
+        final String twinName = releaseIndex.findIndexFile(backendDirectory, directoryName, digest);
+
+        if (twinName == null) {
+            return;
+        }
+
+        final File twinFile = new File(backendDirectory, twinName);
+        if (!twinFile.exists()) {
+            link(file, twinFile);
+        }
+    }
+
+    /**
+     * Links a stored by-hash resource to the requested index file, if the
+     * release file lists its digest.
+     */
+    private void linkFromStore(final Backend backend, final String resourceName) throws IOException {
+        final String digest = releaseIndex.getSha256(backend.getDirectory(), resourceName);
+
+        if (digest == null) {
+            return;
+        }
+
+        final File storeFile = getStoreFile("SHA256", digest);
+
+        if (storeFile.exists()) {
+            link(storeFile, new File(backend.getDirectory(), resourceName));
+        }
+    }
+
+    private void link(final File existing, final File link) throws IOException {
+        FileUtils.forceMkdir(link.getParentFile());
+
+        try {
+            Files.createLink(link.toPath(), existing.toPath());
+            LOG.debug("Linked '{}' to '{}'", existing, link);
+            // Links are accounted like copies - the space is only freed when all links are evicted
+            diskQuota.stored(link, link.length());
+        } catch (final IOException | UnsupportedOperationException e) {
+            // Concurrently linked or not supported by the file system - the
+            // resource is fetched from the remote host then
+            LOG.debug("Couldn't link '{}' to '{}'", existing, link, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeOldPackages(final PoolObject poolObject) {
+        if (poolObject instanceof ReleasePoolObject) {
+            packagePool.removeOldPackages(((ReleasePoolObject) poolObject).getDelegate());
+            return;
+        }
+
+        // There are no old versions of content-addressed resources
+        if (poolObject instanceof PoolFile &&
+            IOHandler.BY_HASH_PATTERN.matcher(((PoolFile) poolObject).getResource().getPath()).matches()) {
+            return;
+        }
+
+        packagePool.removeOldPackages(poolObject);
+    }
+
+    /**
+     * A PoolFile of a content-addressed resource. It only stores content
+     * matching its digest - a broken or forged download must not be served
+     * to all suites and backends sharing the store.
+     */
+    private final class StorePoolFile extends PoolFile {
+
+        private final Backend backend;
+
+        /**
+         * The name of the directory of the by-hash resource (relative to the
+         * backend, with trailing slash).
+         */
+        private final String directoryName;
+
+        /**
+         * The expected SHA256 digest (lower case hex).
+         */
+        private final String digest;
+
+        private StorePoolFile(final File resource, final GenericRepoPackage repoPackage, final Backend backend,
+                              final String directoryName, final String digest) {
+            super(resource, repoPackage, metadataCache, diskQuota);
+            this.backend = backend;
+            this.directoryName = directoryName;
+            this.digest = digest;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * The temp resource is discarded if it doesn't match the digest.
+         */
+        @Override
+        public void store() throws IOException {
+            final String actualDigest;
+            final InputStream is = getTempInputStream();
+            try {
+                actualDigest = DigestUtils.sha256Hex(is);
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+
+            if (!digest.equals(actualDigest)) {
+                removePartial();
+                throw new IOException("Content of '" + getResource() + "' doesn't match its digest (was " +
+                    actualDigest + ")");
+            }
+
+            super.store();
+            linkTwin(backend, directoryName, digest, getResource());
+        }
+
+    }
+
+}
@@ -23,9 +23,12 @@ import net.siegmar.japtproxy.misc.Backend;
 import net.siegmar.japtproxy.misc.Configuration;
 import net.siegmar.japtproxy.packages.RepoPackage;
 import net.siegmar.japtproxy.packages.RepoPackageBuilder;
-import net.siegmar.japtproxy.packages.RepoPackageFilter;
+import net.siegmar.japtproxy.poolobject.DiskQuota;
+import net.siegmar.japtproxy.poolobject.MetadataCache;
 import net.siegmar.japtproxy.poolobject.PoolFile;
-import org.apache.commons.lang3.ArrayUtils;
+import net.siegmar.japtproxy.poolobject.PoolFileListener;
+import net.siegmar.japtproxy.poolobject.TieredStorage;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
@@ -34,9 +37,10 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -47,7 +51,7 @@ import java.util.TimerTask;
  *
  * @author Oliver Siegmar
  */
-public class DiskPackagePool implements PackagePool<PoolFile> {
+public class DiskPackagePool implements PackagePool<PoolFile>, PoolFileListener {
 
     /**
      * The logger instance.
@@ -63,6 +67,15 @@ public class DiskPackagePool implements PackagePool<PoolFile> {
      */
     private Comparator<RepoPackage> comparator;
     private RepoPackageBuilder repoPackageBuilder;
+    private MetadataCache metadataCache;
+    private DiskQuota diskQuota;
+    private TieredStorage tieredStorage;
+
+    /**
+     * The versions of the stored repo packages - used for finding old
+     * repo package versions without listing their directories.
+     */
+    private VersionIndex versionIndex;
     private Set<PoolFile> filesToRemove = new HashSet<>();
     private int startDelay;
     private int repeatInterval;
@@ -82,6 +95,21 @@ public class DiskPackagePool implements PackagePool<PoolFile> {
         this.repoPackageBuilder = repoPackageBuilder;
     }
 
+    @Required
+    public void setMetadataCache(final MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    @Required
+    public void setDiskQuota(final DiskQuota diskQuota) {
+        this.diskQuota = diskQuota;
+    }
+
+    @Required
+    public void setTieredStorage(final TieredStorage tieredStorage) {
+        this.tieredStorage = tieredStorage;
+    }
+
     @Required
     public void setStartDelay(final int startDelay) {
         this.startDelay = startDelay;
@@ -94,6 +122,7 @@ public class DiskPackagePool implements PackagePool<PoolFile> {
 
     @PostConstruct
     public void init() {
+        versionIndex = new VersionIndex(repoPackageBuilder, comparator, tieredStorage);
         timer.schedule(task, startDelay, repeatInterval);
     }
 
@@ -109,7 +138,7 @@ public class DiskPackagePool implements PackagePool<PoolFile> {
     @Override
     public PoolFile getPoolObject(final Backend backend, final String resourceName)
         throws IOException {
-        final File file = new File(backend.getDirectory(), resourceName);
+        final File file = tieredStorage.locate(new File(backend.getDirectory(), resourceName));
 
         LOG.debug("Initialized pool file '{}'", file.getAbsolutePath());
 
@@ -120,14 +149,43 @@ public class DiskPackagePool implements PackagePool<PoolFile> {
             LOG.debug("Requested resource '{}' is not a valid repository package", resourceName);
         }
 
-        return new PoolFile(file, repoPackage);
+        diskQuota.accessed(file);
+        tieredStorage.accessed(file);
+
+        return new PoolFile(file, repoPackage, metadataCache, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stored(final File resource, final long size) {
+        versionIndex.add(tieredStorage.getHotFile(resource));
+        diskQuota.stored(resource, size);
+        tieredStorage.stored(resource, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removed(final File resource) {
+        versionIndex.remove(tieredStorage.getHotFile(resource));
+        diskQuota.removed(resource);
+        tieredStorage.removed(resource);
     }
 
     /**
-     * Schedules a resource name for removal.
+     * Schedules a resource name for removal. If the garbage collection is
+     * enabled, old versions are only removed by the PackageCollector as soon
+     * as no package index references them anymore.
      */
     @Override
     public void removeOldPackages(final PoolFile poolFile) {
+        if (poolFile.getRepoPackage() == null || configuration.getGarbageCollectionGracePeriod() >= 0) {
+            return;
+        }
+
         synchronized (lock) {
             filesToRemove.add(poolFile);
         }
@@ -159,48 +217,42 @@ public class DiskPackagePool implements PackagePool<PoolFile> {
         }
 
         private void removeOldPackagesInternal(final PoolFile poolFile) {
-            final File resource = poolFile.getResource();
-            final File dirOfPackage = resource.getParentFile();
-
+            final File dirOfPackage = tieredStorage.getHotFile(poolFile.getResource()).getParentFile();
             final RepoPackage repoPackage = poolFile.getRepoPackage();
 
             LOG.debug("Analyzing old package removal for package: {}", repoPackage);
 
-            final String basename = repoPackage.getBasename();
-            final String architecture = repoPackage.getArch();
-
-            LOG.debug("Searching for old packages with basename '{}' and architechture '{}' in '{}'",
-                basename, architecture, dirOfPackage.getAbsolutePath());
-
-            final RepoPackageFilter repoPackageFilter = new RepoPackageFilter(repoPackage, repoPackageBuilder);
-            final String[] files = dirOfPackage.list(repoPackageFilter);
+            // Versions removed by others (like the disk quota) are dropped from the index
+            final List<String> files = new ArrayList<>();
+            for (final String filename : versionIndex.getVersions(dirOfPackage, repoPackage)) {
+                final File file = new File(dirOfPackage, filename);
+                if (tieredStorage.locate(file).exists()) {
+                    files.add(filename);
+                } else {
+                    versionIndex.remove(file);
+                }
+            }
 
             final int maxVersions = configuration.getMaxVersions();
-            final int overhang = files.length - maxVersions;
+            final int overhang = files.size() - maxVersions;
 
             if (overhang <= 0) {
                 LOG.debug("No old files found to remove");
                 return;
             }
 
-            try {
-                Arrays.sort(repoPackageBuilder.newPackages(files), comparator);
-            } catch (final InvalidRepoPackageNameException e) {
-                LOG.error("List of repo packages couldn't be sorted due to an invalid package name", e);
-                return;
-            }
-
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Found {} files ({}). Max files: {} - Files to remove: {}",
-                    files.length, ArrayUtils.toString(files), maxVersions, overhang);
-            }
+            LOG.debug("Found {} files ({}). Max files: {} - Files to remove: {}",
+                files.size(), files, maxVersions, overhang);
 
-            for (int i = 0; i < overhang; i++) {
-                final File file = new File(dirOfPackage, files[i]);
+            for (final String filename : files.subList(0, overhang)) {
+                final File file = tieredStorage.locate(new File(dirOfPackage, filename));
                 LOG.debug("Remove old file: '{}'", file.getName());
+                metadataCache.remove(file.getAbsolutePath());
+                FileUtils.deleteQuietly(PoolFile.getMetadataFile(file));
                 if (!file.delete()) {
                     LOG.error("Couldn't delete file '{}'", file);
                 }
+                removed(file);
             }
         }
 
@@ -0,0 +1,117 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.misc.Backend;
+import net.siegmar.japtproxy.poolobject.MemoryCache;
+import net.siegmar.japtproxy.poolobject.MemoryCachedPoolObject;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * The MemoryCachedPackagePool is a PackagePool that serves small, frequently
+ * requested resources (like repository index files) of another PackagePool
+ * from memory.
+ *
+ * @author Oliver Siegmar
+ */
+public class MemoryCachedPackagePool implements PackagePool<PoolObject> {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryCachedPackagePool.class);
+
+    /**
+     * The PackagePool that stores the resources.
+     */
+    private PackagePool<PoolObject> packagePool;
+
+    /**
+     * The MemoryCache instance.
+     */
+    private MemoryCache memoryCache;
+
+    /**
+     * The pattern of file names to hold in memory.
+     */
+    private Pattern pattern;
+
+    @Required
+    public void setPackagePool(final PackagePool<PoolObject> packagePool) {
+        this.packagePool = packagePool;
+    }
+
+    @Required
+    public void setMemoryCache(final MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    @Required
+    public void setPattern(final String pattern) {
+        this.pattern = Pattern.compile(pattern);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PoolObject getPoolObject(final Backend backend, final String resourceName)
+        throws IOException {
+        final String name = resourceName.substring(resourceName.lastIndexOf('/') + 1);
+
+        if (!pattern.matcher(name).matches()) {
+            return packagePool.getPoolObject(backend, resourceName);
+        }
+
+        final String key = backend.getDirectory().getPath() + resourceName;
+
+        // Resources held in memory don't touch the other package pool (nor the disk) unless needed
+        if (memoryCache.get(key) != null) {
+            LOG.debug("Resource '{}' is held in memory", resourceName);
+
+            return new MemoryCachedPoolObject(new MemoryCachedPoolObject.DelegateFactory() {
+                @Override
+                public PoolObject create() throws IOException {
+                    return packagePool.getPoolObject(backend, resourceName);
+                }
+            }, name, key, memoryCache);
+        }
+
+        LOG.debug("Resource '{}' may be served from memory", resourceName);
+
+        return new MemoryCachedPoolObject(packagePool.getPoolObject(backend, resourceName), key, memoryCache);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeOldPackages(final PoolObject poolObject) {
+        packagePool.removeOldPackages(poolObject instanceof MemoryCachedPoolObject
+            ? ((MemoryCachedPoolObject) poolObject).getDelegate()
+            : poolObject);
+    }
+
+}
@@ -0,0 +1,500 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.packages.PackageIndexReader;
+import net.siegmar.japtproxy.poolobject.DiskQuota;
+import net.siegmar.japtproxy.poolobject.MetadataCache;
+import net.siegmar.japtproxy.poolobject.PoolFile;
+import net.siegmar.japtproxy.poolobject.TieredStorage;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+import org.tukaani.xz.XZInputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The PackageCollector is a mark-and-sweep garbage collector for repo
+ * packages. The mark phase reads all locally stored package indexes (like
+ * Debian's Packages or RPM's primary.xml) and marks the packages they
+ * reference. The sweep phase removes all packages that haven't been
+ * referenced for the configured grace period.
+ * <p/>
+ * Only packages within a repository whose indexes could all be read are
+ * removed. A pass is split into small steps, so a cache directory with
+ * millions of files doesn't keep the disk busy for the request path.
+ * <p/>
+ * The sweep phase also removes files of the content-addressed by-hash
+ * store (see {@link ByHashPackagePool}) that haven't been hard linked to
+ * an index file for the grace period - the index file they have been the
+ * twin of has been replaced by a newer version.
+ *
+ * @author Oliver Siegmar
+ */
+public class PackageCollector {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(PackageCollector.class);
+
+    /**
+     * Directories of Acquire-By-Hash resources - they only contain copies of
+     * index files.
+     */
+    private static final String BY_HASH_DIRECTORY = "by-hash";
+
+    private static final Pattern STORE_FILE_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+    private final Timer timer = new Timer();
+    private final CollectTask task = new CollectTask();
+
+    /**
+     * The files and directories still to be visited by the current phase.
+     */
+    private final Deque<File> pendingFiles = new ArrayDeque<>();
+
+    /**
+     * The base directories of all package indexes found by the mark phase.
+     */
+    private final Set<File> baseDirectories = new HashSet<>();
+
+    /**
+     * The base directories with package indexes that couldn't be read - the
+     * packages within these directories aren't removed.
+     */
+    private final Set<File> incompleteBaseDirectories = new HashSet<>();
+
+    /**
+     * The paths of all packages referenced by a package index.
+     */
+    private final Set<String> referencedPackages = new HashSet<>();
+
+    private Configuration configuration;
+    private List<PackageIndexReader> indexReaders;
+
+    /**
+     * The pattern of the file names subject to garbage collection.
+     */
+    private Pattern pattern;
+
+    private MetadataCache metadataCache;
+    private DiskQuota diskQuota;
+
+    /**
+     * The tiered storage - the files of the cold tier are collected as if
+     * they were located within the cache directory (may be null).
+     */
+    private TieredStorage tieredStorage;
+    private int startDelay;
+    private int stepInterval;
+    private int repeatInterval;
+
+    /**
+     * The maximum number of files visited by a single step.
+     */
+    private int batchSize;
+
+    private Phase phase = Phase.IDLE;
+    private long nextPass;
+    private int removedPackages;
+
+    /**
+     * The paths of unreferenced packages and the timestamps of the passes
+     * they have been found unreferenced first.
+     */
+    private Map<String, Long> unreferencedPackages = new HashMap<>();
+    private Map<String, Long> nextUnreferencedPackages = new HashMap<>();
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Required
+    public void setIndexReaders(final List<PackageIndexReader> indexReaders) {
+        this.indexReaders = indexReaders;
+    }
+
+    @Required
+    public void setPattern(final String pattern) {
+        this.pattern = Pattern.compile(pattern);
+    }
+
+    @Required
+    public void setMetadataCache(final MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    @Required
+    public void setDiskQuota(final DiskQuota diskQuota) {
+        this.diskQuota = diskQuota;
+    }
+
+    public void setTieredStorage(final TieredStorage tieredStorage) {
+        this.tieredStorage = tieredStorage;
+    }
+
+    @Required
+    public void setStartDelay(final int startDelay) {
+        this.startDelay = startDelay;
+    }
+
+    @Required
+    public void setStepInterval(final int stepInterval) {
+        this.stepInterval = stepInterval;
+    }
+
+    @Required
+    public void setRepeatInterval(final int repeatInterval) {
+        this.repeatInterval = repeatInterval;
+    }
+
+    @Required
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (configuration.getGarbageCollectionGracePeriod() < 0) {
+            LOG.debug("Garbage collection of repo packages is disabled");
+            return;
+        }
+
+        timer.schedule(task, startDelay, stepInterval);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        timer.cancel();
+    }
+
+    /**
+     * Checks if a pass is in progress.
+     *
+     * @return true if a pass is in progress.
+     */
+    boolean isRunning() {
+        return phase != Phase.IDLE;
+    }
+
+    /**
+     * Performs a single step of the garbage collection. A new pass is
+     * started, if the repeat interval has elapsed since the last one.
+     *
+     * @param now the current timestamp.
+     */
+    void step(final long now) {
+        switch (phase) {
+            case IDLE:
+                if (now >= nextPass) {
+                    LOG.info("Starting garbage collection of repo packages");
+                    phase = Phase.MARK;
+                    addRoots();
+                }
+                break;
+            case MARK:
+                visit(now);
+                if (pendingFiles.isEmpty()) {
+                    LOG.info("Marked {} referenced repo packages in {} repositories ({} incomplete)",
+                        referencedPackages.size(), baseDirectories.size(), incompleteBaseDirectories.size());
+                    baseDirectories.removeAll(incompleteBaseDirectories);
+                    phase = Phase.SWEEP;
+                    addRoots();
+                    addChildren(getStoreDirectory());
+                }
+                break;
+            case SWEEP:
+                visit(now);
+                if (pendingFiles.isEmpty()) {
+                    LOG.info("Removed {} unreferenced repo packages - {} unreferenced within grace period",
+                        removedPackages, nextUnreferencedPackages.size());
+                    finishPass(now);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown phase " + phase);
+        }
+    }
+
+    private void finishPass(final long now) {
+        unreferencedPackages = nextUnreferencedPackages;
+        nextUnreferencedPackages = new HashMap<>();
+        referencedPackages.clear();
+        baseDirectories.clear();
+        incompleteBaseDirectories.clear();
+        removedPackages = 0;
+        nextPass = now + repeatInterval;
+        phase = Phase.IDLE;
+    }
+
+    /**
+     * Visits up to batchSize pending files. Reading a package index ends
+     * the step.
+     */
+    private void visit(final long now) {
+        for (int i = 0; i < batchSize && !pendingFiles.isEmpty(); i++) {
+            final File file = pendingFiles.pop();
+
+            if (file.isDirectory()) {
+                if (!BY_HASH_DIRECTORY.equals(file.getName()) && !Files.isSymbolicLink(file.toPath())) {
+                    addChildren(file);
+                }
+            } else if (phase == Phase.MARK) {
+                if (mark(file)) {
+                    return;
+                }
+            } else {
+                sweep(file, now);
+            }
+        }
+    }
+
+    private void addRoots() {
+        addChildren(configuration.getCacheDir().getAbsoluteFile());
+
+        if (tieredStorage != null && tieredStorage.isEnabled()) {
+            addChildren(configuration.getColdTierDirectory().getAbsoluteFile());
+        }
+    }
+
+    private File getStoreDirectory() {
+        return new File(configuration.getCacheDir().getAbsoluteFile(), ByHashPackagePool.STORE_DIRECTORY);
+    }
+
+    /**
+     * Returns the path of a file within the cache directory - files of the
+     * cold tier are mapped to the hot tier.
+     */
+    private File getHotFile(final File file) {
+        return tieredStorage != null ? tieredStorage.getHotFile(file) : file;
+    }
+
+    private void addChildren(final File dir) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (final File file : files) {
+            pendingFiles.push(file);
+        }
+    }
+
+    /**
+     * Marks all repo packages referenced by a package index.
+     *
+     * @return true if the file is a package index.
+     */
+    private boolean mark(final File file) {
+        for (final PackageIndexReader indexReader : indexReaders) {
+            if (!indexReader.isPackageIndex(file.getName())) {
+                continue;
+            }
+
+            final File baseDirectory = indexReader.getBaseDirectory(getHotFile(file));
+            if (baseDirectory == null) {
+                return false;
+            }
+
+            baseDirectories.add(baseDirectory);
+
+            final Set<String> packageNames = new HashSet<>();
+            try (final InputStream in = openIndex(file)) {
+                if (in == null) {
+                    LOG.debug("Compression of package index '{}' isn't supported", file);
+                    incompleteBaseDirectories.add(baseDirectory);
+                    return true;
+                }
+
+                indexReader.readPackageNames(in, packageNames);
+            } catch (final IOException e) {
+                LOG.warn("Couldn't read package index '{}'", file, e);
+                incompleteBaseDirectories.add(baseDirectory);
+                return true;
+            }
+
+            LOG.debug("Package index '{}' references {} repo packages", file, packageNames.size());
+
+            for (final String packageName : packageNames) {
+                referencedPackages.add(new File(baseDirectory, packageName).getPath());
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Opens a (compressed) package index.
+     *
+     * @return the uncompressed InputStream - null if the compression isn't
+     * supported.
+     */
+    private static InputStream openIndex(final File file) throws IOException {
+        final String name = file.getName();
+        final int extensionIdx = name.lastIndexOf('.');
+        final String extension = extensionIdx != -1 ? name.substring(extensionIdx + 1) : "";
+
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            switch (extension) {
+                case "gz":
+                    return new GZIPInputStream(in);
+                case "xz":
+                    return new XZInputStream(in);
+                case "xml":
+                case "":
+                    return in;
+                default:
+                    in.close();
+                    return null;
+            }
+        } catch (final IOException e) {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes a repo package if it is located within a completely marked
+     * repository and hasn't been referenced for the grace period.
+     */
+    private void sweep(final File file, final long now) {
+        if (isStoreFile(file)) {
+            if (getLinkCount(file) == 1) {
+                sweepUnreferenced(file, file.getPath(), now);
+            }
+            return;
+        }
+
+        final File hotFile = getHotFile(file);
+        if (!pattern.matcher(file.getName()).matches() || !isCollectable(hotFile)) {
+            return;
+        }
+
+        final String path = hotFile.getPath();
+        if (!referencedPackages.contains(path)) {
+            sweepUnreferenced(file, path, now);
+        }
+    }
+
+    private boolean isStoreFile(final File file) {
+        final File algorithmDirectory = file.getParentFile();
+        return STORE_FILE_PATTERN.matcher(file.getName()).matches() && algorithmDirectory != null &&
+            getStoreDirectory().equals(algorithmDirectory.getParentFile());
+    }
+
+    /**
+     * Returns the number of hard links of a file.
+     *
+     * @return the number of hard links - 0 if the file system doesn't
+     * provide it.
+     */
+    private static int getLinkCount(final File file) {
+        try {
+            return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+        } catch (final IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            LOG.debug("Couldn't get the link count of '{}'", file, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Removes an unreferenced file if it hasn't been referenced for the grace period.
+     */
+    private void sweepUnreferenced(final File file, final String path, final long now) {
+        final Long unreferencedSince = unreferencedPackages.get(path);
+        final long since = unreferencedSince != null ? unreferencedSince : now;
+
+        if (now - since < configuration.getGarbageCollectionGracePeriod()) {
+            nextUnreferencedPackages.put(path, since);
+            return;
+        }
+
+        LOG.debug("Remove unreferenced file: '{}'", file);
+        metadataCache.remove(file.getAbsolutePath());
+        FileUtils.deleteQuietly(PoolFile.getMetadataFile(file));
+        if (file.delete()) {
+            removedPackages++;
+        } else {
+            LOG.error("Couldn't delete file '{}'", file);
+        }
+        diskQuota.removed(file);
+        if (tieredStorage != null) {
+            tieredStorage.removed(file);
+        }
+    }
+
+    private boolean isCollectable(final File file) {
+        for (File dir = file.getParentFile(); dir != null; dir = dir.getParentFile()) {
+            if (baseDirectories.contains(dir)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private class CollectTask extends TimerTask {
+
+        @Override
+        public void run() {
+            try {
+                step(System.currentTimeMillis());
+            } catch (final RuntimeException e) {
+                LOG.error("Garbage collection step failed", e);
+            }
+        }
+
+    }
+
+    private enum Phase {
+
+        IDLE,
+        MARK,
+        SWEEP
+
+    }
+
+}
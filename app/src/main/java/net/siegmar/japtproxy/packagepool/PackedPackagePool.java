@@ -0,0 +1,105 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.misc.Backend;
+import net.siegmar.japtproxy.poolobject.PackStore;
+import net.siegmar.japtproxy.poolobject.PackedPoolObject;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * The PackedPackagePool is a PackagePool that keeps small, frequently
+ * replaced resources (like release files) of another PackagePool in the
+ * {@link PackStore} instead of single files.
+ *
+ * @author Oliver Siegmar
+ */
+public class PackedPackagePool implements PackagePool<PoolObject> {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(PackedPackagePool.class);
+
+    /**
+     * The PackagePool that stores all other resources.
+     */
+    private PackagePool<PoolObject> packagePool;
+
+    /**
+     * The PackStore instance.
+     */
+    private PackStore packStore;
+
+    /**
+     * The pattern of file names to keep in the pack store.
+     */
+    private Pattern pattern;
+
+    @Required
+    public void setPackagePool(final PackagePool<PoolObject> packagePool) {
+        this.packagePool = packagePool;
+    }
+
+    @Required
+    public void setPackStore(final PackStore packStore) {
+        this.packStore = packStore;
+    }
+
+    @Required
+    public void setPattern(final String pattern) {
+        this.pattern = Pattern.compile(pattern);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PoolObject getPoolObject(final Backend backend, final String resourceName)
+        throws IOException {
+        final PoolObject poolObject = packagePool.getPoolObject(backend, resourceName);
+
+        if (!packStore.isEnabled() || !pattern.matcher(poolObject.getName()).matches()) {
+            return poolObject;
+        }
+
+        LOG.debug("Resource '{}' may be kept in the pack store", resourceName);
+
+        return new PackedPoolObject(poolObject, new File(backend.getDirectory(), resourceName).getAbsolutePath(),
+            packStore);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeOldPackages(final PoolObject poolObject) {
+        packagePool.removeOldPackages(poolObject instanceof PackedPoolObject
+            ? ((PackedPoolObject) poolObject).getDelegate()
+            : poolObject);
+    }
+
+}
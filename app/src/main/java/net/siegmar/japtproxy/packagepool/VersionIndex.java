@@ -0,0 +1,270 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.exception.InvalidRepoPackageNameException;
+import net.siegmar.japtproxy.packages.RepoPackage;
+import net.siegmar.japtproxy.packages.RepoPackageBuilder;
+import net.siegmar.japtproxy.poolobject.TieredStorage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The VersionIndex holds the versions of all repo packages per directory,
+ * sorted from the oldest to the newest version. A directory is listed once
+ * when its versions are requested the first time - afterwards the index is
+ * kept up to date by every stored and removed repo package. With tiered
+ * storage, the directories are identified by their path within the hot
+ * tier and the versions of both tiers are held.
+ * <p/>
+ * Directories are listed without holding the monitor - changes recorded
+ * meanwhile are applied to the listing afterwards.
+ *
+ * @author Oliver Siegmar
+ */
+public class VersionIndex {
+
+    private final RepoPackageBuilder repoPackageBuilder;
+
+    private final Comparator<Version> versionComparator;
+
+    /**
+     * The tiered storage (may be null).
+     */
+    private final TieredStorage tieredStorage;
+
+    /**
+     * The versions of each directory. The key of the inner map is built from
+     * the basename and the architecture of the repo package.
+     */
+    private final Map<File, Map<String, List<Version>>> directories = new HashMap<>();
+
+    /**
+     * The changes recorded while directories are listed. The value is true
+     * for a stored and false for a removed repo package.
+     */
+    private final Map<File, Map<String, Boolean>> pendingChanges = new HashMap<>();
+
+    public VersionIndex(final RepoPackageBuilder repoPackageBuilder, final Comparator<RepoPackage> comparator) {
+        this(repoPackageBuilder, comparator, null);
+    }
+
+    public VersionIndex(final RepoPackageBuilder repoPackageBuilder, final Comparator<RepoPackage> comparator,
+                        final TieredStorage tieredStorage) {
+        this.repoPackageBuilder = repoPackageBuilder;
+        this.tieredStorage = tieredStorage;
+        versionComparator = new Comparator<Version>() {
+            @Override
+            public int compare(final Version v1, final Version v2) {
+                final int cmp = comparator.compare(v1.repoPackage, v2.repoPackage);
+                return cmp != 0 ? cmp : v1.filename.compareTo(v2.filename);
+            }
+        };
+    }
+
+    /**
+     * Records a stored repo package. Files that aren't repo packages are
+     * ignored.
+     *
+     * @param file the stored file.
+     */
+    public synchronized void add(final File file) {
+        final Map<String, List<Version>> packages = directories.get(file.getParentFile());
+        if (packages != null) {
+            addVersion(packages, file.getName());
+        } else {
+            recordChange(file, true);
+        }
+    }
+
+    /**
+     * Records a removed repo package.
+     *
+     * @param file the removed file.
+     */
+    public synchronized void remove(final File file) {
+        final Map<String, List<Version>> packages = directories.get(file.getParentFile());
+        if (packages != null) {
+            removeVersion(packages, file.getName());
+        } else {
+            recordChange(file, false);
+        }
+    }
+
+    private void recordChange(final File file, final boolean added) {
+        final Map<String, Boolean> changes = pendingChanges.get(file.getParentFile());
+        if (changes != null) {
+            changes.put(file.getName(), added);
+        }
+    }
+
+    private void removeVersion(final Map<String, List<Version>> packages, final String filename) {
+        final Version version = newVersion(filename);
+        if (version == null) {
+            return;
+        }
+
+        final String key = buildKey(version.repoPackage);
+        final List<Version> versions = packages.get(key);
+        if (versions == null) {
+            return;
+        }
+
+        final int idx = Collections.binarySearch(versions, version, versionComparator);
+        if (idx >= 0) {
+            versions.remove(idx);
+            if (versions.isEmpty()) {
+                packages.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the file names of all versions of a repo package (with the
+     * same basename and architecture) within a directory.
+     *
+     * @param dir         the directory of the repo package.
+     * @param repoPackage the repo package.
+     * @return the file names sorted from the oldest to the newest version.
+     */
+    public List<String> getVersions(final File dir, final RepoPackage repoPackage) {
+        synchronized (this) {
+            final Map<String, List<Version>> packages = directories.get(dir);
+            if (packages != null) {
+                return getVersions(packages, repoPackage);
+            }
+
+            if (!pendingChanges.containsKey(dir)) {
+                pendingChanges.put(dir, new HashMap<String, Boolean>());
+            }
+        }
+
+        final Map<String, List<Version>> listedPackages = load(dir);
+
+        synchronized (this) {
+            Map<String, List<Version>> packages = directories.get(dir);
+            if (packages == null) {
+                packages = listedPackages;
+                final Map<String, Boolean> changes = pendingChanges.remove(dir);
+                if (changes != null) {
+                    applyChanges(packages, changes);
+                }
+                directories.put(dir, packages);
+            }
+
+            return getVersions(packages, repoPackage);
+        }
+    }
+
+    private void applyChanges(final Map<String, List<Version>> packages, final Map<String, Boolean> changes) {
+        for (final Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (change.getValue()) {
+                addVersion(packages, change.getKey());
+            } else {
+                removeVersion(packages, change.getKey());
+            }
+        }
+    }
+
+    private List<String> getVersions(final Map<String, List<Version>> packages, final RepoPackage repoPackage) {
+        final List<Version> versions = packages.get(buildKey(repoPackage));
+        if (versions == null) {
+            return Collections.emptyList();
+        }
+
+        final List<String> filenames = new ArrayList<>(versions.size());
+        for (final Version version : versions) {
+            filenames.add(version.filename);
+        }
+
+        return filenames;
+    }
+
+    private Map<String, List<Version>> load(final File dir) {
+        final Map<String, List<Version>> packages = new HashMap<>();
+
+        list(dir, packages);
+
+        final File coldDir = tieredStorage != null ? tieredStorage.getColdFile(dir) : null;
+        if (coldDir != null) {
+            list(coldDir, packages);
+        }
+
+        return packages;
+    }
+
+    private void list(final File dir, final Map<String, List<Version>> packages) {
+        final String[] filenames = dir.list();
+        if (filenames != null) {
+            for (final String filename : filenames) {
+                addVersion(packages, filename);
+            }
+        }
+    }
+
+    private void addVersion(final Map<String, List<Version>> packages, final String filename) {
+        final Version version = newVersion(filename);
+        if (version == null) {
+            return;
+        }
+
+        final String key = buildKey(version.repoPackage);
+        List<Version> versions = packages.get(key);
+        if (versions == null) {
+            versions = new ArrayList<>(2);
+            packages.put(key, versions);
+        }
+
+        final int idx = Collections.binarySearch(versions, version, versionComparator);
+        if (idx < 0) {
+            versions.add(-idx - 1, version);
+        }
+    }
+
+    private Version newVersion(final String filename) {
+        try {
+            return new Version(filename, repoPackageBuilder.newPackage(filename));
+        } catch (final InvalidRepoPackageNameException e) {
+            return null;
+        }
+    }
+
+    private static String buildKey(final RepoPackage repoPackage) {
+        return repoPackage.getBasename() + '/' + repoPackage.getArch();
+    }
+
+    private static final class Version {
+
+        private final String filename;
+        private final RepoPackage repoPackage;
+
+        private Version(final String filename, final RepoPackage repoPackage) {
+            this.filename = filename;
+            this.repoPackage = repoPackage;
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packages;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * A PackageIndexReader reads the repo packages referenced by a package
+ * index (like the Packages file of a Debian repository).
+ *
+ * @author Oliver Siegmar
+ */
+public interface PackageIndexReader {
+
+    /**
+     * Checks if a file is a package index read by this reader. Compressed
+     * indexes are package indexes as well.
+     *
+     * @param fileName the name of the file.
+     * @return true if the file is a package index.
+     */
+    boolean isPackageIndex(String fileName);
+
+    /**
+     * Get the directory the package names of an index are relative to.
+     *
+     * @param indexFile the (local) package index.
+     * @return the base directory - null if the index isn't located within
+     * a repository.
+     */
+    File getBaseDirectory(File indexFile);
+
+    /**
+     * Reads the names of all repo packages referenced by a package index.
+     *
+     * @param in           the (uncompressed) package index.
+     * @param packageNames the collection the names (relative to the base
+     *                     directory) are added to.
+     * @throws IOException is thrown if the index couldn't be read.
+     */
+    void readPackageNames(InputStream in, Collection<String> packageNames) throws IOException;
+
+}
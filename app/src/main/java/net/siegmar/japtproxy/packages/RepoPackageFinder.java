@@ -18,12 +18,16 @@
  */
 package net.siegmar.japtproxy.packages;
 
+import net.siegmar.japtproxy.exception.ClientWriteException;
 import net.siegmar.japtproxy.exception.HandlingException;
 import net.siegmar.japtproxy.exception.InitializationException;
 import net.siegmar.japtproxy.exception.ResourceUnavailableException;
+import net.siegmar.japtproxy.misc.ActiveDownload;
 import net.siegmar.japtproxy.misc.Backend;
 import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.misc.DownloadListener;
 import net.siegmar.japtproxy.misc.IOHandler;
+import net.siegmar.japtproxy.misc.NegativeCache;
 import net.siegmar.japtproxy.misc.RequestedData;
 import net.siegmar.japtproxy.packagepool.PackagePool;
 import net.siegmar.japtproxy.poolobject.PoolObject;
@@ -34,12 +38,14 @@ import org.springframework.beans.factory.annotation.Required;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * @author Oliver Siegmar
  */
-public class RepoPackageFinder {
+public class RepoPackageFinder implements DownloadListener {
 
     /**
      * The logger instance.
@@ -55,6 +61,8 @@ public class RepoPackageFinder {
 
     private IOHandler ioHandler;
 
+    private NegativeCache negativeCache;
+
     @Required
     public void setConfiguration(final Configuration configuration) {
         this.configuration = configuration;
@@ -70,68 +78,122 @@ public class RepoPackageFinder {
         this.ioHandler = ioHandler;
     }
 
+    @Required
+    public void setNegativeCache(final NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
     public void findSendSave(final RequestedData requestedData, final HttpServletResponse res)
         throws HandlingException, IOException {
         // repo specific prevalidation
         final String requestedTarget = requestedData.getRequestedTarget();
 
         final String requestedBackend = requestedData.getRequestedBackend();
-        final Backend backend = configuration.getBackend(requestedData);
+        final Backend backend = requestedData.getBackend();
 
         final PoolObject poolObject = packagePool.getPoolObject(backend, requestedTarget);
+        final String resourceIdentifier = requestedData.getServerName() + requestedTarget;
+
+        // Don't ask the remote hosts again for a resource they recently didn't provide
+        if (poolObject.getLastModified() == 0) {
+            final NegativeCache.Entry missing = negativeCache.get(resourceIdentifier);
+            if (missing != null) {
+                LOG.debug("Resource '{}' is known to be missing: {}", requestedTarget, missing);
+                throw new ResourceUnavailableException("No backend host provided the requested resource.");
+            }
+        }
+
+        final List<URL> mirrorResources = new ArrayList<>(backend.getUrls().size());
+        for (final URL baseURL : backend.getUrls()) {
+            mirrorResources.add(new URL(baseURL + requestedTarget));
+        }
 
         // Iterate over the resource locations for the requested resource
         // (and the requested backend)
         // If one resource location fails, try the next one (if exists).
         // This fails if the output buffer has already (auto-)flushed.
-        for (final Iterator<URL> it = backend.getUrls().iterator(); it.hasNext();) {
-            final URL baseURL = it.next();
-
-            LOG.debug("Using backend '{}' for {}", baseURL, requestedData.getUrl());
-
-            final URL targetResource = new URL(baseURL + requestedTarget);
-
-            if (handleBackend(requestedData, targetResource, poolObject, res)) {
-                break;
+        final List<URL> notFoundResources = new ArrayList<>(mirrorResources.size());
+        for (final Iterator<URL> it = mirrorResources.iterator(); it.hasNext();) {
+            final URL targetResource = it.next();
+
+            LOG.debug("Using backend '{}' for {}", targetResource, requestedData.getUrl());
+
+            try {
+                if (handleBackend(requestedData, targetResource, mirrorResources, poolObject, res)) {
+                    break;
+                }
+            } catch (final ResourceUnavailableException e) {
+                LOG.info("Resource '{}' not found", targetResource);
+                notFoundResources.add(targetResource);
             }
 
             if (!it.hasNext()) {
+                if (ioHandler.sendStaleIfError(requestedData, poolObject, res)) {
+                    break;
+                }
+
+                // Only remember the resource as missing if no remote host failed otherwise
+                if (notFoundResources.size() == mirrorResources.size()) {
+                    rememberMissing(requestedData, resourceIdentifier, notFoundResources);
+                }
+
                 throw new ResourceUnavailableException("No backend host provided the requested resource.");
             }
 
-            LOG.info("Backend host '{}' failed, trying next one", baseURL);
+            LOG.info("Backend host '{}' failed, trying next one", targetResource);
         }
 
         LOG.info("Successfully handled request for '{}'", requestedData.getRequestedResource());
     }
 
+    private void rememberMissing(final RequestedData requestedData, final String resourceIdentifier,
+                                 final List<URL> notFoundResources) {
+        final long negativeTtl = configuration.getCachePolicy(requestedData.getServerName(),
+            requestedData.getRequestedTarget()).getNegativeTtl();
+
+        if (negativeTtl > 0) {
+            negativeCache.put(resourceIdentifier, negativeTtl, notFoundResources);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * If the configuration specifies a max-version parameter, old versions
+     * of the downloaded repo package are removed.
+     */
+    @Override
+    public void downloadCompleted(final ActiveDownload download) {
+        if (configuration.getMaxVersions() != null) {
+            packagePool.removeOldPackages(download.getPoolObject());
+        }
+    }
+
     /**
      * Fetches an object from a specific backend.
      *
-     * @param requestedData  the requested data.
-     * @param targetResource the target resource.
-     * @param poolObject     the pool object.
-     * @param res            the HttpServletResponse object
+     * @param requestedData   the requested data.
+     * @param targetResource  the target resource.
+     * @param mirrorResources the target resources of all backend hosts.
+     * @param poolObject      the pool object.
+     * @param res             the HttpServletResponse object
      * @return true if the requested object was send successfully.
-     * @throws IOException is thrown if an I/O error occurs.
+     * @throws IOException                  is thrown if an I/O error occurs.
+     * @throws ResourceUnavailableException is thrown if the backend host doesn't provide the object.
      */
     protected boolean handleBackend(final RequestedData requestedData,
-                                    final URL targetResource, final PoolObject poolObject,
+                                    final URL targetResource, final List<URL> mirrorResources,
+                                    final PoolObject poolObject,
                                     final HttpServletResponse res)
-        throws IOException {
+        throws IOException, ResourceUnavailableException {
         try {
             // Send and save data
-            final boolean locallyCached = ioHandler.sendAndSave(requestedData, poolObject, targetResource, res);
-
-            // If a new version was downloaded and if the configuration
-            // specifies a max-version parameter, remove old versions
-            if (!locallyCached && configuration.getMaxVersions() != null) {
-                packagePool.removeOldPackages(poolObject);
-            }
+            ioHandler.sendAndSave(requestedData, poolObject, targetResource, mirrorResources, this, res);
 
             return true;
-        } catch (final ResourceUnavailableException e) {
-            LOG.info("Resource '{}' not found", targetResource);
+        } catch (final ClientWriteException e) {
+            LOG.debug("Client closed the connection while sending '{}'", requestedData.getRequestedResource());
+            throw e;
         } catch (final IOException e) {
             LOG.warn(String.format("IOException while getting data from '%s'", targetResource), e);
 
@@ -0,0 +1,85 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packages.debian;
+
+import net.siegmar.japtproxy.packages.PackageIndexReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the Filename fields of a Debian Packages file. The file names are
+ * relative to the directory containing the dists directory.
+ *
+ * @author Oliver Siegmar
+ */
+public class PackagesIndexReader implements PackageIndexReader {
+
+    private static final Pattern INDEX_PATTERN = Pattern.compile("^Packages(\\.(gz|xz|bz2|lzma))?$");
+
+    private static final String FILENAME_FIELD = "Filename:";
+
+    private static final String DISTS_DIRECTORY = "dists";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isPackageIndex(final String fileName) {
+        return INDEX_PATTERN.matcher(fileName).matches();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public File getBaseDirectory(final File indexFile) {
+        for (File dir = indexFile.getParentFile(); dir != null; dir = dir.getParentFile()) {
+            if (DISTS_DIRECTORY.equals(dir.getName())) {
+                return dir.getParentFile();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readPackageNames(final InputStream in, final Collection<String> packageNames)
+        throws IOException {
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(FILENAME_FIELD)) {
+                packageNames.add(line.substring(FILENAME_FIELD.length()).trim());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packages.debian;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The ReleaseFile holds the index files listed in the SHA256 field of a
+ * Debian 'Release' or (clearsigned) 'InRelease' file of a suite.
+ *
+ * @author Oliver Siegmar
+ */
+public final class ReleaseFile {
+
+    private static final String SHA256_FIELD = "SHA256";
+
+    private static final String PGP_SIGNED_MESSAGE = "-----BEGIN PGP SIGNED MESSAGE-----";
+
+    private static final String PGP_SIGNATURE = "-----BEGIN PGP SIGNATURE-----";
+
+    /**
+     * The index files - the key is the path relative to the suite directory.
+     */
+    private final Map<String, IndexFile> indexFiles;
+
+    private ReleaseFile(final Map<String, IndexFile> indexFiles) {
+        this.indexFiles = Collections.unmodifiableMap(indexFiles);
+    }
+
+    /**
+     * Parses a 'Release' or 'InRelease' file. The signature of an 'InRelease'
+     * file isn't verified - this is up to the clients.
+     *
+     * @param is the stream of the release file
+     * @return the parsed release file
+     * @throws IOException is thrown if the stream couldn't be read
+     */
+    public static ReleaseFile parse(final InputStream is) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        final Map<String, IndexFile> indexFiles = new HashMap<>();
+
+        boolean inHeader = false;
+        boolean inSha256 = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(PGP_SIGNED_MESSAGE)) {
+                // Armor headers (like 'Hash: SHA512') are followed by an empty line
+                inHeader = true;
+                continue;
+            }
+
+            if (inHeader) {
+                inHeader = !line.isEmpty();
+                continue;
+            }
+
+            if (line.startsWith(PGP_SIGNATURE)) {
+                break;
+            }
+
+            if (!line.startsWith(" ")) {
+                inSha256 = StringUtils.substringBefore(line, ":").trim().equals(SHA256_FIELD);
+                continue;
+            }
+
+            if (inSha256) {
+                final String[] parts = StringUtils.split(line);
+                final long size = parts.length == 3 ? NumberUtils.toLong(parts[1], -1) : -1;
+
+                if (size >= 0) {
+                    indexFiles.put(parts[2], new IndexFile(parts[0].toLowerCase(Locale.ENGLISH), size));
+                }
+            }
+        }
+
+        return new ReleaseFile(indexFiles);
+    }
+
+    /**
+     * Returns an index file listed in the release file.
+     *
+     * @param path the path relative to the suite directory
+     * @return the index file or null if it isn't listed
+     */
+    public IndexFile getIndexFile(final String path) {
+        return indexFiles.get(path);
+    }
+
+    /**
+     * Returns the path of an index file in a directory with the given digest.
+     *
+     * @param directory the directory relative to the suite directory (with
+     *                  trailing slash - empty for the suite directory itself)
+     * @param sha256    the SHA256 digest (lower case hex)
+     * @return the path relative to the suite directory or null if no index
+     * file in the directory has the digest
+     */
+    public String findIndexFile(final String directory, final String sha256) {
+        for (final Map.Entry<String, IndexFile> entry : indexFiles.entrySet()) {
+            final String path = entry.getKey();
+
+            if (path.startsWith(directory) && path.indexOf('/', directory.length()) == -1 &&
+                entry.getValue().getSha256().equals(sha256)) {
+                return path;
+            }
+        }
+
+        return null;
+    }
+
+    public int size() {
+        return indexFiles.size();
+    }
+
+    /**
+     * An index file listed in a release file.
+     */
+    public static final class IndexFile {
+
+        /**
+         * The SHA256 digest (lower case hex).
+         */
+        private final String sha256;
+
+        /**
+         * The size in bytes.
+         */
+        private final long size;
+
+        private IndexFile(final String sha256, final long size) {
+            this.sha256 = sha256;
+            this.size = size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+    }
+
+}
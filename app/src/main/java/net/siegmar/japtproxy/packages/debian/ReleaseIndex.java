@@ -0,0 +1,349 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packages.debian;
+
+import net.siegmar.japtproxy.poolobject.PackStore;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import net.siegmar.japtproxy.poolobject.PoolObjectMetadata;
+import net.siegmar.japtproxy.poolobject.TieredStorage;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The ReleaseIndex decides if locally stored index files (like Packages.xz)
+ * of a Debian suite are current without asking the remote host. An index
+ * file is current, if its size and SHA256 digest match the locally stored
+ * 'InRelease' (or 'Release') file of its suite. As only the release file
+ * has to be revalidated, all index files of a suite are invalidated
+ * together as soon as a new release file arrives.
+ * <p/>
+ * Parsed release files are kept until a new version is stored through a
+ * {@link ReleasePoolObject} - the release files aren't looked up again
+ * for every request.
+ *
+ * @author Oliver Siegmar
+ */
+public class ReleaseIndex {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ReleaseIndex.class);
+
+    /**
+     * Splits a resource name into the suite directory and the path relative to it.
+     */
+    private static final Pattern SUITE_PATTERN = Pattern.compile("^(.*/dists/[^/]+/)(.+)$");
+
+    /**
+     * Release files can't list themselves.
+     */
+    private static final Pattern RELEASE_PATTERN = Pattern.compile("^(InRelease|Release(\\.gpg)?)$");
+
+    private static final String[] RELEASE_FILE_NAMES = {"InRelease", "Release"};
+
+    /**
+     * The parsed release files. The key is the path of the suite directory.
+     */
+    private final ConcurrentMap<String, Suite> suites = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented whenever a suite is invalidated - a release file parsed
+     * concurrently to an invalidation isn't cached.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * The pack store release files may be kept in (may be null).
+     */
+    private PackStore packStore;
+
+    /**
+     * The tiered storage release files may be moved to (may be null).
+     */
+    private TieredStorage tieredStorage;
+
+    public void setPackStore(final PackStore packStore) {
+        this.packStore = packStore;
+    }
+
+    public void setTieredStorage(final TieredStorage tieredStorage) {
+        this.tieredStorage = tieredStorage;
+    }
+
+    /**
+     * Returns a PoolObject that invalidates the parsed suite, if the given
+     * PoolObject holds a release file.
+     *
+     * @param backendDirectory the directory of the backend
+     * @param resourceName     the name of the resource (relative to the backend)
+     * @param poolObject       the pool object of the resource
+     * @return the given pool object or a {@link ReleasePoolObject} wrapping it
+     */
+    public PoolObject track(final File backendDirectory, final String resourceName, final PoolObject poolObject) {
+        final Matcher matcher = SUITE_PATTERN.matcher(resourceName);
+        if (!matcher.matches() || !RELEASE_PATTERN.matcher(matcher.group(2)).matches()) {
+            return poolObject;
+        }
+
+        return new ReleasePoolObject(poolObject, getSuiteKey(new File(backendDirectory, matcher.group(1))), this);
+    }
+
+    /**
+     * Drops the parsed release file of a suite - it is parsed again on the
+     * next request.
+     *
+     * @param suiteKey the path of the suite directory
+     */
+    void invalidate(final String suiteKey) {
+        invalidations.incrementAndGet();
+        if (suites.remove(suiteKey) != null) {
+            LOG.debug("Invalidated release file of suite '{}'", suiteKey);
+        }
+    }
+
+    private static String getSuiteKey(final File suiteDirectory) {
+        return suiteDirectory.getAbsolutePath();
+    }
+
+    /**
+     * Checks if a locally stored index file matches the release file of its suite.
+     *
+     * @param backendDirectory the directory of the backend
+     * @param resourceName     the name of the resource (relative to the backend)
+     * @param poolObject       the locally stored pool object of the resource
+     * @return true if the pool object is known to be current
+     */
+    public boolean isCurrent(final File backendDirectory, final String resourceName,
+                             final PoolObject poolObject) {
+        final Matcher matcher = SUITE_PATTERN.matcher(resourceName);
+        if (!matcher.matches() || RELEASE_PATTERN.matcher(matcher.group(2)).matches()) {
+            return false;
+        }
+
+        final Suite suite = getSuite(new File(backendDirectory, matcher.group(1)));
+        if (suite == null) {
+            return false;
+        }
+
+        final ReleaseFile.IndexFile indexFile = suite.releaseFile.getIndexFile(matcher.group(2));
+        if (indexFile == null || indexFile.getSize() != poolObject.getSize()) {
+            return false;
+        }
+
+        // Digests are only calculated once per version of the pool object
+        final long lastModified = poolObject.getLastModified();
+        final Verification verification = suite.verifications.get(matcher.group(2));
+        if (verification != null && verification.lastModified == lastModified) {
+            return verification.current;
+        }
+
+        final String sha256 = sha256(resourceName, poolObject);
+        if (sha256 == null) {
+            return false;
+        }
+
+        final boolean current = indexFile.getSha256().equals(sha256);
+        if (!current) {
+            LOG.debug("Index file '{}' doesn't match its release file", resourceName);
+        }
+
+        suite.verifications.put(matcher.group(2), new Verification(lastModified, current));
+        return current;
+    }
+
+    private static String sha256(final String resourceName, final PoolObject poolObject) {
+        InputStream is = null;
+        try {
+            is = poolObject.getInputStream();
+            return DigestUtils.sha256Hex(is);
+        } catch (final IOException e) {
+            LOG.warn("Couldn't calculate digest of index file '{}'", resourceName, e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Returns the SHA256 digest of an index file listed in the release file
+     * of its suite.
+     *
+     * @param backendDirectory the directory of the backend
+     * @param resourceName     the name of the resource (relative to the backend)
+     * @return the SHA256 digest or null if the resource isn't listed
+     */
+    public String getSha256(final File backendDirectory, final String resourceName) {
+        final Matcher matcher = SUITE_PATTERN.matcher(resourceName);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        final Suite suite = getSuite(new File(backendDirectory, matcher.group(1)));
+        final ReleaseFile.IndexFile indexFile = suite != null
+            ? suite.releaseFile.getIndexFile(matcher.group(2))
+            : null;
+
+        return indexFile != null ? indexFile.getSha256() : null;
+    }
+
+    /**
+     * Finds the index file with the given digest in a directory of a suite -
+     * the twin of an Acquire-By-Hash resource.
+     *
+     * @param backendDirectory the directory of the backend
+     * @param directoryName    the name of the directory (relative to the
+     *                         backend, with trailing slash)
+     * @param sha256           the SHA256 digest (lower case hex)
+     * @return the name of the index file (relative to the backend) or null
+     * if the release file doesn't list one
+     */
+    public String findIndexFile(final File backendDirectory, final String directoryName, final String sha256) {
+        final Matcher matcher = SUITE_PATTERN.matcher(directoryName + "*");
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        final Suite suite = getSuite(new File(backendDirectory, matcher.group(1)));
+        if (suite == null) {
+            return null;
+        }
+
+        final String directory = StringUtils.removeEnd(matcher.group(2), "*");
+        final String path = suite.releaseFile.findIndexFile(directory, sha256);
+
+        return path != null ? matcher.group(1) + path : null;
+    }
+
+    /**
+     * Returns the parsed release file of a suite. The release file is only
+     * looked up and parsed if the suite isn't cached.
+     *
+     * @param suiteDirectory the directory of the suite
+     * @return the suite or null if no release file is stored
+     */
+    private Suite getSuite(final File suiteDirectory) {
+        final String suiteKey = getSuiteKey(suiteDirectory);
+        final Suite suite = suites.get(suiteKey);
+        if (suite != null) {
+            return suite;
+        }
+
+        final long invalidationCount = invalidations.get();
+        final Suite parsedSuite = loadSuite(suiteDirectory);
+        if (parsedSuite == null) {
+            return null;
+        }
+
+        // Don't cache a release file that might have been replaced meanwhile
+        if (invalidations.get() == invalidationCount) {
+            suites.put(suiteKey, parsedSuite);
+            if (invalidations.get() != invalidationCount) {
+                suites.remove(suiteKey, parsedSuite);
+            }
+        }
+
+        return parsedSuite;
+    }
+
+    private Suite loadSuite(final File suiteDirectory) {
+        for (final String releaseFileName : RELEASE_FILE_NAMES) {
+            final File file = new File(suiteDirectory, releaseFileName);
+            final PoolObjectMetadata packedMetadata = packStore != null
+                ? packStore.getMetadata(file.getAbsolutePath())
+                : null;
+
+            if (packedMetadata != null) {
+                return parse(file, true);
+            }
+
+            final File storedFile = tieredStorage != null ? tieredStorage.locate(file) : file;
+            if (storedFile.exists()) {
+                return parse(storedFile, false);
+            }
+        }
+
+        return null;
+    }
+
+    private Suite parse(final File file, final boolean packed) {
+        InputStream is = null;
+        try {
+            is = packed ? packStore.getInputStream(file.getAbsolutePath()) : null;
+            if (is == null) {
+                is = new FileInputStream(file);
+            }
+            final Suite suite = new Suite(ReleaseFile.parse(is));
+            LOG.debug("Parsed release file '{}' with {} index files", file, suite.releaseFile.size());
+            return suite;
+        } catch (final IOException e) {
+            LOG.warn("Couldn't parse release file '{}'", file, e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * A parsed release file and the index files verified against it.
+     */
+    private static final class Suite {
+
+        private final ReleaseFile releaseFile;
+
+        /**
+         * The verified index files - the key is the path relative to the suite directory.
+         */
+        private final ConcurrentMap<String, Verification> verifications = new ConcurrentHashMap<>();
+
+        private Suite(final ReleaseFile releaseFile) {
+            this.releaseFile = releaseFile;
+        }
+
+    }
+
+    /**
+     * The result of verifying a version of an index file.
+     */
+    private static final class Verification {
+
+        private final long lastModified;
+        private final boolean current;
+
+        private Verification(final long lastModified, final boolean current) {
+            this.lastModified = lastModified;
+            this.current = current;
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packages.debian;
+
+import net.siegmar.japtproxy.packages.RepoPackage;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import net.siegmar.japtproxy.poolobject.PoolObjectMetadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A PoolObject of a release file that invalidates the parsed suite of the
+ * {@link ReleaseIndex} as soon as a new version is stored or the release
+ * file is removed.
+ *
+ * @author Oliver Siegmar
+ */
+public class ReleasePoolObject implements PoolObject {
+
+    /**
+     * The PoolObject that holds the release file.
+     */
+    private final PoolObject delegate;
+
+    /**
+     * The path of the suite directory.
+     */
+    private final String suiteKey;
+
+    /**
+     * The ReleaseIndex instance.
+     */
+    private final ReleaseIndex releaseIndex;
+
+    public ReleasePoolObject(final PoolObject delegate, final String suiteKey, final ReleaseIndex releaseIndex) {
+        this.delegate = delegate;
+        this.suiteKey = suiteKey;
+        this.releaseIndex = releaseIndex;
+    }
+
+    public PoolObject getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLastModified() {
+        return delegate.getLastModified();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLastModified(final long lastModified) throws IOException {
+        delegate.setLastModified(lastModified);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PoolObjectMetadata getMetadata() {
+        return delegate.getMetadata();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMetadata(final PoolObjectMetadata metadata) {
+        delegate.setMetadata(metadata);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSize() {
+        return delegate.getSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return delegate.getInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer getBuffer() throws IOException {
+        return delegate.getBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getChannel() throws IOException {
+        return delegate.getChannel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getTempInputStream() throws IOException {
+        return delegate.getTempInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OutputStream getOutputStream(final boolean append) throws IOException {
+        return delegate.getOutputStream(append);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getTempChannel() throws IOException {
+        return delegate.getTempChannel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTemp(final long offset, final long length) throws IOException {
+        delegate.createTemp(offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPartialSize() {
+        return delegate.getPartialSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPartialValidator() {
+        return delegate.getPartialValidator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void keepPartial(final String validator) throws IOException {
+        delegate.keepPartial(validator);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removePartial() {
+        delegate.removePartial();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void store() throws IOException {
+        try {
+            delegate.store();
+        } finally {
+            releaseIndex.invalidate(suiteKey);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        delegate.remove();
+        releaseIndex.invalidate(suiteKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RepoPackage getRepoPackage() {
+        return delegate.getRepoPackage();
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packages.rpm;
+
+import net.siegmar.japtproxy.packages.PackageIndexReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the package locations of a RPM repository's primary.xml. The
+ * locations are relative to the directory containing the repodata directory.
+ * The index is streamed, as it may be very large.
+ *
+ * @author Oliver Siegmar
+ */
+public class PrimaryIndexReader implements PackageIndexReader {
+
+    private static final Pattern INDEX_PATTERN = Pattern.compile("^(.+-)?primary\\.xml(\\.(gz|xz|bz2|zst))?$");
+
+    private static final String REPODATA_DIRECTORY = "repodata";
+
+    private static final String LOCATION_ELEMENT = "location";
+
+    private static final String HREF_ATTRIBUTE = "href";
+
+    private final XMLInputFactory inputFactory;
+
+    public PrimaryIndexReader() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isPackageIndex(final String fileName) {
+        return INDEX_PATTERN.matcher(fileName).matches();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public File getBaseDirectory(final File indexFile) {
+        final File dir = indexFile.getParentFile();
+
+        return dir != null && REPODATA_DIRECTORY.equals(dir.getName()) ? dir.getParentFile() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readPackageNames(final InputStream in, final Collection<String> packageNames)
+        throws IOException {
+
+        try {
+            final XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT &&
+                        LOCATION_ELEMENT.equals(reader.getLocalName())) {
+
+                        final String href = reader.getAttributeValue(null, HREF_ATTRIBUTE);
+                        if (href != null) {
+                            packageNames.add(href);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (final XMLStreamException e) {
+            throw new IOException("Couldn't parse primary index", e);
+        }
+    }
+
+}
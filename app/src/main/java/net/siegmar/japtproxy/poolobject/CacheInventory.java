@@ -0,0 +1,348 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.exception.InvalidRepoPackageNameException;
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.packages.RepoPackage;
+import net.siegmar.japtproxy.packages.RepoPackageBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The CacheInventory scans the cache directory (and the cold storage tier,
+ * if configured) once at startup and passes all cached files (path, size,
+ * modification timestamp and repo package) to its listeners. The
+ * directories are scanned in parallel by a ForkJoinPool - requests are
+ * served while the scan is running.
+ *
+ * @author Oliver Siegmar
+ */
+public class CacheInventory implements CacheInventoryMBean {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CacheInventory.class);
+
+    /**
+     * The interval the progress of the scan is logged at.
+     */
+    private static final long PROGRESS_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong repoPackages = new AtomicLong();
+
+    private Configuration configuration;
+    private List<RepoPackageBuilder> repoPackageBuilders;
+    private List<InventoryListener> listeners = Collections.emptyList();
+    private int parallelism;
+    private ForkJoinPool pool;
+
+    private volatile long startTime;
+    private volatile long endTime;
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Required
+    public void setRepoPackageBuilders(final List<RepoPackageBuilder> repoPackageBuilders) {
+        this.repoPackageBuilders = repoPackageBuilders;
+    }
+
+    public void setListeners(final List<InventoryListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    @Required
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    @PostConstruct
+    public void init() {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, "cache-inventory");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Scans the cache directory (and the cold storage tier) and waits until
+     * the scan has been completed.
+     */
+    void scan() {
+        final List<File> directories = new ArrayList<>();
+        directories.add(configuration.getCacheDir().getAbsoluteFile());
+        if (configuration.getColdTierDirectory() != null) {
+            directories.add(configuration.getColdTierDirectory().getAbsoluteFile());
+        }
+
+        LOG.info("Starting inventory of {} with {} threads", directories, parallelism);
+        startTime = System.currentTimeMillis();
+
+        pool = new ForkJoinPool(parallelism);
+        try {
+            for (final File directory : directories) {
+                pool.invoke(new ScanTask(directory.toPath()));
+            }
+            LOG.info("Completed inventory of {}: {}", directories, getProgress());
+        } catch (final RuntimeException e) {
+            LOG.error("Inventory of {} failed: {}", directories, getProgress(), e);
+        } finally {
+            pool.shutdown();
+            endTime = System.currentTimeMillis();
+        }
+
+        // Listeners are notified even after a failed inventory - they only got a partial one
+        for (final InventoryListener listener : listeners) {
+            listener.inventoryCompleted();
+        }
+    }
+
+    private String getProgress() {
+        return String.format("%d files (%d repo packages) with %d bytes in %d directories after %d ms",
+            getFiles(), getRepoPackages(), getBytes(), getDirectories(), getElapsedTime());
+    }
+
+    /**
+     * Checks if a file belongs to a cached file (like the temp resource or
+     * the metadata file) - it isn't part of the inventory.
+     */
+    private static boolean isAuxiliaryFile(final String name) {
+        return name.endsWith(".tmp") || name.endsWith(".tmp.validator") || name.endsWith(".meta");
+    }
+
+    private RepoPackage parseRepoPackage(final String filename) {
+        for (final RepoPackageBuilder repoPackageBuilder : repoPackageBuilders) {
+            try {
+                return repoPackageBuilder.newPackage(filename);
+            } catch (final InvalidRepoPackageNameException e) {
+                // Try the next builder
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCompleted() {
+        return endTime != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDirectories() {
+        return directories.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRepoPackages() {
+        return repoPackages.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getElapsedTime() {
+        if (startTime == 0) {
+            return 0;
+        }
+
+        return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * Scans a single directory and forks a task for each sub directory.
+     */
+    private class ScanTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        private ScanTask(final Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            final List<Entry> entries = new ArrayList<>();
+            final List<ScanTask> subTasks = new ArrayList<>();
+
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                        if (attrs.isDirectory()) {
+                            subTasks.add(new ScanTask(file));
+                        } else if (attrs.isRegularFile()) {
+                            final String filename = file.getFileName().toString();
+                            if (!isAuxiliaryFile(filename)) {
+                                entries.add(new Entry(file.toFile(), attrs.size(),
+                                    attrs.lastModifiedTime().toMillis(), parseRepoPackage(filename)));
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                        LOG.debug("Couldn't read '{}'", file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (final IOException e) {
+                LOG.warn("Couldn't scan directory '{}'", dir, e);
+            }
+
+            record(entries);
+            invokeAll(subTasks);
+        }
+
+        private void record(final List<Entry> entries) {
+            final long scannedDirectories = directories.incrementAndGet();
+
+            if (!entries.isEmpty()) {
+                long size = 0;
+                long packages = 0;
+                for (final Entry entry : entries) {
+                    size += entry.getSize();
+                    if (entry.getRepoPackage() != null) {
+                        packages++;
+                    }
+                }
+
+                files.addAndGet(entries.size());
+                bytes.addAndGet(size);
+                repoPackages.addAndGet(packages);
+
+                for (final InventoryListener listener : listeners) {
+                    listener.inventoried(entries);
+                }
+            }
+
+            if (scannedDirectories % 10000 == 0 && getElapsedTime() > PROGRESS_INTERVAL) {
+                LOG.info("Inventory in progress: {}", getProgress());
+            }
+        }
+
+    }
+
+    /**
+     * A cached file found by the inventory.
+     */
+    public static final class Entry {
+
+        private final File file;
+        private final long size;
+        private final long lastModified;
+        private final RepoPackage repoPackage;
+
+        public Entry(final File file, final long size, final long lastModified, final RepoPackage repoPackage) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.repoPackage = repoPackage;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Get the repo package of the file.
+         *
+         * @return the repo package - null if the file isn't a repo package.
+         */
+        public RepoPackage getRepoPackage() {
+            return repoPackage;
+        }
+
+    }
+
+}
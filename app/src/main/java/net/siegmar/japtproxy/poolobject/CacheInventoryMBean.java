@@ -0,0 +1,71 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+/**
+ * The management interface of the CacheInventory - publishes the progress
+ * of the startup scan.
+ *
+ * @author Oliver Siegmar
+ */
+public interface CacheInventoryMBean {
+
+    /**
+     * Checks if the scan has been completed.
+     *
+     * @return true if the scan has been completed.
+     */
+    boolean isCompleted();
+
+    /**
+     * Get the number of scanned directories.
+     *
+     * @return the number of scanned directories.
+     */
+    long getDirectories();
+
+    /**
+     * Get the number of files found.
+     *
+     * @return the number of files found.
+     */
+    long getFiles();
+
+    /**
+     * Get the total size of the files found.
+     *
+     * @return the total size of the files found.
+     */
+    long getBytes();
+
+    /**
+     * Get the number of files that are repo packages.
+     *
+     * @return the number of files that are repo packages.
+     */
+    long getRepoPackages();
+
+    /**
+     * Get the time the scan has been running (or took).
+     *
+     * @return the time in milliseconds.
+     */
+    long getElapsedTime();
+
+}
@@ -0,0 +1,518 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The DiskQuota keeps the cache directory (and single backends) within their
+ * configured disk quotas. It holds an in-memory index of all cached files
+ * (built from the CacheInventory at startup), so no directory tree has to
+ * be walked to find files to evict.
+ * <p/>
+ * As soon as a quota exceeds its high watermark, files are evicted until
+ * all quotas are below their low watermark. The eviction order is
+ * size-aware (GreedyDual-Size-Frequency): files that are rarely requested
+ * and large are evicted first, the priority of all other files ages with
+ * every eviction, so files not requested for a long time are evicted
+ * eventually.
+ * <p/>
+ * Accesses are recorded without locking - they're only ordered into the
+ * eviction order by the eviction thread.
+ *
+ * @author Oliver Siegmar
+ */
+public class DiskQuota implements PoolFileListener, InventoryListener {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DiskQuota.class);
+
+    /**
+     * Files accessed more recently are never evicted - they may still be
+     * opened by a request.
+     */
+    private static final long MIN_IDLE_TIME = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Comparator<Entry> PRIORITY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry e1, final Entry e2) {
+            final int cmp = Double.compare(e1.priority, e2.priority);
+            return cmp != 0 ? cmp : Long.compare(e1.sequence, e2.sequence);
+        }
+    };
+
+    private final ExecutorService evictionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "disk-quota-eviction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * The index of all cached files. The key is the path of the file.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The entries accessed since they have been ordered the last time.
+     */
+    private final Queue<Entry> accessedEntries = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The cached files of each backend. The key is the name of the backend.
+     */
+    private final Map<String, Usage> usages = new HashMap<>();
+
+    private Configuration configuration;
+    private MetadataCache metadataCache;
+    private MemoryCache memoryCache;
+    private Path cacheDir;
+
+    /**
+     * The total size of all cached files.
+     */
+    private long totalSize;
+
+    /**
+     * The inflation value of the GreedyDual-Size-Frequency algorithm - the
+     * priority of the last evicted file.
+     */
+    private double inflation;
+
+    private long sequence;
+
+    /**
+     * The paths of all files removed while the inventory is running (null
+     * as soon as the inventory has been completed).
+     */
+    private Set<String> removedDuringInventory = new HashSet<>();
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Required
+    public void setMetadataCache(final MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    @Required
+    public void setMemoryCache(final MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    @PostConstruct
+    public void init() {
+        cacheDir = configuration.getCacheDir().getAbsoluteFile().toPath();
+
+        if (!configuration.isDiskQuotaEnabled()) {
+            LOG.debug("Disk quota is disabled");
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        evictionExecutor.shutdownNow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void inventoried(final List<CacheInventory.Entry> inventoryEntries) {
+        if (!configuration.isDiskQuotaEnabled()) {
+            return;
+        }
+
+        for (final CacheInventory.Entry inventoryEntry : inventoryEntries) {
+            add(inventoryEntry.getFile(), inventoryEntry.getSize(), false);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void inventoryCompleted() {
+        synchronized (this) {
+            removedDuringInventory = null;
+        }
+
+        if (configuration.isDiskQuotaEnabled()) {
+            LOG.info("Indexed {} cached files with {} bytes", size(), getTotalSize());
+            evictIfRequired();
+        }
+    }
+
+    /**
+     * Records a file that has been stored in the cache directory.
+     *
+     * @param file the stored file.
+     * @param size the size of the file.
+     */
+    @Override
+    public void stored(final File file, final long size) {
+        if (!configuration.isDiskQuotaEnabled()) {
+            return;
+        }
+
+        add(file, size, true);
+        evictIfRequired();
+    }
+
+    /**
+     * Records an access to a file in the cache directory.
+     *
+     * @param file the accessed file.
+     */
+    public void accessed(final File file) {
+        if (!configuration.isDiskQuotaEnabled()) {
+            return;
+        }
+
+        final Entry entry = entries.get(file.getAbsolutePath());
+        if (entry == null) {
+            return;
+        }
+
+        entry.lastAccess = System.currentTimeMillis();
+        entry.accesses.incrementAndGet();
+        if (entry.queued.compareAndSet(false, true)) {
+            accessedEntries.add(entry);
+        }
+    }
+
+    /**
+     * Moves the entries accessed since the last call to their new position
+     * in the eviction order.
+     */
+    private void orderAccessedEntries() {
+        Entry entry;
+        while ((entry = accessedEntries.poll()) != null) {
+            entry.queued.set(false);
+            final int accesses = entry.accesses.getAndSet(0);
+
+            // Removed since it has been accessed
+            if (entries.get(entry.path) != entry) {
+                continue;
+            }
+
+            final Usage usage = usages.get(entry.backendName);
+            usage.entries.remove(entry);
+            entry.frequency += accesses;
+            entry.priority = computePriority(entry.frequency, entry.size);
+            usage.entries.add(entry);
+        }
+    }
+
+    /**
+     * Records a file that has been removed from the cache directory.
+     *
+     * @param file the removed file.
+     */
+    @Override
+    public synchronized void removed(final File file) {
+        final String key = file.getAbsolutePath();
+        if (removedDuringInventory != null && configuration.isDiskQuotaEnabled()) {
+            removedDuringInventory.add(key);
+        }
+
+        final Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+
+        final Usage usage = usages.get(entry.backendName);
+        usage.entries.remove(entry);
+        usage.size -= entry.size;
+        totalSize -= entry.size;
+    }
+
+    private synchronized void add(final File file, final long size, final boolean replace) {
+        final Path path = file.getAbsoluteFile().toPath();
+        if (!path.startsWith(cacheDir) || path.getNameCount() <= cacheDir.getNameCount()) {
+            return;
+        }
+
+        final String key = path.toString();
+        final Entry existing = entries.get(key);
+        if (existing != null) {
+            if (!replace) {
+                return;
+            }
+            removed(file);
+        } else if (!replace && removedDuringInventory != null && removedDuringInventory.contains(key)) {
+            // Removed since the inventory listed its directory
+            return;
+        }
+
+        final String backendName = path.getName(cacheDir.getNameCount()).toString();
+        Usage usage = usages.get(backendName);
+        if (usage == null) {
+            usage = new Usage(backendName);
+            usages.put(backendName, usage);
+        }
+
+        final Entry entry = new Entry(key, backendName, size, sequence++);
+        entry.lastAccess = System.currentTimeMillis();
+        entry.priority = computePriority(entry.frequency, size);
+
+        entries.put(key, entry);
+        usage.entries.add(entry);
+        usage.size += size;
+        totalSize += size;
+    }
+
+    private double computePriority(final int frequency, final long size) {
+        return inflation + (double) frequency / Math.max(size, 1);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    public synchronized long getTotalSize(final String backendName) {
+        final Usage usage = usages.get(backendName);
+        return usage != null ? usage.size : 0;
+    }
+
+    private void evictIfRequired() {
+        if (!isAboveWatermark(configuration.getDiskQuotaHighWatermark()) || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        evictionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evict(System.currentTimeMillis());
+                } catch (final RuntimeException e) {
+                    LOG.error("Eviction of cached files failed", e);
+                } finally {
+                    evicting.set(false);
+                }
+            }
+        });
+    }
+
+    private synchronized boolean isAboveWatermark(final int watermark) {
+        if (isAboveWatermark(totalSize, configuration.getDiskQuotaSize(), watermark)) {
+            return true;
+        }
+
+        for (final Usage usage : usages.values()) {
+            if (isAboveWatermark(usage.size, configuration.getDiskQuotaSize(usage.backendName), watermark)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // CSOFF: MagicNumber
+    private static boolean isAboveWatermark(final long size, final long quota, final int watermark) {
+        return quota >= 0 && size * 100 > quota * watermark;
+    }
+    // CSON: MagicNumber
+
+    /**
+     * Evicts files until all quotas are below their low watermark.
+     *
+     * @param now the current timestamp.
+     */
+    void evict(final long now) {
+        int evictedFiles = 0;
+        long evictedBytes = 0;
+
+        synchronized (this) {
+            orderAccessedEntries();
+        }
+
+        Entry victim;
+        while ((victim = evictNext(now)) != null) {
+            delete(victim);
+            evictedFiles++;
+            evictedBytes += victim.size;
+        }
+
+        if (evictedFiles > 0) {
+            LOG.info("Evicted {} cached files with {} bytes", evictedFiles, evictedBytes);
+        }
+    }
+
+    /**
+     * Removes the next file to evict from the index. Files removed while the
+     * inventory is running are remembered, so the inventory can't add them
+     * again before they're deleted.
+     *
+     * @return the evicted file - null if all quotas are below their low
+     * watermark (or all remaining files have been accessed recently).
+     */
+    private synchronized Entry evictNext(final long now) {
+        final int watermark = configuration.getDiskQuotaLowWatermark();
+        final boolean totalAboveWatermark =
+            isAboveWatermark(totalSize, configuration.getDiskQuotaSize(), watermark);
+
+        Entry victim = null;
+        for (final Usage usage : usages.values()) {
+            final Entry candidate = usage.findCandidate(now);
+            if (candidate == null) {
+                continue;
+            }
+
+            // A backend above its own quota is evicted first
+            if (isAboveWatermark(usage.size, configuration.getDiskQuotaSize(usage.backendName), watermark)) {
+                victim = candidate;
+                break;
+            }
+
+            if (totalAboveWatermark && (victim == null || PRIORITY_COMPARATOR.compare(candidate, victim) < 0)) {
+                victim = candidate;
+            }
+        }
+
+        if (victim == null) {
+            return null;
+        }
+
+        inflation = victim.priority;
+        removed(new File(victim.path));
+
+        return victim;
+    }
+
+    /**
+     * Deletes an evicted file - outside of the monitor, so requests aren't
+     * blocked by the file system.
+     */
+    private void delete(final Entry victim) {
+        final File file = new File(victim.path);
+
+        LOG.debug("Evict cached file '{}' ({} bytes)", file, victim.size);
+        memoryCache.remove(victim.path);
+        metadataCache.remove(victim.path);
+        FileUtils.deleteQuietly(PoolFile.getMetadataFile(file));
+        if (!file.delete() && file.exists()) {
+            LOG.error("Couldn't delete file '{}'", file);
+        }
+    }
+
+    /**
+     * The cached files of a backend.
+     */
+    private static final class Usage {
+
+        private final String backendName;
+
+        /**
+         * The cached files in eviction order.
+         */
+        private final TreeSet<Entry> entries = new TreeSet<>(PRIORITY_COMPARATOR);
+
+        private long size;
+
+        private Usage(final String backendName) {
+            this.backendName = backendName;
+        }
+
+        private Entry findCandidate(final long now) {
+            final Iterator<Entry> it = entries.iterator();
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+                if (now - entry.lastAccess >= MIN_IDLE_TIME) {
+                    return entry;
+                }
+            }
+
+            return null;
+        }
+
+    }
+
+    /**
+     * A cached file.
+     */
+    private static final class Entry {
+
+        private final String path;
+        private final String backendName;
+        private final long size;
+        private final long sequence;
+
+        /**
+         * The number of accesses not yet added to the frequency.
+         */
+        private final AtomicInteger accesses = new AtomicInteger();
+
+        /**
+         * Whether the entry is queued for being ordered.
+         */
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        private int frequency = 1;
+        private volatile long lastAccess;
+        private double priority;
+
+        private Entry(final String path, final String backendName, final long size, final long sequence) {
+            this.path = path;
+            this.backendName = backendName;
+            this.size = size;
+            this.sequence = sequence;
+        }
+
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import java.util.List;
+
+/**
+ * An InventoryListener receives the files found by the CacheInventory.
+ *
+ * @author Oliver Siegmar
+ */
+public interface InventoryListener {
+
+    /**
+     * Called for the files of a directory. May be called concurrently for
+     * different directories.
+     *
+     * @param entries the files of a directory.
+     */
+    void inventoried(List<CacheInventory.Entry> entries);
+
+    /**
+     * Called after all directories have been scanned.
+     */
+    void inventoryCompleted();
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.packages.RepoPackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The MemoryCache holds the content of pool objects in direct (off-heap)
+ * buffers. The cache is limited by the total number of bytes it holds - the
+ * least recently used entries are evicted first.
+ *
+ * @author Oliver Siegmar
+ */
+public class MemoryCache {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryCache.class);
+
+    // CSOFF: MagicNumber
+    /**
+     * The cached entries in access order. The key is the path of the pool object.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // CSON: MagicNumber
+
+    /**
+     * The number of bytes held by all entries.
+     */
+    private long size;
+
+    /**
+     * The Japt-Proxy configuration.
+     */
+    private Configuration configuration;
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Checks if an object of the given size may be cached.
+     *
+     * @param objectSize the size of the object
+     * @return true if an object of the given size may be cached
+     */
+    public boolean isCacheable(final long objectSize) {
+        return objectSize <= configuration.getMemoryCacheMaxObjectSize() &&
+            objectSize <= configuration.getMemoryCacheSize();
+    }
+
+    /**
+     * Returns the cached entry for the given key.
+     *
+     * @param key the path of the pool object
+     * @return the cached entry or null if the pool object isn't cached
+     */
+    public synchronized Entry get(final String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Caches an entry and evicts the least recently used entries if the
+     * cache size is exceeded.
+     *
+     * @param key   the path of the pool object
+     * @param entry the entry to cache
+     */
+    public synchronized void put(final String key, final Entry entry) {
+        if (!isCacheable(entry.getSize())) {
+            return;
+        }
+
+        final Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            size -= previous.getSize();
+        }
+        size += entry.getSize();
+
+        final long maxSize = configuration.getMemoryCacheSize();
+        for (final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+             size > maxSize && it.hasNext();) {
+            final Map.Entry<String, Entry> eldest = it.next();
+            LOG.debug("Evicting '{}' from memory cache", eldest.getKey());
+            size -= eldest.getValue().getSize();
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes an entry from the cache.
+     *
+     * @param key the path of the pool object
+     */
+    public synchronized void remove(final String key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.getSize();
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by all entries.
+     *
+     * @return the number of bytes held by all entries
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * The cached content and meta data of a pool object.
+     */
+    public static final class Entry {
+
+        private final ByteBuffer content;
+        private final long lastModified;
+        private final String contentType;
+        private final RepoPackage repoPackage;
+
+        public Entry(final ByteBuffer content, final long lastModified, final String contentType,
+                     final RepoPackage repoPackage) {
+            this.content = content.asReadOnlyBuffer();
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.repoPackage = repoPackage;
+        }
+
+        /**
+         * Returns the content. Every caller gets an independent buffer.
+         *
+         * @return a read-only buffer of the content
+         */
+        public ByteBuffer getContent() {
+            return content.duplicate();
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public RepoPackage getRepoPackage() {
+            return repoPackage;
+        }
+
+        public long getSize() {
+            return content.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,338 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.packages.RepoPackage;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A PoolObject that serves the final resource of another PoolObject from
+ * the {@link MemoryCache}. The final resource is loaded into the cache when
+ * its content is requested the first time and is invalidated whenever the
+ * final resource gets replaced or removed. The other PoolObject may be
+ * created lazily - once the cached final resource doesn't suffice.
+ *
+ * @author Oliver Siegmar
+ */
+public class MemoryCachedPoolObject implements PoolObject {
+
+    /**
+     * Creates the PoolObject that holds the data.
+     */
+    public interface DelegateFactory {
+
+        PoolObject create() throws IOException;
+
+    }
+
+    /**
+     * Creates the delegate - null once it's created.
+     */
+    private DelegateFactory delegateFactory;
+
+    /**
+     * The PoolObject that holds the data - null until it's needed.
+     */
+    private PoolObject delegate;
+
+    /**
+     * The name of the final resource.
+     */
+    private final String name;
+
+    /**
+     * The key of the final resource in the memory cache.
+     */
+    private final String key;
+
+    /**
+     * The MemoryCache instance.
+     */
+    private final MemoryCache memoryCache;
+
+    public MemoryCachedPoolObject(final PoolObject delegate, final String key, final MemoryCache memoryCache) {
+        this.delegate = delegate;
+        this.name = delegate.getName();
+        this.key = key;
+        this.memoryCache = memoryCache;
+    }
+
+    public MemoryCachedPoolObject(final DelegateFactory delegateFactory, final String name, final String key,
+                                  final MemoryCache memoryCache) {
+        this.delegateFactory = delegateFactory;
+        this.name = name;
+        this.key = key;
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Returns the PoolObject that holds the data - it's created if needed.
+     *
+     * @return the PoolObject that holds the data.
+     * @throws IllegalStateException is thrown if the PoolObject couldn't be
+     *                               created.
+     */
+    public PoolObject getDelegate() {
+        try {
+            return delegate();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Couldn't create pool object '" + name + "'", e);
+        }
+    }
+
+    private synchronized PoolObject delegate() throws IOException {
+        if (delegate == null) {
+            delegate = delegateFactory.create();
+            delegateFactory = null;
+        }
+        return delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLastModified() {
+        final MemoryCache.Entry entry = memoryCache.get(key);
+        return entry != null ? entry.getLastModified() : getDelegate().getLastModified();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLastModified(final long lastModified) throws IOException {
+        delegate().setLastModified(lastModified);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PoolObjectMetadata getMetadata() {
+        return getDelegate().getMetadata();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMetadata(final PoolObjectMetadata metadata) {
+        getDelegate().setMetadata(metadata);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSize() {
+        final MemoryCache.Entry entry = memoryCache.get(key);
+        return entry != null ? entry.getSize() : getDelegate().getSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentType() {
+        final MemoryCache.Entry entry = memoryCache.get(key);
+        return entry != null ? entry.getContentType() : getDelegate().getContentType();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        final MemoryCache.Entry entry = memoryCache.get(key);
+        return entry != null ? new ByteBufferInputStream(entry.getContent()) : delegate().getInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The final resource is loaded into the memory cache if it isn't cached
+     * yet - this must only happen while the final resource can't be replaced
+     * (while holding the read lock of the pool object).
+     */
+    @Override
+    public ByteBuffer getBuffer() throws IOException {
+        final MemoryCache.Entry entry = memoryCache.get(key);
+        if (entry != null) {
+            return entry.getContent();
+        }
+
+        final PoolObject poolObject = delegate();
+
+        // Resources the delegate already serves from a buffer (like packed ones) aren't copied
+        final ByteBuffer delegateBuffer = poolObject.getBuffer();
+        if (delegateBuffer != null) {
+            return delegateBuffer;
+        }
+
+        final long lastModified = poolObject.getLastModified();
+        final long size = poolObject.getSize();
+
+        if (lastModified == 0 || !memoryCache.isCacheable(size)) {
+            return null;
+        }
+
+        final ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+        final FileChannel channel = poolObject.getChannel();
+        try {
+            while (content.hasRemaining()) {
+                if (channel.read(content) == -1) {
+                    break;
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+
+        if (content.hasRemaining() || poolObject.getLastModified() != lastModified) {
+            // The final resource changed while it was read
+            return null;
+        }
+
+        content.flip();
+
+        final MemoryCache.Entry loadedEntry = new MemoryCache.Entry(content, lastModified, poolObject.getContentType(),
+            poolObject.getRepoPackage());
+        memoryCache.put(key, loadedEntry);
+
+        return loadedEntry.getContent();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getChannel() throws IOException {
+        return delegate().getChannel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getTempInputStream() throws IOException {
+        return delegate().getTempInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OutputStream getOutputStream(final boolean append) throws IOException {
+        return delegate().getOutputStream(append);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getTempChannel() throws IOException {
+        return delegate().getTempChannel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTemp(final long offset, final long length) throws IOException {
+        delegate().createTemp(offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPartialSize() {
+        return getDelegate().getPartialSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPartialValidator() {
+        return getDelegate().getPartialValidator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void keepPartial(final String validator) throws IOException {
+        delegate().keepPartial(validator);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removePartial() {
+        getDelegate().removePartial();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void store() throws IOException {
+        try {
+            delegate().store();
+        } finally {
+            memoryCache.remove(key);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        memoryCache.remove(key);
+        getDelegate().remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RepoPackage getRepoPackage() {
+        final MemoryCache.Entry entry = memoryCache.get(key);
+        return entry != null ? entry.getRepoPackage() : getDelegate().getRepoPackage();
+    }
+
+}
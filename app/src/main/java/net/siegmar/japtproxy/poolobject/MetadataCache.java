@@ -0,0 +1,103 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import org.springframework.beans.factory.annotation.Required;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The MetadataCache holds the metadata of recently requested pool objects,
+ * so serving them doesn't require reading their metadata files (or the file
+ * system attributes) again. The cache is limited by the number of entries -
+ * the least recently used entries are evicted first.
+ *
+ * @author Oliver Siegmar
+ */
+public class MetadataCache {
+
+    /**
+     * The cached entries in access order. The key is the path of the pool object.
+     */
+    private Map<String, PoolObjectMetadata> entries;
+
+    @Required
+    public void setMaxEntries(final int maxEntries) {
+        entries = new LruMap(maxEntries);
+    }
+
+    /**
+     * Returns the cached metadata for the given key.
+     *
+     * @param key the path of the pool object
+     * @return the cached metadata or null if not cached
+     */
+    public synchronized PoolObjectMetadata get(final String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Puts metadata into the cache.
+     *
+     * @param key      the path of the pool object
+     * @param metadata the metadata
+     */
+    public synchronized void put(final String key, final PoolObjectMetadata metadata) {
+        entries.put(key, metadata);
+    }
+
+    /**
+     * Removes metadata from the cache.
+     *
+     * @param key the path of the pool object
+     */
+    public synchronized void remove(final String key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * LinkedHashMap in access order that evicts the least recently used entry
+     * once the maximum number of entries is exceeded.
+     */
+    private static final class LruMap extends LinkedHashMap<String, PoolObjectMetadata> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        // CSOFF: MagicNumber
+        LruMap(final int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+        // CSON: MagicNumber
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PoolObjectMetadata> eldest) {
+            return size() > maxEntries;
+        }
+
+    }
+
+}
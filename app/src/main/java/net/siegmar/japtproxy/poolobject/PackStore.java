@@ -0,0 +1,782 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * The PackStore holds small resources (like release files) in a few large
+ * segment files instead of one file per resource. Resources are appended
+ * to the newest segment and are found by an in-memory index that is
+ * rebuilt from the segments at startup. They're read through mapped
+ * buffers of the segments.
+ * <p/>
+ * Replaced and removed resources leave dead records in their segments -
+ * segments with too many dead records are compacted in the background by
+ * copying their live records to a new file that replaces the segment.
+ * <p/>
+ * Reads don't lock: the index is a concurrent map and records are never
+ * modified once written, so each segment is only mapped region by region
+ * as it grows. Appends are serialized by a lock. A compaction writes the
+ * new file without holding it and only swaps the index entries under it.
+ * <p/>
+ * A record consists of a header (magic number, key length, metadata
+ * length, data length and CRC32 checksum of the payload), the key, the
+ * metadata and the data. Removed resources are recorded by a record without
+ * metadata and data (lengths of -1).
+ *
+ * @author Oliver Siegmar
+ */
+public class PackStore {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(PackStore.class);
+
+    private static final int MAGIC = 0x4A505031;
+
+    private static final int HEADER_SIZE = 20;
+
+    private static final int REMOVED = -1;
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("^(\\d+)\\.pack$");
+
+    /**
+     * The suffix of a segment file written by a compaction.
+     */
+    private static final String COMPACTION_SUFFIX = ".compact";
+
+    private static final int PERCENT = 100;
+
+    private final Timer timer = new Timer();
+
+    /**
+     * The index of all stored resources. The key is the path of the resource.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * All segments in the order they were written (guarded by writeLock).
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * Serializes appends and all changes of the index and the segments.
+     */
+    private final Lock writeLock = new ReentrantLock();
+
+    private Configuration configuration;
+
+    /**
+     * The size a segment is filled up to before a new one is started.
+     */
+    private int segmentSize;
+
+    private int compactionInterval;
+
+    /**
+     * The percentage of dead records that starts the compaction of a segment.
+     */
+    private int compactionThreshold;
+
+    private File directory;
+
+    /**
+     * The newest segment - all records are appended to it (guarded by writeLock).
+     */
+    private Segment activeSegment;
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Required
+    public void setSegmentSize(final int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @Required
+    public void setCompactionInterval(final int compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+
+    @Required
+    public void setCompactionThreshold(final int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        directory = configuration.getPackStoreDirectory();
+
+        if (directory == null) {
+            LOG.debug("Pack store is disabled");
+            return;
+        }
+
+        FileUtils.forceMkdir(directory);
+
+        writeLock.lock();
+        try {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    final Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+                    if (matcher.matches()) {
+                        final long id = Long.parseLong(matcher.group(1));
+                        segments.put(id, new Segment(id, file));
+                    } else if (file.getName().endsWith(COMPACTION_SUFFIX)) {
+                        // Left by an interrupted compaction - the segment is still complete
+                        FileUtils.deleteQuietly(file);
+                    }
+                }
+            }
+
+            for (final Segment segment : segments.values()) {
+                load(segment);
+            }
+
+            activeSegment = segments.isEmpty() ? newSegment() : segments.lastEntry().getValue();
+
+            LOG.info("Loaded {} packed resources from {} segments in '{}'", entries.size(), segments.size(),
+                directory);
+        } finally {
+            writeLock.unlock();
+        }
+
+        timer.schedule(new CompactionTask(), compactionInterval, compactionInterval);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        timer.cancel();
+
+        writeLock.lock();
+        try {
+            for (final Segment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the pack store is enabled.
+     *
+     * @return true if the pack store is enabled.
+     */
+    public boolean isEnabled() {
+        return configuration.getPackStoreDirectory() != null;
+    }
+
+    /**
+     * Returns the maximum size of a single resource.
+     *
+     * @return the maximum size of a single resource.
+     */
+    public long getMaxObjectSize() {
+        return configuration.getPackStoreMaxObjectSize();
+    }
+
+    /**
+     * Returns the metadata of a stored resource.
+     *
+     * @param key the path of the resource.
+     * @return the metadata - null if the resource isn't stored.
+     */
+    public PoolObjectMetadata getMetadata(final String key) {
+        final Entry entry = entries.get(key);
+        return entry != null ? entry.metadata : null;
+    }
+
+    /**
+     * Returns the content of a stored resource. The returned buffer stays
+     * valid even if the resource gets replaced or removed.
+     *
+     * @param key the path of the resource.
+     * @return a read-only buffer of the content - null if the resource isn't
+     * stored.
+     * @throws IOException is thrown if the segment couldn't be mapped.
+     */
+    public ByteBuffer getContent(final String key) throws IOException {
+        final Entry entry = entries.get(key);
+        return entry != null ? entry.segment.map(entry.dataOffset, entry.dataLength) : null;
+    }
+
+    /**
+     * Returns the InputStream of a stored resource.
+     *
+     * @param key the path of the resource.
+     * @return the InputStream of the content - null if the resource isn't
+     * stored.
+     * @throws IOException is thrown if the segment couldn't be mapped.
+     */
+    public InputStream getInputStream(final String key) throws IOException {
+        final ByteBuffer content = getContent(key);
+        return content != null ? new ByteBufferInputStream(content) : null;
+    }
+
+    /**
+     * Stores a resource - a previously stored version is replaced.
+     *
+     * @param key      the path of the resource.
+     * @param metadata the metadata of the resource.
+     * @param content  the content of the resource.
+     * @throws IOException is thrown if the resource couldn't be written.
+     */
+    public void put(final String key, final PoolObjectMetadata metadata, final byte[] content)
+        throws IOException {
+        final ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+        metadata.write(metadataBytes);
+        final ByteBuffer record = buildRecord(key, metadataBytes.toByteArray(), ByteBuffer.wrap(content));
+
+        writeLock.lock();
+        try {
+            final Entry entry = append(record, content.length);
+            entry.metadata = metadata;
+            index(key, entry);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a stored resource.
+     *
+     * @param key the path of the resource.
+     */
+    public void remove(final String key) {
+        if (!entries.containsKey(key)) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            if (entries.containsKey(key)) {
+                append(buildRecord(key, null, null), REMOVED);
+                index(key, null);
+            }
+        } catch (final IOException e) {
+            // The resource would be restored by the next start otherwise
+            LOG.error("Couldn't record removal of packed resource '{}'", key, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    int getSegmentCount() {
+        writeLock.lock();
+        try {
+            return segments.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void index(final String key, final Entry entry) {
+        final Entry replaced = entry != null ? entries.put(key, entry) : entries.remove(key);
+
+        if (replaced != null) {
+            replaced.segment.liveBytes -= replaced.recordSize;
+        }
+
+        if (entry != null) {
+            entry.segment.liveBytes += entry.recordSize;
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        final long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        final Segment segment = new Segment(id, new File(directory, String.format("%010d.pack", id)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Builds a record.
+     *
+     * @param metadata the serialized metadata - null for a removal.
+     * @param data     the data - null for a removal.
+     * @return the record, ready to be written.
+     */
+    private static ByteBuffer buildRecord(final String key, final byte[] metadata, final ByteBuffer data) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int metadataLength = metadata != null ? metadata.length : REMOVED;
+        final int dataLength = data != null ? data.remaining() : REMOVED;
+        final int recordSize = HEADER_SIZE + keyBytes.length + Math.max(metadataLength, 0) + Math.max(dataLength, 0);
+
+        final CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+
+        final ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(MAGIC).putInt(keyBytes.length).putInt(metadataLength).putInt(dataLength).putInt(0);
+        record.put(keyBytes);
+        if (metadata != null) {
+            crc.update(metadata);
+            record.put(metadata);
+        }
+        if (data != null) {
+            final ByteBuffer payload = data.duplicate();
+            final int dataOffset = record.position();
+            record.put(payload);
+            crc.update(record.array(), dataOffset, dataLength);
+        }
+        record.putInt(HEADER_SIZE - 4, (int) crc.getValue());
+        record.flip();
+
+        return record;
+    }
+
+    /**
+     * Appends a record to the active segment (while holding writeLock).
+     *
+     * @param record     the record built by {@link #buildRecord(String, byte[], ByteBuffer)}.
+     * @param dataLength the length of the data - {@link #REMOVED} for a removal.
+     * @return the entry of the appended record.
+     */
+    private Entry append(final ByteBuffer record, final int dataLength) throws IOException {
+        if (activeSegment.size > 0 && activeSegment.size + record.remaining() > segmentSize) {
+            activeSegment = newSegment();
+        }
+
+        return activeSegment.append(record, dataLength);
+    }
+
+    /**
+     * Rebuilds the index from the records of a segment.
+     */
+    private void load(final Segment segment) throws IOException {
+        for (final Record record : segment.readRecords()) {
+            index(record.key, record.entry);
+        }
+    }
+
+    /**
+     * Compacts the oldest segment with too many dead records (except the
+     * active one).
+     *
+     * @return true if a segment has been compacted.
+     */
+    boolean compact() throws IOException {
+        Segment victim = null;
+        boolean oldest = false;
+
+        writeLock.lock();
+        try {
+            for (final Segment segment : segments.values()) {
+                if (segment != activeSegment &&
+                    (segment.size - segment.liveBytes) * PERCENT >= segment.size * compactionThreshold) {
+                    victim = segment;
+                    oldest = segment == segments.firstEntry().getValue();
+                    break;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (victim == null) {
+            return false;
+        }
+
+        compact(victim, oldest);
+        return true;
+    }
+
+    /**
+     * Copies the live records of a segment to a new file that replaces the
+     * segment under the same id, so the order of the records is retained.
+     * Only the swap of the index entries holds writeLock - records are
+     * never appended to a segment other than the active one.
+     */
+    private void compact(final Segment segment, final boolean oldest) throws IOException {
+        final File compactedFile = new File(segment.file.getPath() + COMPACTION_SUFFIX);
+        FileUtils.deleteQuietly(compactedFile);
+        final Segment compacted = new Segment(segment.id, compactedFile);
+
+        final Map<String, Entry> copies = new HashMap<>();
+        final Map<String, Entry> originals = new HashMap<>();
+        long removalBytes = 0;
+
+        try {
+            for (final Record record : segment.readRecords()) {
+                final Entry entry = entries.get(record.key);
+
+                if (record.entry != null) {
+                    if (entry != null && entry.segment == segment && entry.offset == record.entry.offset) {
+                        final ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+                        entry.metadata.write(metadataBytes);
+
+                        final Entry copy = compacted.append(buildRecord(record.key, metadataBytes.toByteArray(),
+                            segment.map(entry.dataOffset, entry.dataLength)), entry.dataLength);
+                        copy.metadata = entry.metadata;
+                        copies.put(record.key, copy);
+                        originals.put(record.key, entry);
+                    }
+                } else if (!oldest && entry == null) {
+                    // Older segments may still hold a dead record of the removed resource
+                    removalBytes += compacted.append(buildRecord(record.key, null, null), REMOVED).recordSize;
+                }
+            }
+
+            if (compacted.size > 0) {
+                compacted.channel.force(true);
+                compacted.moveTo(segment.file);
+            }
+        } catch (final IOException | RuntimeException e) {
+            compacted.close();
+            FileUtils.deleteQuietly(compactedFile);
+            throw e;
+        }
+
+        writeLock.lock();
+        try {
+            if (compacted.size > 0) {
+                segments.put(segment.id, compacted);
+
+                // Resources replaced or removed while they were copied keep their new entries
+                for (final Map.Entry<String, Entry> copy : copies.entrySet()) {
+                    if (entries.get(copy.getKey()) == originals.get(copy.getKey())) {
+                        index(copy.getKey(), copy.getValue());
+                    }
+                }
+
+                // Removal records must be kept as long as older segments exist
+                compacted.liveBytes += removalBytes;
+            } else {
+                segments.remove(segment.id);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Buffers returned by getContent stay valid - the regions are mapped already
+        segment.close();
+        if (compacted.size == 0) {
+            compacted.close();
+            FileUtils.deleteQuietly(compactedFile);
+            FileUtils.deleteQuietly(segment.file);
+        }
+
+        LOG.info("Compacted pack segment '{}' - copied {} records", segment.file, copies.size());
+    }
+
+    /**
+     * The location of a stored resource.
+     */
+    private static final class Entry {
+
+        private final Segment segment;
+        private final long offset;
+        private final int recordSize;
+        private final long dataOffset;
+        private final int dataLength;
+        private PoolObjectMetadata metadata;
+
+        private Entry(final Segment segment, final long offset, final int recordSize, final long dataOffset,
+                      final int dataLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.recordSize = recordSize;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+    }
+
+    /**
+     * A record read from a segment.
+     */
+    private static final class Record {
+
+        private final String key;
+
+        /**
+         * The entry of the record - null if the record is a removal.
+         */
+        private final Entry entry;
+
+        private Record(final String key, final Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+    }
+
+    /**
+     * A segment file.
+     */
+    private static final class Segment {
+
+        private final long id;
+        private final FileChannel channel;
+        private File file;
+
+        /**
+         * The size of all records written to the segment.
+         */
+        private volatile long size;
+
+        /**
+         * The size of all records of stored resources (guarded by writeLock).
+         */
+        private long liveBytes;
+
+        /**
+         * The mapped regions of the segment. The key is the offset of the
+         * region. Regions always end at a record boundary.
+         */
+        private final ConcurrentSkipListMap<Long, MappedByteBuffer> regions = new ConcurrentSkipListMap<>();
+
+        /**
+         * Serializes the mapping of appended regions.
+         */
+        private final Lock mapLock = new ReentrantLock();
+
+        /**
+         * The size of the mapped part of the segment (guarded by mapLock).
+         */
+        private long mappedSize;
+
+        private Segment(final long id, final File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            size = channel.size();
+        }
+
+        /**
+         * Appends a record to the end of the segment.
+         *
+         * @return the entry of the appended record.
+         */
+        private Entry append(final ByteBuffer record, final int dataLength) throws IOException {
+            final long offset = size;
+            final int recordSize = record.remaining();
+
+            long position = offset;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            size = position;
+
+            return new Entry(this, offset, recordSize, offset + recordSize - Math.max(dataLength, 0),
+                Math.max(dataLength, 0));
+        }
+
+        /**
+         * Moves the file of the segment - the channel stays open.
+         */
+        private void moveTo(final File target) throws IOException {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            file = target;
+        }
+
+        /**
+         * Returns a read-only buffer of a region of the segment. Only the
+         * part of the segment appended since the last mapping is mapped, if
+         * the region isn't mapped yet.
+         */
+        private ByteBuffer map(final long offset, final int length) throws IOException {
+            Map.Entry<Long, MappedByteBuffer> region = regions.floorEntry(offset);
+            if (region == null || region.getKey() + region.getValue().capacity() < offset + length) {
+                region = mapAppended(offset, offset + length);
+            }
+
+            final ByteBuffer buffer = region.getValue().duplicate();
+            final int position = (int) (offset - region.getKey());
+            buffer.position(position);
+            buffer.limit(position + length);
+            return buffer.slice().asReadOnlyBuffer();
+        }
+
+        private Map.Entry<Long, MappedByteBuffer> mapAppended(final long offset, final long end)
+            throws IOException {
+            mapLock.lock();
+            try {
+                if (mappedSize < end) {
+                    final long regionEnd = Math.max(end, size);
+                    regions.put(mappedSize, channel.map(FileChannel.MapMode.READ_ONLY, mappedSize,
+                        regionEnd - mappedSize));
+                    mappedSize = regionEnd;
+                }
+
+                return regions.floorEntry(offset);
+            } finally {
+                mapLock.unlock();
+            }
+        }
+
+        /**
+         * Reads all records of the segment. A segment ending with an
+         * incomplete or corrupt record (like after a crash) is truncated.
+         */
+        private List<Record> readRecords() throws IOException {
+            final List<Record> records = new ArrayList<>();
+            final ByteBuffer buffer = size > 0 ? map(0, (int) size) : ByteBuffer.allocate(0);
+
+            long offset = 0;
+            while (offset < size) {
+                final Record record = readRecord(buffer, (int) offset);
+                if (record == null) {
+                    LOG.warn("Truncating corrupt pack segment '{}' from {} to {} bytes", file, size, offset);
+                    channel.truncate(offset);
+                    size = offset;
+                    clearRegions();
+                    break;
+                }
+
+                records.add(record);
+                offset += record.entry != null ? record.entry.recordSize : recordSize(buffer, (int) offset);
+            }
+
+            return records;
+        }
+
+        private Record readRecord(final ByteBuffer buffer, final int offset) throws IOException {
+            if (buffer.limit() - offset < HEADER_SIZE || buffer.getInt(offset) != MAGIC) {
+                return null;
+            }
+
+            final int keyLength = buffer.getInt(offset + 4);
+            final int metadataLength = buffer.getInt(offset + 8);
+            final int dataLength = buffer.getInt(offset + 12);
+            final int checksum = buffer.getInt(offset + 16);
+
+            if (keyLength < 1 || metadataLength < REMOVED || dataLength < REMOVED ||
+                (metadataLength == REMOVED) != (dataLength == REMOVED) ||
+                (long) HEADER_SIZE + keyLength + Math.max(metadataLength, 0) + Math.max(dataLength, 0) >
+                    buffer.limit() - offset) {
+                return null;
+            }
+
+            final int keyOffset = offset + HEADER_SIZE;
+            final int metadataOffset = keyOffset + keyLength;
+            final int dataOffset = metadataOffset + Math.max(metadataLength, 0);
+            final int end = dataOffset + Math.max(dataLength, 0);
+
+            final byte[] payload = new byte[end - keyOffset];
+            final ByteBuffer payloadBuffer = buffer.duplicate();
+            payloadBuffer.position(keyOffset);
+            payloadBuffer.get(payload);
+
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+
+            final String key = new String(payload, 0, keyLength, StandardCharsets.UTF_8);
+
+            if (metadataLength == REMOVED) {
+                return new Record(key, null);
+            }
+
+            final PoolObjectMetadata metadata =
+                PoolObjectMetadata.read(new ByteArrayInputStream(payload, keyLength, metadataLength));
+            if (metadata == null) {
+                return null;
+            }
+
+            final Entry entry = new Entry(this, offset, end - offset, dataOffset, dataLength);
+            entry.metadata = metadata;
+            return new Record(key, entry);
+        }
+
+        private void clearRegions() {
+            mapLock.lock();
+            try {
+                regions.clear();
+                mappedSize = 0;
+            } finally {
+                mapLock.unlock();
+            }
+        }
+
+        private static int recordSize(final ByteBuffer buffer, final int offset) {
+            return HEADER_SIZE + buffer.getInt(offset + 4) + Math.max(buffer.getInt(offset + 8), 0) +
+                Math.max(buffer.getInt(offset + 12), 0);
+        }
+
+        private void close() {
+            IOUtils.closeQuietly(channel);
+        }
+
+    }
+
+    private class CompactionTask extends TimerTask {
+
+        @Override
+        public void run() {
+            try {
+                boolean compacted;
+                do {
+                    compacted = compact();
+                } while (compacted);
+            } catch (final IOException | RuntimeException e) {
+                LOG.error("Compaction of pack segments failed", e);
+            }
+        }
+
+    }
+
+}
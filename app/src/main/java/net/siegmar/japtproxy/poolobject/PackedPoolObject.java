@@ -0,0 +1,310 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Util;
+import net.siegmar.japtproxy.packages.RepoPackage;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A PoolObject that keeps the final resource of another PoolObject in the
+ * {@link PackStore}, if it doesn't exceed the maximum object size of the
+ * pack store. Larger resources are stored by the other PoolObject. The
+ * temp resource is always kept by the other PoolObject.
+ * <p/>
+ * Packed resources are only served by {@link #getBuffer()} and
+ * {@link #getInputStream()}.
+ *
+ * @author Oliver Siegmar
+ */
+public class PackedPoolObject implements PoolObject {
+
+    /**
+     * The PoolObject that holds the temp resource and large final resources.
+     */
+    private final PoolObject delegate;
+
+    /**
+     * The key of the final resource in the pack store.
+     */
+    private final String key;
+
+    /**
+     * The PackStore instance.
+     */
+    private final PackStore packStore;
+
+    /**
+     * The timestamp set on the temp resource.
+     */
+    private volatile long tmpLastModified;
+
+    /**
+     * The metadata of the temp resource - saved by {@link #store()}.
+     */
+    private volatile PoolObjectMetadata tmpMetadata;
+
+    public PackedPoolObject(final PoolObject delegate, final String key, final PackStore packStore) {
+        this.delegate = delegate;
+        this.key = key;
+        this.packStore = packStore;
+    }
+
+    public PoolObject getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLastModified() {
+        final PoolObjectMetadata metadata = packStore.getMetadata(key);
+        return metadata != null ? metadata.getLastModified() : delegate.getLastModified();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLastModified(final long lastModified) throws IOException {
+        delegate.setLastModified(lastModified);
+        tmpLastModified = lastModified;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PoolObjectMetadata getMetadata() {
+        final PoolObjectMetadata metadata = packStore.getMetadata(key);
+        return metadata != null ? metadata : delegate.getMetadata();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMetadata(final PoolObjectMetadata metadata) {
+        delegate.setMetadata(metadata);
+        tmpMetadata = metadata;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSize() {
+        final PoolObjectMetadata metadata = packStore.getMetadata(key);
+        return metadata != null ? metadata.getSize() : delegate.getSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentType() {
+        final PoolObjectMetadata metadata = packStore.getMetadata(key);
+        return metadata != null ? metadata.getContentType() : delegate.getContentType();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        final InputStream is = packStore.getInputStream(key);
+        return is != null ? is : delegate.getInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer getBuffer() throws IOException {
+        final ByteBuffer content = packStore.getContent(key);
+        return content != null ? content : delegate.getBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getChannel() throws IOException {
+        return delegate.getChannel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getTempInputStream() throws IOException {
+        return delegate.getTempInputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OutputStream getOutputStream(final boolean append) throws IOException {
+        return delegate.getOutputStream(append);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getTempChannel() throws IOException {
+        return delegate.getTempChannel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTemp(final long offset, final long length) throws IOException {
+        delegate.createTemp(offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPartialSize() {
+        return delegate.getPartialSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPartialValidator() {
+        return delegate.getPartialValidator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void keepPartial(final String validator) throws IOException {
+        delegate.keepPartial(validator);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removePartial() {
+        delegate.removePartial();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * A temp resource not exceeding the maximum object size is appended to
+     * the pack store - a final resource of the delegate is removed then.
+     */
+    @Override
+    public void store() throws IOException {
+        final byte[] content = readTempResource();
+
+        if (content == null) {
+            packStore.remove(key);
+            delegate.store();
+            return;
+        }
+
+        final PoolObjectMetadata savedMetadata = tmpMetadata;
+        final long savedLastModified = tmpLastModified;
+        final String contentType = savedMetadata != null && savedMetadata.getContentType() != null
+            ? savedMetadata.getContentType()
+            : Util.getMimetype(getName());
+        final PoolObjectMetadata storedMetadata = new PoolObjectMetadata(
+            savedLastModified != 0 ? savedLastModified : System.currentTimeMillis(), content.length, contentType,
+            savedMetadata != null ? savedMetadata.getETag() : null,
+            savedMetadata != null ? savedMetadata.getUrl() : null);
+
+        packStore.put(key, storedMetadata, content);
+        tmpLastModified = 0;
+        tmpMetadata = null;
+
+        // Removes the temp resource and the final resource of a previous version
+        delegate.remove();
+    }
+
+    /**
+     * Reads the temp resource.
+     *
+     * @return the content of the temp resource - null if it exceeds the
+     * maximum object size of the pack store.
+     */
+    private byte[] readTempResource() throws IOException {
+        final long maxObjectSize = packStore.getMaxObjectSize();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final byte[] buf = new byte[Util.DEFAULT_BUFFER_SIZE];
+
+        final InputStream is = delegate.getTempInputStream();
+        try {
+            int len;
+            while ((len = is.read(buf)) != -1) {
+                content.write(buf, 0, len);
+                if (content.size() > maxObjectSize) {
+                    return null;
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        return content.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        packStore.remove(key);
+        delegate.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RepoPackage getRepoPackage() {
+        return delegate.getRepoPackage();
+    }
+
+}
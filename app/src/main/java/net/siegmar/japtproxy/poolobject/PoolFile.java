@@ -21,6 +21,8 @@ package net.siegmar.japtproxy.poolobject;
 import net.siegmar.japtproxy.misc.Util;
 import net.siegmar.japtproxy.packages.RepoPackage;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.CharEncoding;
+import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,6 +30,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A file-based PoolObject implementation.
@@ -46,22 +53,142 @@ public class PoolFile implements PoolObject {
      */
     private final File resource;
 
+    /**
+     * The file handle of the validator of a partial download.
+     */
+    private final File validatorResource;
+
+    /**
+     * The metadata file handle.
+     */
+    private final File metadataResource;
+
     private final RepoPackage repoPackage;
 
     /**
-     * Initialize the PoolFile with the given resource.
+     * The cache of the metadata (may be null).
+     */
+    private final MetadataCache metadataCache;
+
+    /**
+     * The listener notified about stored and removed resources (may be null).
+     */
+    private final PoolFileListener listener;
+
+    /**
+     * The metadata of the final resource (loaded lazily).
+     */
+    private final AtomicReference<PoolObjectMetadata> metadata = new AtomicReference<>();
+
+    /**
+     * The metadata of the temp resource - saved by {@link #store()}.
+     */
+    private volatile PoolObjectMetadata tmpMetadata;
+
+    /**
+     * Initialize the PoolFile with the given resource. The directory of the
+     * resource is created as soon as data gets written.
      *
      * @param resource the file handle.
-     * @throws IOException is thrown if the initialization fails.
      */
-    public PoolFile(final File resource, final RepoPackage repoPackage)
-        throws IOException {
+    public PoolFile(final File resource, final RepoPackage repoPackage) {
+        this(resource, repoPackage, null);
+    }
+
+    /**
+     * Initialize the PoolFile with the given resource. The directory of the
+     * resource is created as soon as data gets written.
+     *
+     * @param resource      the file handle.
+     * @param metadataCache the cache of the metadata (may be null).
+     */
+    public PoolFile(final File resource, final RepoPackage repoPackage, final MetadataCache metadataCache) {
+        this(resource, repoPackage, metadataCache, null);
+    }
+
+    /**
+     * Initialize the PoolFile with the given resource. The directory of the
+     * resource is created as soon as data gets written.
+     *
+     * @param resource      the file handle.
+     * @param metadataCache the cache of the metadata (may be null).
+     * @param listener      the listener notified about stored and removed
+     *                      resources (may be null).
+     */
+    public PoolFile(final File resource, final RepoPackage repoPackage, final MetadataCache metadataCache,
+                    final PoolFileListener listener) {
         this.resource = resource;
         this.repoPackage = repoPackage;
+        this.metadataCache = metadataCache;
+        this.listener = listener;
         tmpResource = new File(resource.getAbsolutePath() + ".tmp");
+        validatorResource = new File(resource.getAbsolutePath() + ".tmp.validator");
+        metadataResource = getMetadataFile(resource);
+    }
+
+    /**
+     * Returns the metadata file of a resource.
+     *
+     * @param resource the file handle.
+     * @return the metadata file handle.
+     */
+    public static File getMetadataFile(final File resource) {
+        return new File(resource.getAbsolutePath() + ".meta");
+    }
 
-        final File dir = resource.getParentFile();
-        FileUtils.forceMkdir(dir);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PoolObjectMetadata getMetadata() {
+        final PoolObjectMetadata current = metadata.get();
+        if (current != null) {
+            return current;
+        }
+
+        PoolObjectMetadata loaded = metadataCache != null ? metadataCache.get(resource.getAbsolutePath()) : null;
+
+        if (loaded == null) {
+            loaded = loadMetadata();
+
+            if (loaded != null && metadataCache != null) {
+                metadataCache.put(resource.getAbsolutePath(), loaded);
+            }
+        }
+
+        // A concurrent store() wins
+        return metadata.compareAndSet(null, loaded) ? loaded : metadata.get();
+    }
+
+    /**
+     * Reads the metadata file of the final resource. Resources stored without
+     * a (valid) metadata file get metadata derived from the file system.
+     *
+     * @return the metadata or null if the final resource doesn't exist
+     */
+    private PoolObjectMetadata loadMetadata() {
+        final long size = resource.length();
+        final long lastModified = resource.lastModified();
+
+        if (lastModified == 0) {
+            return null;
+        }
+
+        final PoolObjectMetadata storedMetadata = PoolObjectMetadata.read(metadataResource);
+        if (storedMetadata != null && storedMetadata.getSize() == size &&
+            storedMetadata.getLastModified() == lastModified) {
+            return storedMetadata;
+        }
+
+        return new PoolObjectMetadata(lastModified, size, Util.getMimetype(resource.getName()), null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMetadata(final PoolObjectMetadata metadata) {
+        tmpMetadata = metadata;
     }
 
     /**
@@ -69,7 +196,8 @@ public class PoolFile implements PoolObject {
      */
     @Override
     public long getLastModified() {
-        return resource.lastModified();
+        final PoolObjectMetadata poolObjectMetadata = getMetadata();
+        return poolObjectMetadata != null ? poolObjectMetadata.getLastModified() : 0;
     }
 
     /**
@@ -87,7 +215,8 @@ public class PoolFile implements PoolObject {
      */
     @Override
     public long getSize() {
-        return resource.length();
+        final PoolObjectMetadata poolObjectMetadata = getMetadata();
+        return poolObjectMetadata != null ? poolObjectMetadata.getSize() : 0;
     }
 
     /**
@@ -95,7 +224,10 @@ public class PoolFile implements PoolObject {
      */
     @Override
     public String getContentType() {
-        return Util.getMimetype(resource.getName());
+        final PoolObjectMetadata poolObjectMetadata = getMetadata();
+        return poolObjectMetadata != null
+            ? poolObjectMetadata.getContentType()
+            : Util.getMimetype(resource.getName());
     }
 
     /**
@@ -111,9 +243,109 @@ public class PoolFile implements PoolObject {
      * {@inheritDoc}
      */
     @Override
-    public OutputStream getOutputStream()
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getChannel()
         throws IOException {
-        return new FileOutputStream(tmpResource);
+        return FileChannel.open(resource.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getTempInputStream()
+        throws IOException {
+        return new FileInputStream(tmpResource);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OutputStream getOutputStream(final boolean append)
+        throws IOException {
+        FileUtils.forceMkdir(resource.getParentFile());
+        return new FileOutputStream(tmpResource, append);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileChannel getTempChannel()
+        throws IOException {
+        FileUtils.forceMkdir(resource.getParentFile());
+        return FileChannel.open(tmpResource.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createTemp(final long offset, final long length)
+        throws IOException {
+        FileUtils.forceMkdir(resource.getParentFile());
+
+        final RandomAccessFile file = new RandomAccessFile(tmpResource, "rw");
+        try {
+            file.setLength(offset);
+
+            if (length != -1) {
+                // The allocated space isn't data that could be resumed at
+                FileUtils.deleteQuietly(validatorResource);
+                file.setLength(length);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPartialSize() {
+        return validatorResource.exists() ? tmpResource.length() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPartialValidator() {
+        if (!validatorResource.exists()) {
+            return null;
+        }
+
+        try {
+            return StringUtils.trimToNull(FileUtils.readFileToString(validatorResource, CharEncoding.UTF_8));
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void keepPartial(final String validator) throws IOException {
+        FileUtils.writeStringToFile(validatorResource, validator, CharEncoding.UTF_8);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removePartial() {
+        FileUtils.deleteQuietly(validatorResource);
+        FileUtils.deleteQuietly(tmpResource);
     }
 
     /**
@@ -121,6 +353,10 @@ public class PoolFile implements PoolObject {
      */
     @Override
     public void store() throws IOException {
+        // The metadata of the old version must not survive a failed store
+        invalidateMetadata();
+        FileUtils.deleteQuietly(metadataResource);
+
         if (resource.exists()) {
             if (!resource.delete()) {
                 throw new IOException("Couldn't delete file '" + resource + "'");
@@ -130,6 +366,35 @@ public class PoolFile implements PoolObject {
         if (!tmpResource.renameTo(resource)) {
             throw new IOException("Couldn't rename '" + tmpResource + "' to '" + resource + "'");
         }
+
+        FileUtils.deleteQuietly(validatorResource);
+
+        final PoolObjectMetadata savedMetadata = tmpMetadata;
+        final String contentType = savedMetadata != null && savedMetadata.getContentType() != null
+            ? savedMetadata.getContentType()
+            : Util.getMimetype(resource.getName());
+        final PoolObjectMetadata storedMetadata = new PoolObjectMetadata(resource.lastModified(), resource.length(),
+            contentType, savedMetadata != null ? savedMetadata.getETag() : null,
+            savedMetadata != null ? savedMetadata.getUrl() : null);
+
+        storedMetadata.write(metadataResource);
+        tmpMetadata = null;
+
+        metadata.set(storedMetadata);
+        if (metadataCache != null) {
+            metadataCache.put(resource.getAbsolutePath(), storedMetadata);
+        }
+
+        if (listener != null) {
+            listener.stored(resource, storedMetadata.getSize());
+        }
+    }
+
+    private void invalidateMetadata() {
+        metadata.set(null);
+        if (metadataCache != null) {
+            metadataCache.remove(resource.getAbsolutePath());
+        }
     }
 
     /**
@@ -137,8 +402,14 @@ public class PoolFile implements PoolObject {
      */
     @Override
     public void remove() {
+        invalidateMetadata();
+        FileUtils.deleteQuietly(metadataResource);
         FileUtils.deleteQuietly(resource);
-        FileUtils.deleteQuietly(tmpResource);
+        removePartial();
+
+        if (listener != null) {
+            listener.removed(resource);
+        }
     }
 
     /**
@@ -0,0 +1,46 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import java.io.File;
+
+/**
+ * A PoolFileListener is notified whenever the final resource of a PoolFile
+ * is stored or removed.
+ *
+ * @author Oliver Siegmar
+ */
+public interface PoolFileListener {
+
+    /**
+     * Called after the final resource has been stored.
+     *
+     * @param resource the final resource.
+     * @param size     the size of the final resource.
+     */
+    void stored(File resource, long size);
+
+    /**
+     * Called after the final resource has been removed.
+     *
+     * @param resource the final resource.
+     */
+    void removed(File resource);
+
+}
@@ -23,6 +23,8 @@ import net.siegmar.japtproxy.packages.RepoPackage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Oliver Siegmar
@@ -43,6 +45,21 @@ public interface PoolObject {
      */
     void setLastModified(long lastModified) throws IOException;
 
+    /**
+     * Get the metadata of the final resource.
+     *
+     * @return the metadata of the final resource - null if it doesn't exist.
+     */
+    PoolObjectMetadata getMetadata();
+
+    /**
+     * Set the metadata reported by the remote host for the temp resource.
+     * It is saved along with the temp resource by {@link #store()}.
+     *
+     * @param metadata the metadata of the temp resource.
+     */
+    void setMetadata(PoolObjectMetadata metadata);
+
     /**
      * Get the size of the final resource.
      *
@@ -65,16 +82,97 @@ public interface PoolObject {
      */
     InputStream getInputStream() throws IOException;
 
+    /**
+     * Get the content of the final resource if it is held in memory.
+     *
+     * @return a read-only buffer of the final resource - null if the content
+     * isn't held in memory.
+     * @throws IOException is thrown if this operation fails.
+     */
+    ByteBuffer getBuffer() throws IOException;
+
+    /**
+     * Get a channel of the final resource for reading.
+     *
+     * @return the FileChannel of the final resource.
+     * @throws IOException is thrown if this operation fails.
+     */
+    FileChannel getChannel() throws IOException;
+
+    /**
+     * Get the InputStream of the temp resource. The temp resource may still
+     * be growing while it is read.
+     *
+     * @return the InputStream of the temp resource.
+     * @throws IOException is thrown if this operation fails.
+     */
+    InputStream getTempInputStream() throws IOException;
+
     /**
      * Get the OutputStream of the temp resource.
      *
+     * @param append if the data should be appended to a partial download
+     *               kept in the temp resource.
      * @return the OutputStream of the temp resource.
      * @throws IOException is thrown if this operation fails.
      */
-    OutputStream getOutputStream() throws IOException;
+    OutputStream getOutputStream(boolean append) throws IOException;
+
+    /**
+     * Get a channel of the temp resource for positional writes from several
+     * threads.
+     *
+     * @return the FileChannel of the temp resource.
+     * @throws IOException is thrown if this operation fails.
+     */
+    FileChannel getTempChannel() throws IOException;
+
+    /**
+     * Creates the temp resource of a download before any data is written to
+     * it, so it can be read as soon as the download is published. Data of a
+     * partial download behind the given offset is dropped.
+     *
+     * @param offset the size of the partial download the download resumes
+     *               at (0 if the download starts from the beginning).
+     * @param length the length to allocate for positional writes (-1 if the
+     *               data gets appended).
+     * @throws IOException is thrown if this operation fails.
+     */
+    void createTemp(long offset, long length) throws IOException;
+
+    /**
+     * Get the size of a partial download kept in the temp resource.
+     *
+     * @return the size of the partial download (0 if there is none).
+     */
+    long getPartialSize();
+
+    /**
+     * Get the validator (entity tag or Last-Modified date) of a partial
+     * download kept in the temp resource.
+     *
+     * @return the validator of the partial download (null if there is none).
+     */
+    String getPartialValidator();
+
+    /**
+     * Keeps the temp resource of an interrupted download to resume it later.
+     *
+     * @param validator the validator the remote resource has to match when
+     *                  the download is resumed.
+     * @throws IOException is thrown if this operation fails.
+     */
+    void keepPartial(String validator) throws IOException;
+
+    /**
+     * Removes the temp resource including a kept partial download.
+     */
+    void removePartial();
 
     /**
-     * Saves the temp resource to the final one.
+     * Saves the temp resource to the final one. Implementations don't
+     * synchronize this - a new instance is created for every request, callers
+     * hold the write lock of the resource (see {@link net.siegmar.japtproxy.misc.ResourceLock}).
      */
     void store() throws IOException;
 
@@ -0,0 +1,198 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The PoolObjectMetadata holds the properties of a stored pool object
+ * as reported by the remote host it was downloaded from. It is persisted
+ * in a small properties file next to the pool object.
+ *
+ * @author Oliver Siegmar
+ */
+public final class PoolObjectMetadata {
+
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String SIZE = "size";
+    private static final String CONTENT_TYPE = "contentType";
+    private static final String ETAG = "eTag";
+    private static final String URL = "url";
+
+    /**
+     * The last modification timestamp reported by the remote host.
+     */
+    private final long lastModified;
+
+    /**
+     * The size of the pool object.
+     */
+    private final long size;
+
+    /**
+     * The content type reported by the remote host (may be null).
+     */
+    private final String contentType;
+
+    /**
+     * The entity tag reported by the remote host (may be null).
+     */
+    private final String eTag;
+
+    /**
+     * The remote resource the pool object was downloaded from (may be null).
+     */
+    private final String url;
+
+    public PoolObjectMetadata(final long lastModified, final long size, final String contentType,
+                              final String eTag, final String url) {
+        this.lastModified = lastModified;
+        this.size = size;
+        this.contentType = contentType;
+        this.eTag = eTag;
+        this.url = url;
+    }
+
+    /**
+     * Reads the metadata from a file.
+     *
+     * @param file the metadata file
+     * @return the metadata or null if the file doesn't exist or is invalid
+     */
+    public static PoolObjectMetadata read(final File file) {
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            return read(is);
+        } catch (final IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Reads the metadata from a stream.
+     *
+     * @param is the stream to read from
+     * @return the metadata or null if the metadata is invalid
+     * @throws IOException is thrown if the stream couldn't be read
+     */
+    static PoolObjectMetadata read(final InputStream is) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(is);
+
+        final long lastModified = NumberUtils.toLong(properties.getProperty(LAST_MODIFIED), -1);
+        final long size = NumberUtils.toLong(properties.getProperty(SIZE), -1);
+
+        if (lastModified < 0 || size < 0) {
+            return null;
+        }
+
+        return new PoolObjectMetadata(lastModified, size, properties.getProperty(CONTENT_TYPE),
+            properties.getProperty(ETAG), properties.getProperty(URL));
+    }
+
+    /**
+     * Writes the metadata to a file. The file is replaced atomically.
+     *
+     * @param file the metadata file
+     * @throws IOException is thrown if the file couldn't be written
+     */
+    public void write(final File file) throws IOException {
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final OutputStream os = new FileOutputStream(tmpFile);
+        try {
+            write(os);
+        } finally {
+            os.close();
+        }
+
+        FileUtils.deleteQuietly(file);
+        if (!tmpFile.renameTo(file)) {
+            FileUtils.deleteQuietly(tmpFile);
+            throw new IOException("Couldn't rename '" + tmpFile + "' to '" + file + "'");
+        }
+    }
+
+    /**
+     * Writes the metadata to a stream.
+     *
+     * @param os the stream to write to
+     * @throws IOException is thrown if the stream couldn't be written
+     */
+    void write(final OutputStream os) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(LAST_MODIFIED, Long.toString(lastModified));
+        properties.setProperty(SIZE, Long.toString(size));
+        setIfNotNull(properties, CONTENT_TYPE, contentType);
+        setIfNotNull(properties, ETAG, eTag);
+        setIfNotNull(properties, URL, url);
+        properties.store(os, null);
+    }
+
+    private static void setIfNotNull(final Properties properties, final String key, final String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("lastModified", lastModified)
+            .append("size", size)
+            .append("contentType", contentType)
+            .append("eTag", eTag)
+            .append("url", url)
+            .toString();
+    }
+
+}
@@ -0,0 +1,715 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The TieredStorage splits the cached files into a hot tier (the cache
+ * directory - on a fast device) and a cold tier (a directory with the same
+ * layout - on a large device). New files are stored in the hot tier. As
+ * soon as the hot tier exceeds its size, the least recently accessed files
+ * are demoted to the cold tier in the background. Files of the cold tier
+ * are promoted back as soon as they're hit repeatedly.
+ * <p/>
+ * The files of the cold tier are held in memory (built from the
+ * CacheInventory at startup), so locating a file doesn't access the file
+ * system. A moved file is only deleted from its previous tier after a
+ * while, as requests may still be about to open it.
+ * <p/>
+ * Locating files and recording accesses doesn't lock - the demotion order
+ * is only updated by the background thread.
+ *
+ * @author Oliver Siegmar
+ */
+public class TieredStorage implements PoolFileListener, InventoryListener {
+
+    /**
+     * The logger instance.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(TieredStorage.class);
+
+    /**
+     * Files accessed more recently are never demoted - they may still be
+     * opened by a request.
+     */
+    private static final long MIN_IDLE_TIME = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The percentage of the hot tier size the demotion ends at.
+     */
+    private static final int DEMOTION_TARGET = 90;
+
+    private static final int PERCENT = 100;
+
+    /**
+     * Content-addressed resources are linked to their twins - they're never
+     * demoted.
+     */
+    private static final String BY_HASH_DIRECTORY = "by-hash";
+
+    private static final Comparator<Entry> LRU_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry e1, final Entry e2) {
+            final int cmp = Long.compare(e1.orderedAccess, e2.orderedAccess);
+            return cmp != 0 ? cmp : Long.compare(e1.sequence, e2.sequence);
+        }
+    };
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "tiered-storage");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicBoolean demoting = new AtomicBoolean();
+
+    /**
+     * The files of the hot tier. The key is the path relative to the tier.
+     */
+    private final Map<String, Entry> hotFiles = new ConcurrentHashMap<>();
+
+    /**
+     * The files of the hot tier in demotion order.
+     */
+    private final TreeSet<Entry> demotionOrder = new TreeSet<>(LRU_COMPARATOR);
+
+    /**
+     * The files of the cold tier (the paths relative to the tier).
+     */
+    private final Set<String> coldFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The number of hits of files of the cold tier within the current hit window.
+     */
+    private final ConcurrentHashMap<String, AtomicInteger> coldHits = new ConcurrentHashMap<>();
+
+    /**
+     * The files of the cold tier scheduled for promotion.
+     */
+    private final Set<String> promotions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private Configuration configuration;
+    private MetadataCache metadataCache;
+    private DiskQuota diskQuota;
+
+    /**
+     * The interval hits of the cold tier are counted within.
+     */
+    private int hitWindow;
+
+    private Path hotDir;
+    private Path coldDir;
+
+    /**
+     * The total size of all files of the hot tier.
+     */
+    private long hotSize;
+
+    private long sequence;
+
+    private volatile boolean inventoryCompleted;
+
+    @Required
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Required
+    public void setMetadataCache(final MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    @Required
+    public void setDiskQuota(final DiskQuota diskQuota) {
+        this.diskQuota = diskQuota;
+    }
+
+    @Required
+    public void setHitWindow(final int hitWindow) {
+        this.hitWindow = hitWindow;
+    }
+
+    @PostConstruct
+    public void init() {
+        hotDir = configuration.getCacheDir().getAbsoluteFile().toPath();
+
+        if (configuration.getColdTierDirectory() == null) {
+            LOG.debug("Tiered storage is disabled");
+            return;
+        }
+
+        coldDir = configuration.getColdTierDirectory().getAbsoluteFile().toPath();
+
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                resetHits();
+            }
+        }, hitWindow, hitWindow, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Checks if tiered storage is enabled.
+     *
+     * @return true if tiered storage is enabled.
+     */
+    public boolean isEnabled() {
+        return coldDir != null;
+    }
+
+    /**
+     * Locates a file of the cache directory. Until the inventory has been
+     * completed, files not found in the hot tier are looked up in the cold
+     * tier.
+     *
+     * @param file the file within the cache directory (the hot tier).
+     * @return the file within the tier it is stored in - the given file if
+     * it isn't stored in the cold tier.
+     */
+    public File locate(final File file) {
+        if (!isEnabled()) {
+            return file;
+        }
+
+        final String key = getKey(file.getAbsoluteFile().toPath(), hotDir);
+        if (key == null) {
+            return file;
+        }
+
+        if (coldFiles.contains(key)) {
+            return getColdFile(key);
+        }
+
+        if (!inventoryCompleted && !file.exists()) {
+            final File coldFile = getColdFile(key);
+            if (coldFile.exists()) {
+                return coldFile;
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Returns the file of the hot tier that corresponds to a file of any tier.
+     *
+     * @param file the file within the hot or cold tier.
+     * @return the file within the hot tier - the given file if it isn't
+     * located in the cold tier.
+     */
+    public File getHotFile(final File file) {
+        if (!isEnabled()) {
+            return file;
+        }
+
+        final String key = getKey(file.getAbsoluteFile().toPath(), coldDir);
+        return key != null ? getHotFile(key) : file;
+    }
+
+    /**
+     * Returns the file of the cold tier that corresponds to a file of the
+     * hot tier.
+     *
+     * @param file the file within the hot tier.
+     * @return the file within the cold tier - null if tiered storage is
+     * disabled or if the given file isn't located in the hot tier.
+     */
+    public File getColdFile(final File file) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        final String key = getKey(file.getAbsoluteFile().toPath(), hotDir);
+        return key != null ? getColdFile(key) : null;
+    }
+
+    private File getHotFile(final String key) {
+        return hotDir.resolve(key).toFile();
+    }
+
+    private File getColdFile(final String key) {
+        return coldDir.resolve(key).toFile();
+    }
+
+    private static String getKey(final Path path, final Path tierDir) {
+        if (!path.startsWith(tierDir) || path.getNameCount() <= tierDir.getNameCount()) {
+            return null;
+        }
+
+        return tierDir.relativize(path).toString();
+    }
+
+    /**
+     * Records an access to a file. Files of the cold tier are promoted as
+     * soon as they're hit repeatedly.
+     *
+     * @param file the accessed file (as returned by {@link #locate(File)}).
+     */
+    public void accessed(final File file) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final Path path = file.getAbsoluteFile().toPath();
+        final String hotKey = getKey(path, hotDir);
+        final String coldKey = getKey(path, coldDir);
+
+        if (hotKey != null) {
+            // Moved to its new position in the demotion order by the demotion
+            final Entry entry = hotFiles.get(hotKey);
+            if (entry != null) {
+                entry.lastAccess = System.currentTimeMillis();
+            }
+            return;
+        }
+
+        if (coldKey == null || !coldFiles.contains(coldKey)) {
+            return;
+        }
+
+        AtomicInteger hits = coldHits.get(coldKey);
+        if (hits == null) {
+            final AtomicInteger newHits = new AtomicInteger();
+            hits = coldHits.putIfAbsent(coldKey, newHits);
+            if (hits == null) {
+                hits = newHits;
+            }
+        }
+
+        if (hits.incrementAndGet() == configuration.getPromotionHits()) {
+            coldHits.remove(coldKey, hits);
+            schedulePromotion(coldKey);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Files stored in the cold tier (new versions of cold files) are
+     * promoted, as new files belong to the hot tier.
+     */
+    @Override
+    public void stored(final File resource, final long size) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final Path path = resource.getAbsoluteFile().toPath();
+        final String hotKey = getKey(path, hotDir);
+
+        if (hotKey != null) {
+            add(hotKey, size, System.currentTimeMillis(), true);
+            demoteIfRequired();
+            return;
+        }
+
+        final String coldKey = getKey(path, coldDir);
+        if (coldKey != null) {
+            coldFiles.add(coldKey);
+            schedulePromotion(coldKey);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void removed(final File resource) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final Path path = resource.getAbsoluteFile().toPath();
+        final String hotKey = getKey(path, hotDir);
+
+        if (hotKey != null) {
+            removeHot(hotKey);
+            return;
+        }
+
+        final String coldKey = getKey(path, coldDir);
+        if (coldKey != null) {
+            coldFiles.remove(coldKey);
+            coldHits.remove(coldKey);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void inventoried(final List<CacheInventory.Entry> inventoryEntries) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        for (final CacheInventory.Entry inventoryEntry : inventoryEntries) {
+            final Path path = inventoryEntry.getFile().getAbsoluteFile().toPath();
+            final String hotKey = getKey(path, hotDir);
+
+            if (hotKey != null) {
+                add(hotKey, inventoryEntry.getSize(), inventoryEntry.getLastModified(), false);
+                continue;
+            }
+
+            // A file found in both tiers (interrupted move) is served from the hot tier
+            final String coldKey = getKey(path, coldDir);
+            if (coldKey != null && !hotFiles.containsKey(coldKey)) {
+                coldFiles.add(coldKey);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void inventoryCompleted() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        inventoryCompleted = true;
+
+        synchronized (this) {
+            LOG.info("Indexed {} files ({} bytes) in the hot tier and {} files in the cold tier",
+                hotFiles.size(), hotSize, coldFiles.size());
+        }
+
+        demoteIfRequired();
+    }
+
+    private synchronized void add(final String key, final long size, final long lastAccess, final boolean replace) {
+        if (key.startsWith(BY_HASH_DIRECTORY + File.separator)) {
+            return;
+        }
+
+        if (hotFiles.containsKey(key)) {
+            if (!replace) {
+                return;
+            }
+            removeHot(key);
+        }
+
+        coldFiles.remove(key);
+        coldHits.remove(key);
+
+        final Entry entry = new Entry(key, size, sequence++);
+        entry.lastAccess = lastAccess;
+        entry.orderedAccess = lastAccess;
+        hotFiles.put(key, entry);
+        demotionOrder.add(entry);
+        hotSize += size;
+    }
+
+    private void removeHot(final String key) {
+        final Entry entry = hotFiles.remove(key);
+        if (entry != null) {
+            demotionOrder.remove(entry);
+            hotSize -= entry.size;
+        }
+    }
+
+    public int getHotFileCount() {
+        return hotFiles.size();
+    }
+
+    public int getColdFileCount() {
+        return coldFiles.size();
+    }
+
+    public synchronized long getHotSize() {
+        return hotSize;
+    }
+
+    private void resetHits() {
+        coldHits.clear();
+    }
+
+    private void schedulePromotion(final String key) {
+        if (!promotions.add(key)) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    promote(key);
+                } catch (final RuntimeException e) {
+                    LOG.error("Promotion of '{}' failed", key, e);
+                } finally {
+                    promotions.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies a file of the cold tier to the hot tier.
+     *
+     * @param key the path of the file relative to the tier.
+     */
+    void promote(final String key) {
+        final File coldFile = getColdFile(key);
+        final File hotFile = getHotFile(key);
+
+        if (!copy(coldFile, hotFile)) {
+            return;
+        }
+
+        final long size = hotFile.length();
+        final boolean removed;
+        synchronized (this) {
+            removed = !coldFiles.contains(key);
+            if (!removed) {
+                add(key, size, System.currentTimeMillis(), true);
+            }
+        }
+
+        if (removed) {
+            // Removed while it was copied
+            delete(hotFile);
+            return;
+        }
+
+        LOG.debug("Promoted '{}' to the hot tier", key);
+        metadataCache.remove(coldFile.getAbsolutePath());
+        metadataCache.remove(hotFile.getAbsolutePath());
+        diskQuota.stored(hotFile, size);
+        scheduleDeletion(key, false);
+        demoteIfRequired();
+    }
+
+    private void demoteIfRequired() {
+        if (!inventoryCompleted || !isAboveHotSize(PERCENT) || !demoting.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    demote(System.currentTimeMillis());
+                } catch (final RuntimeException e) {
+                    LOG.error("Demotion of cached files failed", e);
+                } finally {
+                    demoting.set(false);
+                }
+            }
+        });
+    }
+
+    private synchronized boolean isAboveHotSize(final int percentage) {
+        return hotSize * PERCENT > configuration.getHotTierSize() * percentage;
+    }
+
+    /**
+     * Demotes the least recently accessed files of the hot tier until the
+     * hot tier is below its demotion target.
+     *
+     * @param now the current timestamp.
+     */
+    void demote(final long now) {
+        int demotedFiles = 0;
+        long demotedBytes = 0;
+
+        Entry entry;
+        while ((entry = nextDemotion(now)) != null) {
+            final File hotFile = getHotFile(entry.key);
+            final File coldFile = getColdFile(entry.key);
+
+            if (!copy(hotFile, coldFile)) {
+                continue;
+            }
+
+            final boolean storedAgain;
+            synchronized (this) {
+                storedAgain = hotFiles.containsKey(entry.key);
+                if (!storedAgain) {
+                    coldFiles.add(entry.key);
+                }
+            }
+
+            if (storedAgain) {
+                // Stored again while it was copied
+                delete(coldFile);
+                continue;
+            }
+
+            metadataCache.remove(hotFile.getAbsolutePath());
+            diskQuota.removed(hotFile);
+            scheduleDeletion(entry.key, true);
+
+            demotedFiles++;
+            demotedBytes += entry.size;
+        }
+
+        if (demotedFiles > 0) {
+            LOG.info("Demoted {} files with {} bytes to the cold tier", demotedFiles, demotedBytes);
+        }
+    }
+
+    /**
+     * Removes the next file to demote from the hot tier.
+     *
+     * @return the next file to demote - null if the hot tier is below its
+     * demotion target (or all remaining files have been accessed recently).
+     */
+    private synchronized Entry nextDemotion(final long now) {
+        if (demotionOrder.isEmpty() || !isAboveHotSize(DEMOTION_TARGET)) {
+            return null;
+        }
+
+        Entry entry = demotionOrder.first();
+
+        // Files accessed since they have been ordered move to their new position
+        while (entry.orderedAccess != entry.lastAccess) {
+            demotionOrder.remove(entry);
+            entry.orderedAccess = entry.lastAccess;
+            demotionOrder.add(entry);
+            entry = demotionOrder.first();
+        }
+
+        if (now - entry.lastAccess < MIN_IDLE_TIME) {
+            return null;
+        }
+
+        removeHot(entry.key);
+        return entry;
+    }
+
+    /**
+     * Copies a file (and its metadata file) to the other tier. The target is
+     * replaced atomically.
+     *
+     * @return true if the file has been copied.
+     */
+    private static boolean copy(final File source, final File target) {
+        try {
+            FileUtils.forceMkdir(target.getParentFile());
+
+            final File metadataSource = PoolFile.getMetadataFile(source);
+            if (metadataSource.exists()) {
+                copyAtomically(metadataSource, PoolFile.getMetadataFile(target));
+            }
+
+            copyAtomically(source, target);
+            return true;
+        } catch (final IOException e) {
+            LOG.warn("Couldn't copy '{}' to '{}'", source, target, e);
+            return false;
+        }
+    }
+
+    private static void copyAtomically(final File source, final File target) throws IOException {
+        final File tmpFile = new File(target.getPath() + ".tier.tmp");
+        try {
+            Files.copy(source.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    /**
+     * Deletes the copy of a moved file from its previous tier, unless the
+     * file has been stored in that tier again in the meantime.
+     *
+     * @param key     the path of the file relative to the tier.
+     * @param demoted true if the file has been moved to the cold tier.
+     */
+    private void scheduleDeletion(final String key, final boolean demoted) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (demoted && !hotFiles.containsKey(key)) {
+                    delete(getHotFile(key));
+                } else if (!demoted && !coldFiles.contains(key)) {
+                    delete(getColdFile(key));
+                }
+            }
+        }, MIN_IDLE_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    private static void delete(final File file) {
+        FileUtils.deleteQuietly(PoolFile.getMetadataFile(file));
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * A file of the hot tier.
+     */
+    private static final class Entry {
+
+        private final String key;
+        private final long size;
+        private final long sequence;
+        private volatile long lastAccess;
+
+        /**
+         * The access timestamp the entry is ordered by in the demotion order.
+         */
+        private long orderedAccess;
+
+        private Entry(final String key, final long size, final long sequence) {
+            this.key = key;
+            this.size = size;
+            this.sequence = sequence;
+        }
+
+    }
+
+}
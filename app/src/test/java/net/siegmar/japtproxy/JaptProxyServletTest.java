@@ -0,0 +1,157 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy;
+
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class JaptProxyServletTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private QueueingExecutor executor;
+    private AtomicInteger handled;
+    private JaptProxyServlet servlet;
+
+    @BeforeMethod
+    public void setUp() throws ServletException {
+        executor = new QueueingExecutor(1);
+        handled = new AtomicInteger();
+
+        servlet = new JaptProxyServlet();
+        servlet.setJaptProxy(new JaptProxy() {
+            @Override
+            public Executor getRequestExecutor() {
+                return executor;
+            }
+
+            @Override
+            public long getRequestTimeout() {
+                return TIMEOUT;
+            }
+
+            @Override
+            public void handleRequest(final HttpServletRequest req, final HttpServletResponse res)
+                throws IOException {
+                handled.incrementAndGet();
+                res.getWriter().write("ok");
+            }
+        });
+        servlet.init(new MockServletConfig(new MockServletContext()));
+    }
+
+    public void testQueuedRequest() throws Exception {
+        final MockHttpServletRequest req = newRequest();
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        servlet.service(req, res);
+
+        assertTrue(req.isAsyncStarted());
+        assertEquals(req.getAsyncContext().getTimeout(), TIMEOUT);
+
+        executor.runQueued();
+        assertFalse(req.isAsyncStarted());
+        assertEquals(res.getStatus(), HttpServletResponse.SC_OK);
+        assertEquals(res.getContentAsString(), "ok");
+    }
+
+    public void testRejectedRequest() throws Exception {
+        servlet.service(newRequest(), new MockHttpServletResponse());
+
+        // The queue is full
+        final MockHttpServletRequest req = newRequest();
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        servlet.service(req, res);
+
+        assertFalse(req.isAsyncStarted());
+        assertEquals(res.getStatus(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    public void testTimeoutWhileQueued() throws Exception {
+        final MockHttpServletRequest req = newRequest();
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        servlet.service(req, res);
+
+        final MockAsyncContext asyncContext = (MockAsyncContext) req.getAsyncContext();
+        for (final AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+
+        assertFalse(req.isAsyncStarted());
+        assertEquals(res.getStatus(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+        // The request isn't handled after its timeout
+        executor.runQueued();
+        assertEquals(handled.get(), 0);
+    }
+
+    private static MockHttpServletRequest newRequest() {
+        final MockHttpServletRequest req = new MockHttpServletRequest("GET", "/debian/dists/sid/Release");
+        req.setAsyncSupported(true);
+        return req;
+    }
+
+    private static final class QueueingExecutor implements Executor {
+
+        private final int queueSize;
+        private final List<Runnable> queue = new ArrayList<>();
+
+        private QueueingExecutor(final int queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (queue.size() == queueSize) {
+                throw new RejectedExecutionException("Queue is full");
+            }
+            queue.add(command);
+        }
+
+        private void runQueued() {
+            for (final Runnable command : queue) {
+                command.run();
+            }
+            queue.clear();
+        }
+
+    }
+
+}
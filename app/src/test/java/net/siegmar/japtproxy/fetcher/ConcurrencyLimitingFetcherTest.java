@@ -0,0 +1,175 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.fetcher;
+
+import net.siegmar.japtproxy.exception.ResourceUnavailableException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+@Test
+public class ConcurrencyLimitingFetcherTest {
+
+    private static ConcurrencyLimitingFetcher buildFetcher(final Fetcher fetcher) {
+        final ConcurrencyLimitingFetcher limitingFetcher = new ConcurrencyLimitingFetcher();
+        limitingFetcher.setFetcher(fetcher);
+        limitingFetcher.setMaxRequestsPerOrigin(2);
+        limitingFetcher.setAcquireTimeout(10);
+        return limitingFetcher;
+    }
+
+    public void testLimitPerOrigin() throws Exception {
+        final ConcurrencyLimitingFetcher fetcher = buildFetcher(new StubFetcher(false));
+        final URL mirror1 = new URL("http://ftp.de.debian.org/debian/dists/stable/InRelease");
+        final URL mirror2 = new URL("http://ftp.us.debian.org/debian/dists/stable/InRelease");
+
+        final FetchedResource resource1 = fetcher.fetch(mirror1, 0, null, null);
+        final FetchedResource resource2 = fetcher.fetch(mirror1, 0, 10, null, null);
+        assertEquals(fetcher.getRunningRequests(mirror1), 2);
+
+        try {
+            fetcher.fetch(mirror1, 0, null, null);
+            fail("Origin is saturated");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        // Other origins aren't affected
+        fetcher.fetch(mirror2, 0, null, null).close();
+
+        // Closing a resource twice releases its request only once
+        resource1.close();
+        resource1.close();
+        assertEquals(fetcher.getRunningRequests(mirror1), 1);
+
+        fetcher.fetch(mirror1, 0, null, null).close();
+        resource2.close();
+        assertEquals(fetcher.getRunningRequests(mirror1), 0);
+        assertEquals(fetcher.getRunningRequests(mirror2), 0);
+    }
+
+    public void testReleaseAtEndOfBody() throws Exception {
+        final ConcurrencyLimitingFetcher fetcher = buildFetcher(new StubFetcher(false));
+        final URL url = new URL("http://ftp.de.debian.org/debian/dists/stable/InRelease");
+
+        final FetchedResource resource = fetcher.fetch(url, 0, null, null);
+        final InputStream in = resource.getInputStream();
+        assertEquals(fetcher.getRunningRequests(url), 1);
+
+        while (in.read(new byte[4]) != -1) {
+            assertEquals(fetcher.getRunningRequests(url), 1);
+        }
+        assertEquals(fetcher.getRunningRequests(url), 0);
+
+        // The request has been released already
+        resource.close();
+        assertEquals(fetcher.getRunningRequests(url), 0);
+    }
+
+    public void testFailedFetch() throws Exception {
+        final ConcurrencyLimitingFetcher fetcher = buildFetcher(new StubFetcher(true));
+        final URL url = new URL("http://ftp.de.debian.org/debian/dists/stable/InRelease");
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                fetcher.fetch(url, 0, null, null);
+                fail("Resource is unavailable");
+            } catch (final ResourceUnavailableException e) {
+                // expected
+            }
+        }
+
+        assertEquals(fetcher.getRunningRequests(url), 0);
+    }
+
+    private static final class StubFetcher implements Fetcher {
+
+        private final boolean unavailable;
+
+        private StubFetcher(final boolean unavailable) {
+            this.unavailable = unavailable;
+        }
+
+        @Override
+        public FetchedResource fetch(final URL targetResource, final long lastModified, final String eTag,
+                                     final String originalUserAgent)
+            throws IOException, ResourceUnavailableException {
+            return fetch(targetResource, 0, -1, null, originalUserAgent);
+        }
+
+        @Override
+        public FetchedResource fetch(final URL targetResource, final long offset, final long length,
+                                     final String validator, final String originalUserAgent)
+            throws IOException, ResourceUnavailableException {
+            if (unavailable) {
+                throw new ResourceUnavailableException("Resource '" + targetResource + "' not found");
+            }
+
+            return new FetchedResource() {
+                @Override
+                public boolean isModified() {
+                    return true;
+                }
+
+                @Override
+                public String getContentType() {
+                    return null;
+                }
+
+                @Override
+                public long getLastModified() {
+                    return 0;
+                }
+
+                @Override
+                public String getETag() {
+                    return null;
+                }
+
+                @Override
+                public long getContentLength() {
+                    return 0;
+                }
+
+                @Override
+                public long getOffset() {
+                    return 0;
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(new byte[10]);
+                }
+
+                @Override
+                public void close() {
+                    // nothing to close
+                }
+            };
+        }
+
+    }
+
+}
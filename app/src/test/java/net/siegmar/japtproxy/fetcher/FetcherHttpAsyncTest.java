@@ -0,0 +1,154 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.fetcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.siegmar.japtproxy.exception.ResourceUnavailableException;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class FetcherHttpAsyncTest {
+
+    private static final int SMALL = 200000;
+    private static final int LARGE = 8000000;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private CloseableHttpAsyncClient httpAsyncClient;
+    private FetcherHttpAsync fetcher;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                final int size = "/small".equals(path) ? SMALL : "/large".equals(path) ? LARGE : -1;
+                if (size == -1) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+
+                exchange.getResponseHeaders().add("Last-Modified", "Sun, 06 Nov 1994 08:49:37 GMT");
+                exchange.sendResponseHeaders(200, size);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    for (int i = 0; i < size; i++) {
+                        out.write(i);
+                    }
+                }
+            }
+        });
+        server.start();
+
+        // A single connection - a transfer that isn't finished blocks the next request
+        httpAsyncClient = HttpAsyncClients.custom()
+            .setMaxConnPerRoute(1)
+            .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(5000).setSocketTimeout(10000).build())
+            .build();
+        httpAsyncClient.start();
+
+        fetcher = new FetcherHttpAsync();
+        fetcher.setHttpAsyncClient(httpAsyncClient);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        httpAsyncClient.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public void testStreamBody() throws Exception {
+        final FetchedResource resource = fetcher.fetch(getUrl("/small"), 0, null, null);
+        try {
+            assertTrue(resource.isModified());
+            assertEquals(resource.getContentLength(), SMALL);
+            assertEquals(resource.getLastModified(), 784111777000L);
+
+            // The body is larger than the buffer of the fetcher
+            final byte[] data = IOUtils.toByteArray(resource.getInputStream());
+            assertEquals(data.length, SMALL);
+            for (int i = 0; i < SMALL; i++) {
+                assertEquals(data[i], (byte) i);
+            }
+        } finally {
+            resource.close();
+        }
+
+        fetcher.fetch(getUrl("/small"), 0, null, null).close();
+    }
+
+    public void testAbortOnClose() throws Exception {
+        final FetchedResource resource = fetcher.fetch(getUrl("/large"), 0, null, null);
+        final InputStream in = resource.getInputStream();
+        IOUtils.readFully(in, new byte[1000]);
+        resource.close();
+
+        // The aborted transfer released its connection
+        final FetchedResource next = fetcher.fetch(getUrl("/small"), 0, null, null);
+        try {
+            assertEquals(IOUtils.toByteArray(next.getInputStream()).length, SMALL);
+        } finally {
+            next.close();
+        }
+    }
+
+    public void testNotFound() throws Exception {
+        try {
+            fetcher.fetch(getUrl("/missing"), 0, null, null);
+            fail("Resource is missing");
+        } catch (final ResourceUnavailableException e) {
+            // expected
+        }
+
+        fetcher.fetch(getUrl("/small"), 0, null, null).close();
+    }
+
+    private URL getUrl(final String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+}
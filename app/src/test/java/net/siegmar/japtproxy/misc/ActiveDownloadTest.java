@@ -0,0 +1,118 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import net.siegmar.japtproxy.poolobject.PoolFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class ActiveDownloadTest {
+
+    private File dir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public void testFollowerReadsGrowingFile() throws Exception {
+        final PoolFile poolFile = new PoolFile(new File(dir, "dummy_1.0_i386.deb"), null);
+        final ActiveDownload download = new ActiveDownload(poolFile, null, 6, 0);
+        final AtomicInteger completions = new AtomicInteger();
+        download.addListener(new DownloadListener() {
+            @Override
+            public void downloadCompleted(final ActiveDownload completedDownload) {
+                assertEquals(completedDownload.getPoolObject().getSize(), 6);
+                completions.incrementAndGet();
+            }
+        });
+
+        final OutputStream os = poolFile.getOutputStream(false);
+        os.write(new byte[]{1, 2, 3});
+        download.addBytesWritten(3);
+
+        final InputStream is = download.openInputStream();
+        assertEquals(download.awaitBytes(0), 3);
+        assertEquals(IOUtils.toByteArray(is, 3), new byte[]{1, 2, 3});
+
+        os.write(new byte[]{4, 5, 6});
+        os.close();
+        download.addBytesWritten(3);
+        assertEquals(completions.get(), 0);
+        download.complete();
+        assertEquals(completions.get(), 1);
+
+        assertEquals(download.awaitBytes(3), 6);
+        assertEquals(IOUtils.toByteArray(is, 3), new byte[]{4, 5, 6});
+        assertEquals(download.awaitBytes(6), 6);
+        is.close();
+
+        // Followers joining after completion read the final resource
+        final InputStream completed = download.openInputStream();
+        assertEquals(IOUtils.toByteArray(completed), new byte[]{1, 2, 3, 4, 5, 6});
+        completed.close();
+    }
+
+    public void testFollowerOpensBeforeData() throws Exception {
+        final PoolFile poolFile = new PoolFile(new File(dir, "dummy_1.0_i386.deb"), null);
+        final ActiveDownload download = new ActiveDownload(poolFile, null, 3, 0);
+
+        // The leader creates the temp resource before it publishes the download
+        poolFile.createTemp(0, -1);
+        final InputStream is = download.openInputStream();
+
+        final OutputStream os = poolFile.getOutputStream(false);
+        os.write(new byte[]{1, 2, 3});
+        os.close();
+        download.addBytesWritten(3);
+
+        assertEquals(download.awaitBytes(0), 3);
+        assertEquals(IOUtils.toByteArray(is, 3), new byte[]{1, 2, 3});
+        is.close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testFailedDownload() throws Exception {
+        final PoolFile poolFile = new PoolFile(new File(dir, "dummy_1.0_i386.deb"), null);
+        final ActiveDownload download = new ActiveDownload(poolFile, null, -1, 0);
+
+        download.addBytesWritten(1);
+        download.fail();
+        download.awaitBytes(1);
+    }
+
+}
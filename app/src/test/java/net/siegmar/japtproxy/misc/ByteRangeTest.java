@@ -0,0 +1,70 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+@Test
+public class ByteRangeTest {
+
+    public void testSingleRanges() {
+        assertEquals(ByteRange.parse("bytes=0-499", 1000), Arrays.asList(new ByteRange(0, 499)));
+        assertEquals(ByteRange.parse("bytes=500-", 1000), Arrays.asList(new ByteRange(500, 999)));
+        assertEquals(ByteRange.parse("bytes=-200", 1000), Arrays.asList(new ByteRange(800, 999)));
+        assertEquals(ByteRange.parse("bytes=900-2000", 1000), Arrays.asList(new ByteRange(900, 999)));
+        assertEquals(ByteRange.parse("bytes=-2000", 1000), Arrays.asList(new ByteRange(0, 999)));
+    }
+
+    public void testMultipleRanges() {
+        assertEquals(ByteRange.parse("bytes=0-9, 20-29", 1000),
+            Arrays.asList(new ByteRange(0, 9), new ByteRange(20, 29)));
+
+        // Overlapping and adjacent ranges get coalesced
+        assertEquals(ByteRange.parse("bytes=20-29,0-9,10-15,25-40", 1000),
+            Arrays.asList(new ByteRange(0, 15), new ByteRange(20, 40)));
+    }
+
+    public void testUnsatisfiable() {
+        assertEquals(ByteRange.parse("bytes=1000-", 1000), Collections.emptyList());
+        assertEquals(ByteRange.parse("bytes=-0", 1000), Collections.emptyList());
+        assertEquals(ByteRange.parse("bytes=0-", 0), Collections.emptyList());
+    }
+
+    public void testInvalid() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=", 1000));
+        assertNull(ByteRange.parse("bytes=-", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=0-1,x", 1000));
+    }
+
+    public void testContentRange() {
+        assertEquals(new ByteRange(0, 499).toContentRange(1000), "bytes 0-499/1000");
+        assertEquals(new ByteRange(0, 499).getLength(), 500);
+    }
+
+}
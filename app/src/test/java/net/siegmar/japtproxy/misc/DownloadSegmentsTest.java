@@ -0,0 +1,69 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class DownloadSegmentsTest {
+
+    public void testSplit() {
+        final DownloadSegments segments = new DownloadSegments(new ActiveDownload(null, null, 10, 0), 3);
+
+        assertEquals(segments.size(), 3);
+        assertEquals(segments.getStart(0), 0);
+        assertEquals(segments.getLength(0), 4);
+        assertEquals(segments.getStart(1), 4);
+        assertEquals(segments.getLength(1), 4);
+        assertEquals(segments.getStart(2), 8);
+        assertEquals(segments.getLength(2), 2);
+    }
+
+    public void testSplitResumed() {
+        final ActiveDownload download = new ActiveDownload(null, null, 10, 0, "\"v1\"", 4);
+        final DownloadSegments segments = new DownloadSegments(download, 2);
+
+        assertEquals(segments.getStart(0), 4);
+        assertEquals(segments.getLength(0), 3);
+        assertEquals(segments.getStart(1), 7);
+        assertEquals(segments.getLength(1), 3);
+    }
+
+    public void testOnlyContiguousDataIsVisible() {
+        final ActiveDownload download = new ActiveDownload(null, null, 10, 0);
+        final DownloadSegments segments = new DownloadSegments(download, 3);
+
+        segments.addBytesWritten(1, 4);
+        segments.addBytesWritten(2, 1);
+        assertEquals(download.getBytesWritten(), 0);
+
+        segments.addBytesWritten(0, 2);
+        assertEquals(download.getBytesWritten(), 2);
+
+        // Completing the first segment makes the complete second one visible
+        segments.addBytesWritten(0, 2);
+        assertEquals(download.getBytesWritten(), 9);
+
+        segments.addBytesWritten(2, 1);
+        assertEquals(download.getBytesWritten(), 10);
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class FreshnessTableTest {
+
+    public void testClaimCheck() {
+        final FreshnessTable freshnessTable = new FreshnessTable();
+        freshnessTable.setMaxEntries(10);
+
+        assertTrue(freshnessTable.claimCheck("a", 60_000));
+        assertFalse(freshnessTable.claimCheck("a", 60_000));
+        assertTrue(freshnessTable.getLastCheck("a") > 0);
+
+        // An expired entry is claimed exactly once
+        assertTrue(freshnessTable.claimCheck("a", 0));
+        assertTrue(freshnessTable.claimCheck("b", 60_000));
+        assertFalse(freshnessTable.claimCheck("b", 60_000));
+
+        freshnessTable.invalidate("b");
+        assertTrue(freshnessTable.claimCheck("b", 60_000));
+        assertEquals(freshnessTable.getLastCheck("c"), 0);
+    }
+
+    public void testValidation() {
+        final FreshnessTable freshnessTable = new FreshnessTable();
+        freshnessTable.setMaxEntries(10);
+
+        assertTrue(freshnessTable.claimCheck("a", 60_000));
+        assertEquals(freshnessTable.getLastValidation("a"), 0);
+
+        freshnessTable.validated("a");
+        assertTrue(freshnessTable.getLastValidation("a") >= freshnessTable.getLastCheck("a"));
+
+        freshnessTable.validated("b");
+        assertTrue(freshnessTable.getLastValidation("b") > 0);
+        assertFalse(freshnessTable.claimCheck("b", 60_000));
+    }
+
+    public void testEviction() {
+        final FreshnessTable freshnessTable = new FreshnessTable();
+        freshnessTable.setMaxEntries(10);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(freshnessTable.claimCheck("resource-" + i, 60_000));
+            assertTrue(freshnessTable.size() <= 10);
+        }
+    }
+
+}
@@ -0,0 +1,496 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import net.siegmar.japtproxy.fetcher.FetchedResource;
+import net.siegmar.japtproxy.fetcher.Fetcher;
+import net.siegmar.japtproxy.fetcher.FetcherPool;
+import net.siegmar.japtproxy.poolobject.PoolFile;
+import org.apache.commons.io.FileUtils;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class IOHandlerTest {
+
+    private static final long LAST_MODIFIED = 1_400_000_000_000L;
+
+    private static final String TARGET = "/debian/pool/main/d/dummy/dummy_3.0_all.deb";
+
+    private static final String CONTENT = "0123456789";
+
+    private final IOHandler ioHandler = new IOHandler();
+
+    private File dir;
+    private PoolFile poolFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        ioHandler.setFileSender(new ChannelFileSender());
+
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        final File file = new File(dir, "dummy_1.0_i386.deb");
+        FileUtils.writeStringToFile(file, "0123456789abcdefghij", StandardCharsets.US_ASCII.name());
+        assertTrue(file.setLastModified(LAST_MODIFIED));
+
+        poolFile = new PoolFile(file, null);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        ioHandler.destroy();
+        FileUtils.deleteQuietly(dir);
+    }
+
+    /**
+     * Initializes the IOHandler for {@link IOHandler#sendAndSave}.
+     *
+     * @param configurationElements the elements of the configuration (without
+     *                              the japt-proxy root element and cache-dir).
+     * @param fetcher               the fetcher of http resources
+     */
+    private void initSendAndSave(final String configurationElements, final Fetcher fetcher) throws Exception {
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy><cache-dir>" + dir + "</cache-dir>" +
+            configurationElements + "</japt-proxy>", StandardCharsets.UTF_8.name());
+
+        final FetcherPool fetcherPool = new FetcherPool();
+        fetcherPool.setFetchers(Collections.singletonMap("http", fetcher));
+
+        final FreshnessTable freshnessTable = new FreshnessTable();
+        freshnessTable.setMaxEntries(10);
+
+        ioHandler.setConfiguration(new Configuration(configFile));
+        ioHandler.setFetcherPool(fetcherPool);
+        ioHandler.setFreshnessTable(freshnessTable);
+        ioHandler.init();
+    }
+
+    private void sendAndSave(final PoolFile target, final MockHttpServletResponse res) throws Exception {
+        final RequestedData requestedData = buildRequestedData(null, null);
+        requestedData.setServerName("localhost");
+        requestedData.setRequestedTarget(TARGET);
+
+        final URL targetResource = new URL("http://localhost" + TARGET);
+        final List<URL> mirrorResources = Collections.singletonList(targetResource);
+        ioHandler.sendAndSave(requestedData, target, targetResource, mirrorResources, null, res);
+    }
+
+    private Future<MockHttpServletResponse> sendAndSaveAsync(final ExecutorService executor, final PoolFile target) {
+        return executor.submit(new Callable<MockHttpServletResponse>() {
+            @Override
+            public MockHttpServletResponse call() throws Exception {
+                final MockHttpServletResponse res = new MockHttpServletResponse();
+                sendAndSave(target, res);
+                return res;
+            }
+        });
+    }
+
+    private static RequestedData buildRequestedData(final String range, final String ifRange) {
+        final RequestedData requestedData = new RequestedData();
+        requestedData.setRequestModifiedSince(-1);
+        requestedData.setRange(range);
+        requestedData.setIfRange(ifRange);
+        return requestedData;
+    }
+
+    public void testCompleteFile() throws IOException {
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        ioHandler.sendLocalFile("test", poolFile, buildRequestedData(null, null), res);
+
+        assertEquals(res.getStatus(), HttpServletResponse.SC_OK);
+        assertEquals(res.getContentAsString(), "0123456789abcdefghij");
+        assertEquals(res.getHeader(HttpHeaderConstants.ACCEPT_RANGES), "bytes");
+    }
+
+    public void testSingleRange() throws IOException {
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        ioHandler.sendLocalFile("test", poolFile, buildRequestedData("bytes=5-9", null), res);
+
+        assertEquals(res.getStatus(), HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertEquals(res.getHeader(HttpHeaderConstants.CONTENT_RANGE), "bytes 5-9/20");
+        assertEquals(res.getContentLength(), 5);
+        assertEquals(res.getContentAsString(), "56789");
+    }
+
+    public void testMultipleRanges() throws IOException {
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        ioHandler.sendLocalFile("test", poolFile, buildRequestedData("bytes=0-1,-2", null), res);
+
+        assertEquals(res.getStatus(), HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertTrue(res.getContentType().startsWith("multipart/byteranges; boundary="));
+
+        final String content = res.getContentAsString();
+        assertEquals(res.getContentLength(), content.length());
+        assertTrue(content.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+        assertTrue(content.contains("Content-Range: bytes 18-19/20\r\n\r\nij\r\n"));
+    }
+
+    public void testUnsatisfiableRange() throws IOException {
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        ioHandler.sendLocalFile("test", poolFile, buildRequestedData("bytes=20-", null), res);
+
+        assertEquals(res.getStatus(), HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertEquals(res.getHeader(HttpHeaderConstants.CONTENT_RANGE), "bytes */20");
+    }
+
+    public void testIfRange() throws IOException {
+        final String entityTag = Util.getEntityTag(20, LAST_MODIFIED);
+
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        ioHandler.sendLocalFile("test", poolFile, buildRequestedData("bytes=5-9", entityTag), res);
+        assertEquals(res.getStatus(), HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        res = new MockHttpServletResponse();
+        ioHandler.sendLocalFile("test", poolFile,
+            buildRequestedData("bytes=5-9", Util.getRfc822DateFromTimestamp(LAST_MODIFIED)), res);
+        assertEquals(res.getStatus(), HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        // Changed object - the complete object has to be sent
+        res = new MockHttpServletResponse();
+        ioHandler.sendLocalFile("test", poolFile, buildRequestedData("bytes=5-9", "\"other\""), res);
+        assertEquals(res.getStatus(), HttpServletResponse.SC_OK);
+        assertEquals(res.getContentLength(), 20);
+    }
+
+    public void testResumeDownload() throws IOException {
+        final PoolFile partialFile = new PoolFile(new File(dir, "dummy_2.0_i386.deb"), null);
+
+        // Interrupted download
+        final ActiveDownload interrupted = new ActiveDownload(partialFile, null, 6, LAST_MODIFIED, "\"v2\"", 0);
+        final OutputStream os = partialFile.getOutputStream(false);
+        os.write("abc".getBytes(StandardCharsets.US_ASCII));
+        os.close();
+        interrupted.addBytesWritten(3);
+        ioHandler.abort(interrupted);
+
+        assertEquals(partialFile.getPartialSize(), 3);
+        assertEquals(partialFile.getPartialValidator(), "\"v2\"");
+
+        // Resumed download
+        final ActiveDownload resumed = new ActiveDownload(partialFile, null, 6, LAST_MODIFIED, "\"v2\"", 3);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        ioHandler.save("test", resumed, new StaticFetchedResource("def", 3), res.getOutputStream());
+
+        assertEquals(res.getContentAsString(), "abcdef");
+        assertEquals(FileUtils.readFileToString(partialFile.getResource(), StandardCharsets.US_ASCII.name()),
+            "abcdef");
+        assertEquals(partialFile.getPartialSize(), 0);
+    }
+
+    public void testBackgroundDownload() throws Exception {
+        final TrackedPoolFile target = new TrackedPoolFile(new File(dir, "dummy_3.0_all.deb"), 1);
+
+        // Nothing is written before the client started following the download
+        final StaticFetcher fetcher = new StaticFetcher(target.opened, 0, false);
+        initSendAndSave("<background-downloads>true</background-downloads>", fetcher);
+
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        sendAndSave(target, res);
+
+        assertEquals(res.getStatus(), HttpServletResponse.SC_OK);
+        assertEquals(res.getContentAsString(), CONTENT);
+        assertEquals(FileUtils.readFileToString(target.getResource(), StandardCharsets.US_ASCII.name()), CONTENT);
+        assertEquals(fetcher.fetches.get(), 1);
+    }
+
+    public void testSegmentedDownload() throws Exception {
+        final TrackedPoolFile target = new TrackedPoolFile(new File(dir, "dummy_3.0_all.deb"), 1);
+
+        final StaticFetcher fetcher = new StaticFetcher(target.opened, 0, false);
+        initSendAndSave("<segmented-downloads min-size=\"4\" segments=\"2\"/>", fetcher);
+
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        sendAndSave(target, res);
+
+        // The temp resource was allocated before the client started following the download
+        assertEquals(target.openedTempLength, CONTENT.length());
+        assertEquals(res.getContentAsString(), CONTENT);
+        assertEquals(FileUtils.readFileToString(target.getResource(), StandardCharsets.US_ASCII.name()), CONTENT);
+        assertEquals(fetcher.fetches.get(), 2);
+    }
+
+    public void testFollowDownload() throws Exception {
+        final TrackedPoolFile target = new TrackedPoolFile(new File(dir, "dummy_3.0_all.deb"), 1);
+        final StaticFetcher fetcher = new StaticFetcher(target.opened, 0, false);
+        initSendAndSave("", fetcher);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<MockHttpServletResponse> leader = sendAndSaveAsync(executor, target);
+            fetcher.awaitGate();
+
+            // The leader streams the download to its client - the follower joins before any data arrived
+            final MockHttpServletResponse res = new MockHttpServletResponse();
+            sendAndSave(target, res);
+
+            assertEquals(res.getContentAsString(), CONTENT);
+            assertEquals(leader.get(10, TimeUnit.SECONDS).getContentAsString(), CONTENT);
+            assertEquals(fetcher.fetches.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testLeaderFailsWhileFollowed() throws Exception {
+        final TrackedPoolFile target = new TrackedPoolFile(new File(dir, "dummy_3.0_all.deb"), 1);
+        final StaticFetcher fetcher = new StaticFetcher(target.opened, 3, true);
+        initSendAndSave("", fetcher);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<MockHttpServletResponse> leader = sendAndSaveAsync(executor, target);
+            fetcher.awaitGate();
+
+            try {
+                sendAndSave(target, new MockHttpServletResponse());
+                fail("Download failed");
+            } catch (final IOException e) {
+                assertEquals(e.getMessage(), "Download of 'dummy_3.0_all.deb' failed");
+            }
+
+            try {
+                leader.get(10, TimeUnit.SECONDS);
+                fail("Download failed");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+
+            // The data received so far is kept to resume the download
+            assertEquals(target.getPartialSize(), 3);
+            assertEquals(fetcher.fetches.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A PoolFile that counts the streams opened on its temp resource.
+     */
+    private static final class TrackedPoolFile extends PoolFile {
+
+        private final CountDownLatch opened;
+        private volatile long openedTempLength = -1;
+
+        private TrackedPoolFile(final File resource, final int followers) {
+            super(resource, null);
+            opened = new CountDownLatch(followers);
+        }
+
+        @Override
+        public InputStream getTempInputStream() throws IOException {
+            final InputStream is = super.getTempInputStream();
+            openedTempLength = new File(getResource().getAbsolutePath() + ".tmp").length();
+            opened.countDown();
+            return is;
+        }
+
+    }
+
+    /**
+     * Fetches {@link #CONTENT} - the complete resource is held back by a
+     * {@link GatedInputStream}, ranges (of segments) are returned right away.
+     */
+    private static final class StaticFetcher implements Fetcher {
+
+        private final CountDownLatch gate;
+        private final int head;
+        private final boolean failAtGate;
+        private final CountDownLatch atGate = new CountDownLatch(1);
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        private StaticFetcher(final CountDownLatch gate, final int head, final boolean failAtGate) {
+            this.gate = gate;
+            this.head = head;
+            this.failAtGate = failAtGate;
+        }
+
+        private void awaitGate() throws InterruptedException {
+            assertTrue(atGate.await(10, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public FetchedResource fetch(final URL targetResource, final long lastModified, final String eTag,
+                                     final String originalUserAgent) {
+            fetches.incrementAndGet();
+
+            final GatedInputStream body = new GatedInputStream(head, gate, atGate, failAtGate);
+            return new StaticFetchedResource(CONTENT, 0) {
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    // Without a head the transfer doesn't even start before the gate has been opened
+                    if (head == 0) {
+                        body.awaitGate();
+                    }
+                    return body;
+                }
+            };
+        }
+
+        @Override
+        public FetchedResource fetch(final URL targetResource, final long offset, final long length,
+                                     final String validator, final String originalUserAgent) {
+            fetches.incrementAndGet();
+            return new StaticFetchedResource(CONTENT.substring((int) offset, (int) (offset + length)), offset);
+        }
+
+    }
+
+    /**
+     * Provides {@link #CONTENT} - all data behind the head only after the gate
+     * has been opened.
+     */
+    private static final class GatedInputStream extends FilterInputStream {
+
+        private final int head;
+        private final CountDownLatch gate;
+        private final CountDownLatch atGate;
+        private final boolean failAtGate;
+        private int position;
+
+        private GatedInputStream(final int head, final CountDownLatch gate, final CountDownLatch atGate,
+                                 final boolean failAtGate) {
+            super(new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.US_ASCII)));
+            this.head = head;
+            this.gate = gate;
+            this.atGate = atGate;
+            this.failAtGate = failAtGate;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        private void awaitGate() throws IOException {
+            atGate.countDown();
+            try {
+                if (!gate.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("Gate wasn't opened");
+                }
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            if (failAtGate) {
+                throw new IOException("Connection reset");
+            }
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (position == head) {
+                awaitGate();
+            }
+
+            final int count = super.read(b, off, position < head ? Math.min(len, head - position) : len);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+    }
+
+    private static class StaticFetchedResource implements FetchedResource {
+
+        private final String content;
+        private final long offset;
+        private final InputStream body;
+
+        private StaticFetchedResource(final String content, final long offset) {
+            this.content = content;
+            this.offset = offset;
+            body = new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+        }
+
+
+        @Override
+        public boolean isModified() {
+            return true;
+        }
+
+        @Override
+        public String getContentType() {
+            return null;
+        }
+
+        @Override
+        public long getLastModified() {
+            return LAST_MODIFIED;
+        }
+
+        @Override
+        public String getETag() {
+            return "\"v2\"";
+        }
+
+        @Override
+        public long getContentLength() {
+            return content.length();
+        }
+
+        @Override
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return body;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
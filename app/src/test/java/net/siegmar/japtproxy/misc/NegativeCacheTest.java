@@ -0,0 +1,67 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.testng.annotations.Test;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class NegativeCacheTest {
+
+    public void testMissingResource() throws Exception {
+        final NegativeCache negativeCache = new NegativeCache();
+        negativeCache.setMaxEntries(10);
+
+        final URL mirror1 = new URL("http://ftp.de.debian.org/debian/dists/stable/main/i18n/Translation-de.xz");
+        final URL mirror2 = new URL("http://ftp.us.debian.org/debian/dists/stable/main/i18n/Translation-de.xz");
+
+        assertNull(negativeCache.get("a"));
+
+        negativeCache.put("a", 60_000, Arrays.asList(mirror1, mirror2));
+        final NegativeCache.Entry entry = negativeCache.get("a");
+        assertNotNull(entry);
+        assertEquals(entry.getTriedSources(), Arrays.asList(mirror1, mirror2));
+
+        // Expired entries are ignored
+        negativeCache.put("b", 0, Collections.singletonList(mirror1));
+        assertNull(negativeCache.get("b"));
+
+        negativeCache.remove("a");
+        assertNull(negativeCache.get("a"));
+    }
+
+    public void testEviction() throws Exception {
+        final NegativeCache negativeCache = new NegativeCache();
+        negativeCache.setMaxEntries(10);
+
+        for (int i = 0; i < 100; i++) {
+            negativeCache.put("resource-" + i, 60_000, Collections.<URL>emptyList());
+            assertTrue(negativeCache.size() <= 10);
+        }
+    }
+
+}
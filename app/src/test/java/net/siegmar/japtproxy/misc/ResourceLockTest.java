@@ -0,0 +1,146 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class ResourceLockTest {
+
+    public void testReferenceCounting() {
+        final ReadWriteLock lock1 = ResourceLock.obtainLocker("test-a");
+        final ReadWriteLock lock2 = ResourceLock.obtainLocker("test-a");
+        assertSame(lock1, lock2);
+        assertNotSame(ResourceLock.obtainLocker("test-b"), lock1);
+        ResourceLock.releaseLocker("test-b");
+
+        ResourceLock.releaseLocker("test-a");
+        assertSame(ResourceLock.obtainLocker("test-a"), lock1);
+        ResourceLock.releaseLocker("test-a");
+        ResourceLock.releaseLocker("test-a");
+
+        // Released locks are discarded
+        assertNotSame(ResourceLock.obtainLocker("test-a"), lock1);
+        ResourceLock.releaseLocker("test-a");
+    }
+
+    public void testMutualExclusion() throws Exception {
+        final int threads = 8;
+        final int iterations = 10_000;
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long contentionsBefore = ResourceLock.getContentions();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < iterations; i++) {
+                        final ReentrantReadWriteLock lock = ResourceLock.obtainLocker("test-c");
+                        ResourceLock.lockWrite(lock);
+                        try {
+                            if (holders.incrementAndGet() != 1) {
+                                violations.incrementAndGet();
+                            }
+                            holders.decrementAndGet();
+                        } finally {
+                            lock.writeLock().unlock();
+                            ResourceLock.releaseLocker("test-c");
+                        }
+                    }
+                }
+            });
+        }
+
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(violations.get(), 0);
+        assertTrue(ResourceLock.getContentions() >= contentionsBefore);
+        assertTrue(ResourceLock.getAcquisitions() >= threads * iterations);
+    }
+
+    public void testReaderDoesntOvertakeWriter() throws Exception {
+        final ReentrantReadWriteLock lock = ResourceLock.obtainLocker("test-d");
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch read = new CountDownLatch(1);
+        final long contentionsBefore = ResourceLock.getContentions();
+
+        ResourceLock.lockRead(lock);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ResourceLock.lockWrite(lock);
+                    written.countDown();
+                    lock.writeLock().unlock();
+                }
+            });
+
+            while (!lock.hasQueuedThreads()) {
+                Thread.sleep(1);
+            }
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ResourceLock.lockRead(lock);
+                    read.countDown();
+                    lock.readLock().unlock();
+                }
+            });
+
+            // The second reader waits for the queued writer
+            assertFalse(read.await(200, TimeUnit.MILLISECONDS));
+            lock.readLock().unlock();
+
+            assertTrue(written.await(10, TimeUnit.SECONDS));
+            assertTrue(read.await(10, TimeUnit.SECONDS));
+            assertTrue(ResourceLock.getContentions() - contentionsBefore >= 2);
+        } finally {
+            executor.shutdownNow();
+            ResourceLock.releaseLocker("test-d");
+        }
+    }
+
+}
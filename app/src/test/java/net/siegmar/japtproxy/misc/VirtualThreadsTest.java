@@ -0,0 +1,61 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.misc;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class VirtualThreadsTest {
+
+    public void testThreadPerTaskExecutor() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                VirtualThreads.newThreadPerTaskExecutor("test-");
+                fail("Virtual threads aren't supported by this JVM");
+            } catch (final UnsupportedOperationException e) {
+                // expected
+            }
+            return;
+        }
+
+        final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        try {
+            final Thread thread = executor.submit(new Callable<Thread>() {
+                @Override
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            }).get(1, TimeUnit.MINUTES);
+
+            assertEquals(thread.getName(), "test-1");
+            assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.misc.Backend;
+import net.siegmar.japtproxy.misc.BackendType;
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.packages.debian.ReleaseIndex;
+import net.siegmar.japtproxy.poolobject.DiskQuota;
+import net.siegmar.japtproxy.poolobject.MemoryCache;
+import net.siegmar.japtproxy.poolobject.MetadataCache;
+import net.siegmar.japtproxy.poolobject.PoolFile;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class ByHashPackagePoolTest {
+
+    private static final String PACKAGES = "Package: dummy\nVersion: 1.0\n";
+
+    private static final String SHA256 = DigestUtils.sha256Hex(PACKAGES);
+
+    private File dir;
+    private Backend backend;
+    private ByHashPackagePool packagePool;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy><cache-dir>" + dir + "</cache-dir></japt-proxy>",
+            StandardCharsets.UTF_8.name());
+
+        backend = new Backend(BackendType.DEB);
+        backend.setDirectory(new File(dir, "deb.debian.org"));
+
+        FileUtils.writeStringToFile(new File(backend.getDirectory(), "debian/dists/stable/Release"),
+            "Suite: stable\nSHA256:\n " + SHA256 + " " + PACKAGES.length() + " main/binary-amd64/Packages\n",
+            StandardCharsets.UTF_8.name());
+
+        final MetadataCache metadataCache = new MetadataCache();
+        metadataCache.setMaxEntries(10);
+
+        final Configuration configuration = new Configuration(configFile);
+
+        final DiskQuota diskQuota = new DiskQuota();
+        diskQuota.setConfiguration(configuration);
+        diskQuota.setMetadataCache(metadataCache);
+        diskQuota.setMemoryCache(new MemoryCache());
+        diskQuota.init();
+
+        packagePool = new ByHashPackagePool();
+        packagePool.setConfiguration(configuration);
+        packagePool.setReleaseIndex(new ReleaseIndex());
+        packagePool.setMetadataCache(metadataCache);
+        packagePool.setDiskQuota(diskQuota);
+        packagePool.setPackagePool(new PackagePool<PoolObject>() {
+            @Override
+            public PoolObject getPoolObject(final Backend b, final String resourceName) {
+                return new PoolFile(new File(b.getDirectory(), resourceName), null);
+            }
+
+            @Override
+            public void removeOldPackages(final PoolObject poolObject) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public void testLinkIndexFileToStore() throws Exception {
+        final File packages = new File(backend.getDirectory(), "debian/dists/stable/main/binary-amd64/Packages");
+        FileUtils.writeStringToFile(packages, PACKAGES, StandardCharsets.UTF_8.name());
+
+        final PoolObject poolObject = packagePool.getPoolObject(backend,
+            "/debian/dists/stable/main/binary-amd64/by-hash/SHA256/" + SHA256);
+
+        assertTrue(poolObject.getRepoPackage().isImmutable());
+        assertEquals(poolObject.getSize(), PACKAGES.length());
+        assertTrue(Files.isSameFile(packages.toPath(), new File(dir, "by-hash/SHA256/" + SHA256).toPath()));
+
+        // Old versions of content-addressed resources are never removed
+        packagePool.removeOldPackages(poolObject);
+    }
+
+    public void testLinkStoreToIndexFile() throws Exception {
+        final File storeFile = new File(dir, "by-hash/SHA256/" + SHA256);
+        FileUtils.writeStringToFile(storeFile, PACKAGES, StandardCharsets.UTF_8.name());
+
+        final PoolObject poolObject = packagePool.getPoolObject(backend,
+            "/debian/dists/stable/main/binary-amd64/Packages");
+
+        assertEquals(poolObject.getSize(), PACKAGES.length());
+        assertTrue(Files.isSameFile(storeFile.toPath(),
+            new File(backend.getDirectory(), "debian/dists/stable/main/binary-amd64/Packages").toPath()));
+    }
+
+    public void testVerifyStoredContent() throws Exception {
+        final String resourceName = "/debian/dists/stable/main/binary-amd64/by-hash/SHA256/" + SHA256;
+        final File storeFile = new File(dir, "by-hash/SHA256/" + SHA256);
+
+        final PoolObject forged = packagePool.getPoolObject(backend, resourceName);
+        try (OutputStream os = forged.getOutputStream(false)) {
+            os.write("Package: forged\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            forged.store();
+            fail("Content not matching the digest must not be stored");
+        } catch (final IOException expected) {
+            assertFalse(storeFile.exists());
+        }
+
+        final PoolObject poolObject = packagePool.getPoolObject(backend, resourceName);
+        try (OutputStream os = poolObject.getOutputStream(false)) {
+            os.write(PACKAGES.getBytes(StandardCharsets.UTF_8));
+        }
+        poolObject.store();
+
+        assertEquals(FileUtils.readFileToString(storeFile, StandardCharsets.UTF_8.name()), PACKAGES);
+
+        // The twin is linked, so the store file is kept by the package collector
+        assertTrue(Files.isSameFile(storeFile.toPath(),
+            new File(backend.getDirectory(), "debian/dists/stable/main/binary-amd64/Packages").toPath()));
+    }
+
+}
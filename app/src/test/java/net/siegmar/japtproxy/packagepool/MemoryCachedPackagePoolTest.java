@@ -0,0 +1,118 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.misc.Backend;
+import net.siegmar.japtproxy.misc.BackendType;
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.poolobject.MemoryCache;
+import net.siegmar.japtproxy.poolobject.PoolFile;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class MemoryCachedPackagePoolTest {
+
+    private static final String RESOURCE_NAME = "/debian/dists/stable/InRelease";
+
+    private File dir;
+    private Backend backend;
+    private AtomicInteger lookups;
+    private MemoryCachedPackagePool packagePool;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy><cache-dir>" + dir + "</cache-dir>" +
+            "<memory-cache size=\"1024\" max-object-size=\"1024\"/></japt-proxy>", StandardCharsets.UTF_8.name());
+
+        backend = new Backend(BackendType.DEB);
+        backend.setDirectory(new File(dir, "deb.debian.org"));
+
+        final MemoryCache memoryCache = new MemoryCache();
+        memoryCache.setConfiguration(new Configuration(configFile));
+
+        lookups = new AtomicInteger();
+
+        packagePool = new MemoryCachedPackagePool();
+        packagePool.setMemoryCache(memoryCache);
+        packagePool.setPattern("(In)?Release");
+        packagePool.setPackagePool(new PackagePool<PoolObject>() {
+            @Override
+            public PoolObject getPoolObject(final Backend b, final String resourceName) {
+                lookups.incrementAndGet();
+                return new PoolFile(new File(b.getDirectory(), resourceName), null);
+            }
+
+            @Override
+            public void removeOldPackages(final PoolObject poolObject) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public void testMemoryHitSkipsPackagePool() throws Exception {
+        final File file = new File(backend.getDirectory(), RESOURCE_NAME);
+        FileUtils.writeStringToFile(file, "Suite: stable\n", StandardCharsets.US_ASCII.name());
+
+        final PoolObject missed = packagePool.getPoolObject(backend, RESOURCE_NAME);
+        assertEquals(missed.getBuffer().remaining(), 14);
+        assertEquals(lookups.get(), 1);
+
+        final PoolObject hit = packagePool.getPoolObject(backend, RESOURCE_NAME);
+        assertEquals(hit.getName(), "InRelease");
+        assertEquals(hit.getSize(), 14);
+        assertEquals(hit.getLastModified(), file.lastModified());
+        try (InputStream is = hit.getInputStream()) {
+            assertEquals(IOUtils.toString(is, StandardCharsets.US_ASCII.name()), "Suite: stable\n");
+        }
+        assertEquals(lookups.get(), 1);
+
+        // The other package pool is only asked once the memory doesn't suffice
+        hit.getPartialSize();
+        assertEquals(lookups.get(), 2);
+    }
+
+    public void testPatternMismatch() throws Exception {
+        final PoolObject poolObject = packagePool.getPoolObject(backend, "/debian/pool/main/d/dummy_1.0_all.deb");
+
+        assertEquals(poolObject.getClass(), PoolFile.class);
+        assertEquals(lookups.get(), 1);
+    }
+
+}
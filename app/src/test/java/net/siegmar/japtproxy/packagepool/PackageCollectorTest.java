@@ -0,0 +1,156 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.packages.PackageIndexReader;
+import net.siegmar.japtproxy.packages.debian.PackagesIndexReader;
+import net.siegmar.japtproxy.packages.rpm.PrimaryIndexReader;
+import net.siegmar.japtproxy.poolobject.DiskQuota;
+import net.siegmar.japtproxy.poolobject.MemoryCache;
+import net.siegmar.japtproxy.poolobject.MetadataCache;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class PackageCollectorTest {
+
+    private static final long GRACE_PERIOD = 3600000;
+
+    private File dir;
+    private PackageCollector packageCollector;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy><cache-dir>" + new File(dir, "cache") +
+            "</cache-dir><garbage-collection grace-period=\"3600\"/></japt-proxy>", StandardCharsets.UTF_8.name());
+
+        final MetadataCache metadataCache = new MetadataCache();
+        metadataCache.setMaxEntries(10);
+
+        final Configuration configuration = new Configuration(configFile);
+
+        final DiskQuota diskQuota = new DiskQuota();
+        diskQuota.setConfiguration(configuration);
+        diskQuota.setMetadataCache(metadataCache);
+        diskQuota.setMemoryCache(new MemoryCache());
+        diskQuota.init();
+
+        packageCollector = new PackageCollector();
+        packageCollector.setConfiguration(configuration);
+        packageCollector.setIndexReaders(Arrays.<PackageIndexReader>asList(
+            new PackagesIndexReader(), new PrimaryIndexReader()));
+        packageCollector.setPattern("^.+\\.(u?deb|rpm)$");
+        packageCollector.setMetadataCache(metadataCache);
+        packageCollector.setDiskQuota(diskQuota);
+        packageCollector.setRepeatInterval(0);
+        packageCollector.setBatchSize(2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public void testRemoveUnreferencedPackages() throws Exception {
+        write("cache/deb.debian.org/debian/dists/stable/main/binary-amd64/Packages",
+            "Package: dummy\nVersion: 1.0\nFilename: pool/main/d/dummy/dummy_1.0_amd64.deb\n\n");
+        write("cache/mirror.centos.org/os/repodata/abc-primary.xml",
+            "<metadata><package><location href=\"Packages/dummy-1.0-1.x86_64.rpm\"/></package></metadata>");
+
+        final File referenced = write("cache/deb.debian.org/debian/pool/main/d/dummy/dummy_1.0_amd64.deb", "");
+        final File unreferenced = write("cache/deb.debian.org/debian/pool/main/d/dummy/dummy_0.9_amd64.deb", "");
+        final File referencedRpm = write("cache/mirror.centos.org/os/Packages/dummy-1.0-1.x86_64.rpm", "");
+        final File unreferencedRpm = write("cache/mirror.centos.org/os/Packages/dummy-0.9-1.x86_64.rpm", "");
+        final File sources = write("cache/deb.debian.org/debian/pool/main/d/dummy/dummy_1.0.dsc", "");
+
+        // The grace period of unreferenced packages starts with the first pass
+        collect(0);
+        assertTrue(unreferenced.exists());
+        assertTrue(unreferencedRpm.exists());
+
+        collect(GRACE_PERIOD);
+        assertTrue(referenced.exists());
+        assertFalse(unreferenced.exists());
+        assertTrue(referencedRpm.exists());
+        assertFalse(unreferencedRpm.exists());
+        assertTrue(sources.exists());
+    }
+
+    public void testKeepPackagesOfIncompleteRepositories() throws Exception {
+        write("cache/deb.debian.org/debian/dists/stable/main/binary-amd64/Packages.bz2", "unsupported");
+        final File unreferenced = write("cache/deb.debian.org/debian/pool/main/d/dummy/dummy_0.9_amd64.deb", "");
+        final File withoutIndex = write("cache/other.debian.org/debian/pool/main/d/dummy/dummy_0.9_amd64.deb", "");
+
+        collect(0);
+        collect(GRACE_PERIOD);
+
+        assertTrue(unreferenced.exists());
+        assertTrue(withoutIndex.exists());
+    }
+
+    public void testRemoveUnlinkedStoreFiles() throws Exception {
+        final String linkedDigest = DigestUtils.sha256Hex("linked");
+        final String unlinkedDigest = DigestUtils.sha256Hex("unlinked");
+        final File linked = write("cache/by-hash/SHA256/" + linkedDigest, "linked");
+        final File unlinked = write("cache/by-hash/SHA256/" + unlinkedDigest, "unlinked");
+        final File unlinkedMetadata = write("cache/by-hash/SHA256/" + unlinkedDigest + ".meta", "");
+
+        final File packages = new File(dir, "cache/deb.debian.org/debian/dists/stable/main/binary-amd64/Packages");
+        FileUtils.forceMkdir(packages.getParentFile());
+        Files.createLink(packages.toPath(), linked.toPath());
+
+        collect(0);
+        assertTrue(unlinked.exists());
+
+        collect(GRACE_PERIOD);
+        assertTrue(linked.exists());
+        assertFalse(unlinked.exists());
+        assertFalse(unlinkedMetadata.exists());
+    }
+
+    private File write(final String name, final String content) throws IOException {
+        final File file = new File(dir, name);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8.name());
+        return file;
+    }
+
+    private void collect(final long now) {
+        packageCollector.step(now);
+        while (packageCollector.isRunning()) {
+            packageCollector.step(now);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packagepool;
+
+import net.siegmar.japtproxy.packages.RepoPackageBuilder;
+import net.siegmar.japtproxy.packages.debian.DebianPackageVersionComparator;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class VersionIndexTest {
+
+    private File dir;
+    private RepoPackageBuilder repoPackageBuilder;
+    private VersionIndex versionIndex;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        repoPackageBuilder = new RepoPackageBuilder();
+        repoPackageBuilder.setPattern(Pattern.compile("^([^_]+)_([^-_]+)(?:-([^_]+))?_([^.]+)(?:\\.(u?deb))$"));
+
+        versionIndex = new VersionIndex(repoPackageBuilder, new DebianPackageVersionComparator());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public void testVersions() throws Exception {
+        for (final String filename : new String[]{"dummy_2.0_i386.deb", "dummy_1.0_i386.deb",
+            "dummy_1.5_amd64.deb", "other_1.0_i386.deb", "Packages"}) {
+            FileUtils.touch(new File(dir, filename));
+        }
+
+        assertEquals(versionIndex.getVersions(dir, repoPackageBuilder.newPackage("dummy_2.0_i386.deb")),
+            Arrays.asList("dummy_1.0_i386.deb", "dummy_2.0_i386.deb"));
+
+        // The index is kept up to date without listing the directory again
+        versionIndex.add(new File(dir, "dummy_1.10_i386.deb"));
+        versionIndex.remove(new File(dir, "dummy_1.0_i386.deb"));
+
+        assertEquals(versionIndex.getVersions(dir, repoPackageBuilder.newPackage("dummy_2.0_i386.deb")),
+            Arrays.asList("dummy_1.10_i386.deb", "dummy_2.0_i386.deb"));
+        assertEquals(versionIndex.getVersions(dir, repoPackageBuilder.newPackage("dummy_1.5_amd64.deb")),
+            Arrays.asList("dummy_1.5_amd64.deb"));
+    }
+
+}
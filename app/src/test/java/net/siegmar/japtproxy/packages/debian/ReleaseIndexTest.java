@@ -0,0 +1,113 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.packages.debian;
+
+import net.siegmar.japtproxy.poolobject.PoolFile;
+import net.siegmar.japtproxy.poolobject.PoolObject;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class ReleaseIndexTest {
+
+    private static final String PACKAGES = "Package: dummy\nVersion: 1.0\n";
+
+    private File dir;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private static String buildInRelease(final String packages) {
+        return "-----BEGIN PGP SIGNED MESSAGE-----\n" +
+            "Hash: SHA512\n" +
+            "\n" +
+            "Origin: Debian\n" +
+            "Suite: stable\n" +
+            "MD5Sum:\n" +
+            " " + DigestUtils.md5Hex(packages) + " " + packages.length() + " main/binary-amd64/Packages\n" +
+            "SHA256:\n" +
+            " " + DigestUtils.sha256Hex(packages) + " " + packages.length() + " main/binary-amd64/Packages\n" +
+            " " + DigestUtils.sha256Hex("") + " 0 main/binary-i386/Packages\n" +
+            "-----BEGIN PGP SIGNATURE-----\n" +
+            "\n" +
+            "iQIzBAEBCgAdFiEE\n" +
+            "-----END PGP SIGNATURE-----\n";
+    }
+
+    public void testParse() throws Exception {
+        final ReleaseFile releaseFile = ReleaseFile.parse(
+            new ByteArrayInputStream(buildInRelease(PACKAGES).getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(releaseFile.size(), 2);
+        assertEquals(releaseFile.getIndexFile("main/binary-amd64/Packages").getSha256(),
+            DigestUtils.sha256Hex(PACKAGES));
+        assertEquals(releaseFile.getIndexFile("main/binary-amd64/Packages").getSize(), PACKAGES.length());
+        assertNull(releaseFile.getIndexFile("main/binary-arm64/Packages"));
+    }
+
+    public void testIsCurrent() throws Exception {
+        final File inRelease = new File(dir, "debian/dists/stable/InRelease");
+        final File packages = new File(dir, "debian/dists/stable/main/binary-amd64/Packages");
+        FileUtils.writeStringToFile(inRelease, buildInRelease(PACKAGES), StandardCharsets.UTF_8.name());
+        FileUtils.writeStringToFile(packages, PACKAGES, StandardCharsets.UTF_8.name());
+
+        final ReleaseIndex releaseIndex = new ReleaseIndex();
+        final String resourceName = "/debian/dists/stable/main/binary-amd64/Packages";
+
+        assertTrue(releaseIndex.isCurrent(dir, resourceName, new PoolFile(packages, null)));
+        assertFalse(releaseIndex.isCurrent(dir, "/debian/dists/stable/InRelease", new PoolFile(inRelease, null)));
+
+        // A new release file invalidates the index file as soon as it is stored
+        final String newPackages = PACKAGES + "Architecture: amd64\n";
+        final PoolObject releasePoolObject = releaseIndex.track(dir, "/debian/dists/stable/InRelease",
+            new PoolFile(inRelease, null));
+        assertTrue(releasePoolObject instanceof ReleasePoolObject);
+        try (OutputStream os = releasePoolObject.getOutputStream(false)) {
+            os.write(buildInRelease(newPackages).getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(releaseIndex.isCurrent(dir, resourceName, new PoolFile(packages, null)));
+        releasePoolObject.store();
+        assertFalse(releaseIndex.isCurrent(dir, resourceName, new PoolFile(packages, null)));
+
+        FileUtils.writeStringToFile(packages, newPackages, StandardCharsets.UTF_8.name());
+        assertTrue(releaseIndex.isCurrent(dir, resourceName, new PoolFile(packages, null)));
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * A temporary cache directory with a configuration, a MetadataCache and a
+ * DiskQuota for tests of the cache components.
+ */
+public class CacheFixture {
+
+    private final File dir;
+    private Configuration configuration;
+    private MetadataCache metadataCache;
+    private DiskQuota diskQuota;
+
+    public CacheFixture() throws IOException {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+    }
+
+    /**
+     * Writes the configuration and initializes the cache components.
+     *
+     * @param configurationElements the elements of the configuration (without
+     *                              the japt-proxy root element).
+     */
+    public void init(final String configurationElements) throws Exception {
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy>" + configurationElements + "</japt-proxy>",
+            StandardCharsets.UTF_8.name());
+        configuration = new Configuration(configFile);
+
+        metadataCache = new MetadataCache();
+        metadataCache.setMaxEntries(10);
+
+        diskQuota = new DiskQuota();
+        diskQuota.setConfiguration(configuration);
+        diskQuota.setMetadataCache(metadataCache);
+        diskQuota.setMemoryCache(new MemoryCache());
+        diskQuota.init();
+    }
+
+    public void destroy() {
+        if (diskQuota != null) {
+            diskQuota.destroy();
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public File getFile(final String name) {
+        return new File(dir, name);
+    }
+
+    /**
+     * Writes a file of the given size.
+     *
+     * @param name the name of the file (relative to the temporary directory).
+     * @param size the size of the file.
+     * @return the written file.
+     */
+    public File write(final String name, final int size) throws IOException {
+        final File file = getFile(name);
+        FileUtils.writeByteArrayToFile(file, new byte[size]);
+        return file;
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public DiskQuota getDiskQuota() {
+        return diskQuota;
+    }
+
+}
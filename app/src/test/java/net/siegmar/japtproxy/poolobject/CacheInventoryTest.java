@@ -0,0 +1,124 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import net.siegmar.japtproxy.packages.RepoPackageBuilder;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class CacheInventoryTest {
+
+    private File dir;
+    private CacheInventory cacheInventory;
+    private final List<CacheInventory.Entry> entries = new ArrayList<>();
+    private boolean completed;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy><cache-dir>" + new File(dir, "cache") +
+            "</cache-dir></japt-proxy>", StandardCharsets.UTF_8.name());
+
+        final RepoPackageBuilder repoPackageBuilder = new RepoPackageBuilder();
+        repoPackageBuilder.setPattern(Pattern.compile("^([^_]+)_([^-_]+)(?:-([^_]+))?_([^.]+)(?:\\.(u?deb))$"));
+
+        cacheInventory = new CacheInventory();
+        cacheInventory.setConfiguration(new Configuration(configFile));
+        cacheInventory.setRepoPackageBuilders(Collections.singletonList(repoPackageBuilder));
+        cacheInventory.setListeners(Collections.<InventoryListener>singletonList(new InventoryListener() {
+            @Override
+            public void inventoried(final List<CacheInventory.Entry> inventoryEntries) {
+                synchronized (entries) {
+                    entries.addAll(inventoryEntries);
+                }
+            }
+
+            @Override
+            public void inventoryCompleted() {
+                completed = true;
+            }
+        }));
+        cacheInventory.setParallelism(2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        cacheInventory.destroy();
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public void testScan() throws Exception {
+        final File deb = write("cache/debian/pool/main/f/foo/foo_1.0-1_amd64.deb", 10);
+        write("cache/debian/pool/main/f/foo/foo_1.0-1_amd64.deb.meta", 3);
+        write("cache/debian/pool/main/f/foo/foo_1.1-1_amd64.deb.tmp", 3);
+        final File release = write("cache/debian/dists/stable/Release", 5);
+
+        assertFalse(cacheInventory.isCompleted());
+        cacheInventory.scan();
+
+        assertTrue(cacheInventory.isCompleted());
+        assertTrue(completed);
+        assertEquals(cacheInventory.getDirectories(), 8);
+        assertEquals(cacheInventory.getFiles(), 2);
+        assertEquals(cacheInventory.getBytes(), 15);
+        assertEquals(cacheInventory.getRepoPackages(), 1);
+
+        final Map<File, CacheInventory.Entry> entriesByFile = new HashMap<>();
+        for (final CacheInventory.Entry entry : entries) {
+            entriesByFile.put(entry.getFile(), entry);
+        }
+        assertEquals(entriesByFile.size(), 2);
+
+        final CacheInventory.Entry debEntry = entriesByFile.get(deb.getAbsoluteFile());
+        assertEquals(debEntry.getSize(), 10);
+        assertEquals(debEntry.getLastModified(), deb.lastModified());
+        assertEquals(debEntry.getRepoPackage().getBasename(), "foo");
+
+        assertNull(entriesByFile.get(release.getAbsoluteFile()).getRepoPackage());
+    }
+
+    private File write(final String path, final int size) throws IOException {
+        final File file = new File(dir, path);
+        FileUtils.writeByteArrayToFile(file, new byte[size]);
+        return file;
+    }
+
+}
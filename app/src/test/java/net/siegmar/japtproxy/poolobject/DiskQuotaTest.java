@@ -0,0 +1,92 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class DiskQuotaTest {
+
+    private static final long LATER = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+
+    private CacheFixture fixture;
+    private DiskQuota diskQuota;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        fixture = new CacheFixture();
+        fixture.init("<cache-dir>" + fixture.getFile("cache") + "</cache-dir>" +
+            "<disk-quota size=\"100\" high-watermark=\"90\" low-watermark=\"50\">" +
+            "<backend name=\"b\" size=\"20\"/></disk-quota>");
+        diskQuota = fixture.getDiskQuota();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        fixture.destroy();
+    }
+
+    public void testEvictLargeAndRarelyAccessedFiles() throws Exception {
+        final File small = store("cache/a/small", 10);
+        final File frequent = store("cache/a/frequent", 40);
+        final File rare = store("cache/a/rare", 40);
+
+        diskQuota.accessed(frequent);
+        diskQuota.accessed(frequent);
+
+        // Recently accessed files are never evicted
+        diskQuota.evict(System.currentTimeMillis());
+        assertEquals(diskQuota.getTotalSize(), 90);
+
+        diskQuota.evict(LATER);
+        assertEquals(diskQuota.getTotalSize(), 50);
+        assertTrue(small.exists());
+        assertTrue(frequent.exists());
+        assertFalse(rare.exists());
+    }
+
+    public void testEvictBackendAboveQuota() throws Exception {
+        final File first = store("cache/b/first", 8);
+        final File second = store("cache/b/second", 8);
+        final File other = store("cache/a/other", 10);
+
+        diskQuota.evict(LATER);
+        assertEquals(diskQuota.getTotalSize("b"), 8);
+        assertFalse(first.exists());
+        assertTrue(second.exists());
+        assertTrue(other.exists());
+    }
+
+    private File store(final String name, final int size) throws IOException {
+        final File file = fixture.write(name, size);
+        diskQuota.stored(file, size);
+        return file;
+    }
+
+}
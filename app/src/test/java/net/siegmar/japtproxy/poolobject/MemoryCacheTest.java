@@ -0,0 +1,111 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+@Test
+public class MemoryCacheTest {
+
+    private File dir;
+    private MemoryCache memoryCache;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy><cache-dir>" + dir + "</cache-dir>" +
+            "<memory-cache size=\"10\" max-object-size=\"6\"/></japt-proxy>", StandardCharsets.UTF_8.name());
+
+        memoryCache = new MemoryCache();
+        memoryCache.setConfiguration(new Configuration(configFile));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private static MemoryCache.Entry entry(final String content) {
+        return new MemoryCache.Entry(ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII)), 0, null, null);
+    }
+
+    public void testEviction() {
+        memoryCache.put("a", entry("aaaa"));
+        memoryCache.put("b", entry("bbbb"));
+        memoryCache.put("toolarge", entry("1234567"));
+
+        assertNull(memoryCache.get("toolarge"));
+        assertEquals(memoryCache.getSize(), 8);
+
+        // Access 'a' - 'b' is the least recently used entry
+        assertNotNull(memoryCache.get("a"));
+        memoryCache.put("c", entry("cccc"));
+
+        assertNotNull(memoryCache.get("a"));
+        assertNull(memoryCache.get("b"));
+        assertNotNull(memoryCache.get("c"));
+        assertEquals(memoryCache.getSize(), 8);
+    }
+
+    public void testLoadAndInvalidate() throws Exception {
+        final File file = new File(dir, "InRelease");
+        FileUtils.writeStringToFile(file, "old", StandardCharsets.US_ASCII.name());
+
+        final PoolObject poolObject = new MemoryCachedPoolObject(new PoolFile(file, null), "InRelease", memoryCache);
+
+        final ByteBuffer buffer = poolObject.getBuffer();
+        assertEquals(buffer.remaining(), 3);
+        assertEquals(memoryCache.getSize(), 3);
+
+        // Served from memory even if the file is gone
+        FileUtils.forceDelete(file);
+        assertEquals(poolObject.getSize(), 3);
+        final InputStream is = poolObject.getInputStream();
+        assertEquals(IOUtils.toString(is, StandardCharsets.US_ASCII.name()), "old");
+        is.close();
+
+        // Storing a new version invalidates the cached one
+        final OutputStream os = poolObject.getOutputStream(false);
+        os.write("new!".getBytes(StandardCharsets.US_ASCII));
+        os.close();
+        poolObject.store();
+
+        assertEquals(memoryCache.getSize(), 0);
+        assertEquals(poolObject.getBuffer().remaining(), 4);
+    }
+
+}
@@ -0,0 +1,201 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import net.siegmar.japtproxy.misc.Configuration;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class PackStoreTest {
+
+    private File dir;
+    private Configuration configuration;
+    private PackStore packStore;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        final File configFile = new File(dir, "japt-proxy.cfg.xml");
+        FileUtils.writeStringToFile(configFile, "<japt-proxy><cache-dir>" + new File(dir, "cache") +
+            "</cache-dir><pack-store directory=\"" + new File(dir, "packs") + "\" max-object-size=\"100\"/>" +
+            "</japt-proxy>", StandardCharsets.UTF_8.name());
+        configuration = new Configuration(configFile);
+
+        packStore = newPackStore();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        packStore.destroy();
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private PackStore newPackStore() throws IOException {
+        final PackStore store = new PackStore();
+        store.setConfiguration(configuration);
+        store.setSegmentSize(300);
+        store.setCompactionInterval(3600000);
+        store.setCompactionThreshold(50);
+        store.init();
+        return store;
+    }
+
+    private PackStore reopen() throws IOException {
+        packStore.destroy();
+        packStore = newPackStore();
+        return packStore;
+    }
+
+    public void testPutAndRemove() throws Exception {
+        put("a", "first a");
+        put("b", "first b");
+        put("a", "second a");
+        packStore.remove("b");
+
+        assertContent("a", "second a");
+        assertNull(packStore.getContent("b"));
+        assertEquals(packStore.getMetadata("a").getSize(), 8);
+
+        // The index is rebuilt from the segments
+        reopen();
+        assertEquals(packStore.size(), 1);
+        assertContent("a", "second a");
+        assertNull(packStore.getMetadata("b"));
+    }
+
+    public void testCompaction() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            put("a", "version " + i + " of a");
+        }
+        put("b", "b");
+        packStore.remove("b");
+        final int segments = packStore.getSegmentCount();
+
+        while (packStore.compact()) {
+            assertContent("a", "version 9 of a");
+        }
+
+        assertTrue(packStore.getSegmentCount() < segments);
+        assertContent("a", "version 9 of a");
+
+        reopen();
+        assertEquals(packStore.size(), 1);
+        assertContent("a", "version 9 of a");
+    }
+
+    public void testCompactLiveRecordsInPlace() throws Exception {
+        put("a", "a");
+        for (int i = 0; i < 10; i++) {
+            put("b", "version " + i + " of b");
+        }
+
+        // The first segment holds the live record of a and dead records of b
+        final ByteBuffer content = packStore.getContent("a");
+        assertTrue(packStore.compact());
+        assertEquals(content.remaining(), 1);
+        assertContent("a", "a");
+
+        put("a", "new a");
+        reopen();
+        assertContent("a", "new a");
+        assertContent("b", "version 9 of b");
+    }
+
+    public void testTruncateCorruptSegment() throws Exception {
+        put("a", "a");
+        put("b", "b");
+
+        final File segment = new File(dir, "packs/0000000001.pack");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        reopen();
+        assertContent("a", "a");
+        assertNull(packStore.getContent("b"));
+
+        put("b", "new b");
+        reopen();
+        assertContent("b", "new b");
+    }
+
+    public void testPackedPoolObject() throws Exception {
+        final File resource = new File(dir, "cache/debian/dists/stable/InRelease");
+        final File largeResource = new File(dir, "cache/debian/dists/stable/Translation-en");
+        final PoolObject small = new PackedPoolObject(new PoolFile(resource, null), resource.getPath(), packStore);
+        final PoolObject large = new PackedPoolObject(new PoolFile(largeResource, null), largeResource.getPath(),
+            packStore);
+
+        write(small, new byte[10], 1000000000000L);
+        write(large, new byte[101], 1000000000000L);
+
+        assertFalse(resource.exists());
+        assertEquals(small.getSize(), 10);
+        assertEquals(small.getLastModified(), 1000000000000L);
+        assertEquals(small.getBuffer().remaining(), 10);
+        assertEquals(IOUtils.toByteArray(small.getInputStream()).length, 10);
+
+        assertTrue(largeResource.exists());
+        assertNull(large.getBuffer());
+        assertEquals(large.getSize(), 101);
+
+        small.remove();
+        assertEquals(small.getLastModified(), 0);
+    }
+
+    private void put(final String key, final String content) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        packStore.put(key, new PoolObjectMetadata(1, bytes.length, "text/plain", null, null), bytes);
+    }
+
+    private void assertContent(final String key, final String content) throws IOException {
+        final ByteBuffer buffer = packStore.getContent(key);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertEquals(new String(bytes, StandardCharsets.UTF_8), content);
+    }
+
+    private static void write(final PoolObject poolObject, final byte[] content, final long lastModified)
+        throws IOException {
+        try (OutputStream os = poolObject.getOutputStream(false)) {
+            os.write(content);
+        }
+        poolObject.setLastModified(lastModified);
+        poolObject.store();
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+@Test
+public class PoolFileTest {
+
+    private static final long LAST_MODIFIED = 1_400_000_000_000L;
+
+    private File dir;
+    private MetadataCache metadataCache;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("japt-proxy-test").toFile();
+
+        metadataCache = new MetadataCache();
+        metadataCache.setMaxEntries(10);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    public void testStoreMetadata() throws Exception {
+        final File file = new File(dir, "InRelease");
+        final PoolFile poolFile = new PoolFile(file, null, metadataCache);
+        assertNull(poolFile.getMetadata());
+        assertEquals(poolFile.getLastModified(), 0);
+
+        final OutputStream os = poolFile.getOutputStream(false);
+        os.write(new byte[]{1, 2, 3});
+        os.close();
+        poolFile.setLastModified(LAST_MODIFIED);
+        poolFile.setMetadata(new PoolObjectMetadata(LAST_MODIFIED, 3, "text/plain", "\"abc\"",
+            "http://example.org/debian/InRelease"));
+        poolFile.store();
+
+        assertEquals(metadataCache.size(), 1);
+
+        // The metadata file is read if the cache doesn't hold the metadata
+        final PoolObjectMetadata metadata = new PoolFile(file, null).getMetadata();
+        assertNotNull(metadata);
+        assertEquals(metadata.getLastModified(), file.lastModified());
+        assertEquals(metadata.getSize(), 3);
+        assertEquals(metadata.getContentType(), "text/plain");
+        assertEquals(metadata.getETag(), "\"abc\"");
+        assertEquals(metadata.getUrl(), "http://example.org/debian/InRelease");
+
+        poolFile.remove();
+        assertEquals(metadataCache.size(), 0);
+        assertFalse(PoolFile.getMetadataFile(file).exists());
+        assertNull(new PoolFile(file, null, metadataCache).getMetadata());
+    }
+
+    public void testFileWithoutMetadata() throws Exception {
+        final File file = new File(dir, "dummy_1.0_i386.deb");
+        FileUtils.writeStringToFile(file, "01234", StandardCharsets.US_ASCII.name());
+
+        final PoolObjectMetadata metadata = new PoolFile(file, null, metadataCache).getMetadata();
+        assertNotNull(metadata);
+        assertEquals(metadata.getSize(), 5);
+        assertEquals(metadata.getLastModified(), file.lastModified());
+        assertNull(metadata.getETag());
+        assertFalse(PoolFile.getMetadataFile(file).exists());
+    }
+
+}
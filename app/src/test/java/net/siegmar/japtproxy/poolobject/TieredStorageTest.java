@@ -0,0 +1,113 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy.poolobject;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test
+public class TieredStorageTest {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private CacheFixture fixture;
+    private TieredStorage tieredStorage;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        fixture = new CacheFixture();
+        fixture.init("<cache-dir>" + fixture.getFile("hot") + "</cache-dir>" +
+            "<tiered-storage cold-dir=\"" + fixture.getFile("cold") + "\" hot-size=\"100\" promotion-hits=\"2\"/>");
+
+        tieredStorage = new TieredStorage();
+        tieredStorage.setConfiguration(fixture.getConfiguration());
+        tieredStorage.setMetadataCache(fixture.getMetadataCache());
+        tieredStorage.setDiskQuota(fixture.getDiskQuota());
+        tieredStorage.setHitWindow(3600000);
+        tieredStorage.init();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        tieredStorage.destroy();
+        fixture.destroy();
+    }
+
+    public void testDemoteAndPromote() throws Exception {
+        final long now = System.currentTimeMillis();
+        final File first = write("hot/b/first", 60, now - TimeUnit.MINUTES.toMillis(10));
+        final File second = write("hot/b/second", 30, now - TimeUnit.MINUTES.toMillis(5));
+        final File coldFirst = fixture.getFile("cold/b/first");
+        final File coldSecond = fixture.getFile("cold/b/second");
+
+        tieredStorage.inventoried(Arrays.asList(
+            new CacheInventory.Entry(first, 60, first.lastModified(), null),
+            new CacheInventory.Entry(second, 30, second.lastModified(), null)));
+        tieredStorage.inventoryCompleted();
+        assertEquals(tieredStorage.locate(first), first);
+
+        // The hot tier isn't above its size - the third file is new and not demoted
+        final File third = write("hot/b/third", 30, now);
+        tieredStorage.stored(third, 30);
+
+        awaitLocation(first, coldFirst);
+        assertEquals(tieredStorage.getHotSize(), 60);
+        assertEquals(tieredStorage.locate(second), second);
+        assertEquals(tieredStorage.locate(third), third);
+        assertTrue(coldFirst.exists());
+
+        tieredStorage.accessed(coldFirst);
+        assertEquals(tieredStorage.locate(first), coldFirst);
+
+        // The second hit promotes the file - the second file is demoted to make room
+        tieredStorage.accessed(coldFirst);
+        awaitLocation(first, first);
+        awaitLocation(second, coldSecond);
+        assertEquals(tieredStorage.locate(third), third);
+        assertEquals(tieredStorage.getHotSize(), 90);
+        assertEquals(tieredStorage.getHotFile(coldSecond), second.getAbsoluteFile());
+    }
+
+    private void awaitLocation(final File file, final File expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!tieredStorage.locate(file).getAbsoluteFile().equals(expected.getAbsoluteFile())) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("File " + file + " not located at " + expected);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private File write(final String path, final int size, final long lastModified) throws IOException {
+        final File file = fixture.write(path, size);
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+}
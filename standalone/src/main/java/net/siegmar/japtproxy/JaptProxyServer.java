@@ -20,10 +20,12 @@ package net.siegmar.japtproxy;
 
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.core.util.StatusPrinter;
+import net.siegmar.japtproxy.misc.Configuration;
 import net.siegmar.japtproxy.misc.Util;
 import org.apache.commons.lang3.StringUtils;
 import org.mortbay.jetty.Connector;
 import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
 import org.mortbay.jetty.nio.BlockingChannelConnector;
 import org.mortbay.jetty.servlet.Context;
 import org.mortbay.jetty.servlet.ServletHolder;
@@ -104,7 +106,16 @@ public final class JaptProxyServer {
         // Jetty startup
         final Server server = new Server();
 
-        final Connector connector = new BlockingChannelConnector();
+        final boolean virtualThreads =
+            classPathXmlApplicationContext.getBean("configuration", Configuration.class).isVirtualThreads();
+        if (virtualThreads) {
+            log.info("Handling connections on virtual threads");
+            server.setThreadPool(new VirtualThreadPool());
+        }
+
+        // The channel end points of the BlockingChannelConnector read and write within monitors, which
+        // pins the carrier thread of a virtual thread for as long as a connection waits for the client
+        final Connector connector = virtualThreads ? new SocketConnector() : new BlockingChannelConnector();
 
         if (!StringUtils.isBlank(host)) {
             connector.setHost(host);
@@ -127,6 +138,15 @@ public final class JaptProxyServer {
             // shame on Jetty's exception handling
             throw new IllegalStateException("Couldn't start HTTP engine", e);
         }
+
+        if (virtualThreads) {
+            // Virtual threads don't keep the JVM alive
+            try {
+                server.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     private static boolean checkRequiredOptions() {
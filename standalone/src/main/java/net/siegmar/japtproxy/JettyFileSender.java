@@ -0,0 +1,151 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy;
+
+import net.siegmar.japtproxy.misc.ChannelFileSender;
+import org.mortbay.io.nio.DirectNIOBuffer;
+import org.mortbay.jetty.HttpConnection;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The JettyFileSender hands memory mapped files and direct buffers directly
+ * to the embedded Jetty, which writes them to the socket channel of the
+ * connection without copying the data through the Java heap. Jetty 6 has no
+ * way to send a file region by the channel of the file itself.
+ * <p/>
+ * Mappings are kept for the most recently sent files up to a total size and
+ * reused by further requests of the same file. A mapping is released by the
+ * garbage collector once it has been evicted and sent - so the mapped size
+ * exceeds the limit until then, and a mapping keeps the disk space of a
+ * replaced or purged file. Files larger than the limit are sent by the
+ * {@link ChannelFileSender}.
+ *
+ * @author Oliver Siegmar
+ */
+public class JettyFileSender extends ChannelFileSender {
+
+    private static final long DEFAULT_MAX_MAPPED_SIZE = 268435456;
+
+    /**
+     * The mappings by the key of their file - least recently used first.
+     */
+    private final Map<String, MappedByteBuffer> mappings = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The total size of the kept mappings.
+     */
+    private long mappedSize;
+
+    private long maxMappedSize = DEFAULT_MAX_MAPPED_SIZE;
+
+    /**
+     * Sets the total size of the kept mappings (default: 256 MB).
+     *
+     * @param maxMappedSize the size in bytes.
+     */
+    public void setMaxMappedSize(final long maxMappedSize) {
+        this.maxMappedSize = Math.min(maxMappedSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(final FileChannel channel, final String key, final long position, final long count,
+                     final HttpServletResponse res)
+        throws IOException {
+        final ServletOutputStream out = res.getOutputStream();
+
+        final ByteBuffer mapping = count > 0 && out instanceof HttpConnection.Output
+            ? getMapping(channel, key)
+            : null;
+
+        if (mapping == null) {
+            super.send(channel, key, position, count, res);
+            return;
+        }
+
+        // The mapping stays valid even if the file gets replaced by a newer version
+        final ByteBuffer region = mapping.duplicate();
+        region.position((int) position);
+        region.limit((int) (position + count));
+        ((HttpConnection.Output) out).sendContent(new DirectNIOBuffer(region.slice(), true));
+    }
+
+    private ByteBuffer getMapping(final FileChannel channel, final String key) throws IOException {
+        synchronized (mappings) {
+            final MappedByteBuffer mapping = mappings.get(key);
+            if (mapping != null) {
+                return mapping;
+            }
+        }
+
+        final long size = channel.size();
+        if (size > maxMappedSize) {
+            return null;
+        }
+
+        final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+        synchronized (mappings) {
+            // Another request may have mapped the same file meanwhile
+            final MappedByteBuffer existing = mappings.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            mappings.put(key, mapping);
+            mappedSize += size;
+
+            final Iterator<MappedByteBuffer> it = mappings.values().iterator();
+            while (mappedSize > maxMappedSize) {
+                mappedSize -= it.next().capacity();
+                it.remove();
+            }
+        }
+
+        return mapping;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(final ByteBuffer buffer, final HttpServletResponse res)
+        throws IOException {
+        final ServletOutputStream out = res.getOutputStream();
+
+        if (!buffer.hasRemaining() || !buffer.isDirect() || !(out instanceof HttpConnection.Output)) {
+            super.send(buffer, res);
+            return;
+        }
+
+        ((HttpConnection.Output) out).sendContent(new DirectNIOBuffer(buffer.slice(), true));
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Japt-Proxy: The JAVA(TM) based APT-Proxy
+ *
+ * Copyright (C) 2006-2008  Oliver Siegmar <oliver@siegmar.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.siegmar.japtproxy;
+
+import net.siegmar.japtproxy.misc.VirtualThreads;
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.thread.ThreadPool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The VirtualThreadPool is a ThreadPool for the embedded Jetty that runs
+ * every job (accepting and handling connections) on a new virtual thread.
+ * Blocking I/O of a request - like fetching a remote resource or sending
+ * a file to a slow client - only occupies a carrier thread while it's
+ * actually running.
+ *
+ * @author Oliver Siegmar
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final ThreadFactory threadFactory = VirtualThreads.newThreadFactory("jetty-");
+    private final AtomicInteger threads = new AtomicInteger();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean dispatch(final Runnable job) {
+        if (!isRunning()) {
+            return false;
+        }
+
+        threads.incrementAndGet();
+        threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.run();
+                } finally {
+                    threads.decrementAndGet();
+                }
+            }
+        }).start();
+
+        return true;
+    }
+
+    /**
+     * Waits until the pool has been stopped - virtual threads are daemon
+     * threads, so they don't keep the JVM alive on their own.
+     *
+     * @throws InterruptedException {@inheritDoc}
+     */
+    @Override
+    public void join() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getThreads() {
+        return threads.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        stopped.countDown();
+        super.doStop();
+    }
+
+}